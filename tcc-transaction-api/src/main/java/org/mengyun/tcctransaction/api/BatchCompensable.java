@@ -0,0 +1,19 @@
+package org.mengyun.tcctransaction.api;
+
+import java.util.List;
+
+/**
+ * Implemented by the class or remote interface of a participant able to confirm or cancel many transactions in one
+ * call. When recoverTerminateBatchSize is set, the recovery groups the transactions pending on the participant and
+ * calls these methods with chunks of their contexts, instead of the confirm or cancel method once per transaction. A
+ * chunk only holds transactions pending on the same confirm or cancel method.
+ * <p/>
+ * Only the transaction contexts are passed, not the arguments of the confirm and cancel methods. Like those, both
+ * methods are to be idempotent: a call failing fails the whole chunk, which is retried later.
+ */
+public interface BatchCompensable {
+
+    void confirmBatch(List<TransactionContext> transactionContexts);
+
+    void cancelBatch(List<TransactionContext> transactionContexts);
+}
@@ -0,0 +1,92 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Transactions shaped like the ones of the tutorial sample: a root transaction with remote participants
+ * taking an order dto as argument.
+ */
+public class BenchmarkTransactions {
+
+    private static final Class[] PARAMETER_TYPES = new Class[]{OrderDto.class};
+
+    public static Transaction newTransaction(int participantCount, int payloadSize) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        for (int i = 0; i < participantCount; i++) {
+
+            OrderDto order = new OrderDto("ORDER-" + i, 10000L + i, new BigDecimal("99.90"), payloadSize);
+            TransactionXid xid = new TransactionXid(((TransactionXid) transaction.getXid()).getGlobalTransactionId());
+
+            transaction.enlistParticipant(new Participant(xid,
+                    new InvocationContext(OrderService.class, "confirmRecord", PARAMETER_TYPES, order),
+                    new InvocationContext(OrderService.class, "cancelRecord", PARAMETER_TYPES, order),
+                    Compensable.DefaultTransactionContextEditor.class));
+        }
+
+        return transaction;
+    }
+
+    public interface OrderService {
+
+        void confirmRecord(OrderDto order);
+
+        void cancelRecord(OrderDto order);
+    }
+
+    public static class OrderDto implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String orderNo;
+
+        private long userId;
+
+        private BigDecimal amount;
+
+        private Map<String, String> remarks = new HashMap<String, String>();
+
+        public OrderDto() {
+
+        }
+
+        public OrderDto(String orderNo, long userId, BigDecimal amount, int payloadSize) {
+            this.orderNo = orderNo;
+            this.userId = userId;
+            this.amount = amount;
+
+            StringBuilder remark = new StringBuilder(payloadSize);
+            for (int i = 0; i < payloadSize; i++) {
+                remark.append((char) ('a' + i % 26));
+            }
+            remarks.put("remark", remark.toString());
+        }
+
+        public String getOrderNo() {
+            return orderNo;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public Map<String, String> getRemarks() {
+            return remarks;
+        }
+    }
+}
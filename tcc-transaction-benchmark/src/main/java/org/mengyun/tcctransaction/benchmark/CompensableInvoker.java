@@ -0,0 +1,55 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.interceptor.CompensableTransactionInterceptor;
+import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorInterceptor;
+
+import java.lang.reflect.Method;
+
+/**
+ * Calls compensable methods through the CompensableTransactionInterceptor and then the ResourceCoordinatorInterceptor,
+ * in the order of the aspects, the way the woven methods run inside a Spring application.
+ */
+public class CompensableInvoker {
+
+    private final TransactionManager transactionManager;
+
+    private final MethodJoinPoint.Advice[] advices;
+
+    public CompensableInvoker(TransactionRepository transactionRepository) {
+
+        transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+
+        final CompensableTransactionInterceptor compensableTransactionInterceptor = new CompensableTransactionInterceptor();
+        compensableTransactionInterceptor.setTransactionManager(transactionManager);
+
+        final ResourceCoordinatorInterceptor resourceCoordinatorInterceptor = new ResourceCoordinatorInterceptor();
+        resourceCoordinatorInterceptor.setTransactionManager(transactionManager);
+
+        advices = new MethodJoinPoint.Advice[]{
+                new MethodJoinPoint.Advice() {
+                    @Override
+                    public Object around(ProceedingJoinPoint pjp) throws Throwable {
+                        return compensableTransactionInterceptor.interceptCompensableMethod(pjp);
+                    }
+                },
+                new MethodJoinPoint.Advice() {
+                    @Override
+                    public Object around(ProceedingJoinPoint pjp) throws Throwable {
+                        return resourceCoordinatorInterceptor.interceptTransactionContextMethod(pjp);
+                    }
+                }
+        };
+    }
+
+    public TransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public Object invoke(Object target, Method method, Object... args) throws Throwable {
+        return MethodJoinPoint.invoke(target, method, args, advices);
+    }
+}
@@ -0,0 +1,141 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.UniqueIdentity;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A root service placing an order with participantCount record services, all compensable.
+ * <p/>
+ * The confirm and cancel methods are called by the Terminator on the instance FactoryBuilder holds for the class,
+ * so the services are set up through {@link #placeOrderService()} and {@link #recordService()}.
+ */
+public class CompensableServices {
+
+    public static PlaceOrderService placeOrderService() {
+        return FactoryBuilder.factoryOf(PlaceOrderService.class).getInstance();
+    }
+
+    public static RecordService recordService() {
+        return FactoryBuilder.factoryOf(RecordService.class).getInstance();
+    }
+
+    public static class PlaceOrderService {
+
+        static final Method PLACE = methodOf(PlaceOrderService.class, "place", UUID.class, BenchmarkTransactions.OrderDto.class, int.class);
+
+        private volatile CompensableInvoker invoker;
+
+        public void setInvoker(CompensableInvoker invoker) {
+            this.invoker = invoker;
+        }
+
+        public void placeThroughInterceptors(BenchmarkTransactions.OrderDto order, int participantCount) throws Throwable {
+            invoker.invoke(this, PLACE, UUID.randomUUID(), order, participantCount);
+        }
+
+        @Compensable(confirmMethod = "confirmPlace", cancelMethod = "cancelPlace")
+        public void place(@UniqueIdentity UUID requestId, BenchmarkTransactions.OrderDto order, int participantCount) throws Throwable {
+
+            RecordService recordService = recordService();
+
+            for (int i = 0; i < participantCount; i++) {
+                invoker.invoke(recordService, RecordService.RECORD, null, order);
+            }
+        }
+
+        public void confirmPlace(UUID requestId, BenchmarkTransactions.OrderDto order, int participantCount) {
+
+        }
+
+        public void cancelPlace(UUID requestId, BenchmarkTransactions.OrderDto order, int participantCount) {
+
+        }
+    }
+
+    /**
+     * A synthetic participant, every phase waits for its latency and then fails with the configured rate.
+     * Both are zero unless set.
+     */
+    public static class RecordService {
+
+        static final Method RECORD = methodOf(RecordService.class, "record", TransactionContext.class, BenchmarkTransactions.OrderDto.class);
+
+        private volatile long tryLatencyNanos;
+
+        private volatile long confirmLatencyNanos;
+
+        private volatile long cancelLatencyNanos;
+
+        private volatile double tryFailureRate;
+
+        private volatile double confirmFailureRate;
+
+        private volatile double cancelFailureRate;
+
+        @Compensable(confirmMethod = "confirmRecord", cancelMethod = "cancelRecord")
+        public void record(TransactionContext transactionContext, BenchmarkTransactions.OrderDto order) {
+            simulate("try", tryLatencyNanos, tryFailureRate);
+        }
+
+        public void confirmRecord(TransactionContext transactionContext, BenchmarkTransactions.OrderDto order) {
+            simulate("confirm", confirmLatencyNanos, confirmFailureRate);
+        }
+
+        public void cancelRecord(TransactionContext transactionContext, BenchmarkTransactions.OrderDto order) {
+            simulate("cancel", cancelLatencyNanos, cancelFailureRate);
+        }
+
+        public void setLatency(long tryLatency, long confirmLatency, long cancelLatency, TimeUnit unit) {
+            this.tryLatencyNanos = unit.toNanos(tryLatency);
+            this.confirmLatencyNanos = unit.toNanos(confirmLatency);
+            this.cancelLatencyNanos = unit.toNanos(cancelLatency);
+        }
+
+        public void setFailureRate(double tryFailureRate, double confirmFailureRate, double cancelFailureRate) {
+            this.tryFailureRate = tryFailureRate;
+            this.confirmFailureRate = confirmFailureRate;
+            this.cancelFailureRate = cancelFailureRate;
+        }
+
+        private void simulate(String phase, long latencyNanos, double failureRate) {
+
+            if (latencyNanos > 0) {
+                long deadline = System.nanoTime() + latencyNanos;
+                long remaining = latencyNanos;
+                while (remaining > 0) {
+                    LockSupport.parkNanos(remaining);
+                    remaining = deadline - System.nanoTime();
+                }
+            }
+
+            if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                throw new SyntheticFailureException(phase);
+            }
+        }
+    }
+
+    public static class SyntheticFailureException extends RuntimeException {
+
+        private static final long serialVersionUID = 5262133318364937470L;
+
+        public SyntheticFailureException(String phase) {
+            super("synthetic " + phase + " failure");
+        }
+    }
+
+    static Method methodOf(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A root compensable method enlisting participantCount compensable calls, through both interceptors: begin, the try
+ * of every participant, commit and delete of the transaction record.
+ * <p/>
+ * The repository is one of the stand-ins of {@link StandInRepository}, the memory one leaves the
+ * cost of the interceptors and the serialization. Pick other ones with -p repositoryName=redis.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    @Param({StandInRepository.MEMORY, StandInRepository.JDBC})
+    private String repositoryName;
+
+    @Param({"registerableKryo"})
+    private String serializerName;
+
+    @Param({"2"})
+    private int participantCount;
+
+    @Param({"64"})
+    private int payloadSize;
+
+    private StandInRepository standIn;
+
+    private CompensableServices.PlaceOrderService placeOrderService;
+
+    private BenchmarkTransactions.OrderDto order;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        standIn = StandInRepository.of(repositoryName, SerializerBenchmark.Serializers.of(serializerName));
+
+        placeOrderService = CompensableServices.placeOrderService();
+        placeOrderService.setInvoker(new CompensableInvoker(standIn.getRepository()));
+
+        order = new BenchmarkTransactions.OrderDto("ORDER-0", 10000L, new BigDecimal("99.90"), payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        standIn.close();
+    }
+
+    @Benchmark
+    public void placeOrder() throws Throwable {
+        placeOrderService.placeThroughInterceptors(order, participantCount);
+    }
+}
@@ -0,0 +1,78 @@
+package org.mengyun.tcctransaction.benchmark;
+
+/**
+ * Counts of recorded values in log-linear buckets, 32 per power of two, so a percentile is off by 3% at most while
+ * recording takes no allocation. Not thread safe, keep one per thread and merge them.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + SUB_BUCKET_COUNT];
+
+    private long totalCount;
+
+    private long max;
+
+    public void record(long value) {
+        counts[indexOf(value)]++;
+        totalCount++;
+        max = Math.max(max, value);
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        max = Math.max(max, other.max);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The lowest value of the bucket holding the given percentile, in [0, 100].
+     */
+    public long getValueAtPercentile(double percentile) {
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(valueOf(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    static int indexOf(long value) {
+
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) Math.max(0, value);
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    static long valueOf(int index) {
+
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return (long) (index - shift * SUB_BUCKET_COUNT) << shift;
+    }
+}
@@ -0,0 +1,197 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.aspectj.lang.reflect.SourceLocation;
+import org.aspectj.runtime.internal.AroundClosure;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The join point the aspects receive around a method execution, built by hand so that the interceptors can be
+ * driven without weaving. Proceeding runs the next advice of the chain if any, the method itself otherwise.
+ */
+public class MethodJoinPoint implements ProceedingJoinPoint {
+
+    private final Object target;
+
+    private final Method method;
+
+    private final Object[] args;
+
+    private final Advice[] advices;
+
+    private final int index;
+
+    private final Signature signature;
+
+    private MethodJoinPoint(Object target, Method method, Object[] args, Advice[] advices, int index) {
+        this.target = target;
+        this.method = method;
+        this.args = args;
+        this.advices = advices;
+        this.index = index;
+        this.signature = new ReflectiveMethodSignature(method);
+    }
+
+    /**
+     * Executes the method on the target through the advices, the first advice being the outermost one.
+     */
+    public static Object invoke(Object target, Method method, Object[] args, Advice... advices) throws Throwable {
+        return new MethodJoinPoint(target, method, args, advices, 0).proceed();
+    }
+
+    @Override
+    public Object proceed() throws Throwable {
+        return proceed(args);
+    }
+
+    @Override
+    public Object proceed(Object[] args) throws Throwable {
+
+        if (index < advices.length) {
+            return advices[index].around(new MethodJoinPoint(target, method, args, advices, index + 1));
+        }
+
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    @Override
+    public void set$AroundClosure(AroundClosure arc) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toShortString() {
+        return signature.toShortString();
+    }
+
+    @Override
+    public String toLongString() {
+        return signature.toLongString();
+    }
+
+    @Override
+    public Object getThis() {
+        return target;
+    }
+
+    @Override
+    public Object getTarget() {
+        return target;
+    }
+
+    @Override
+    public Object[] getArgs() {
+        return args;
+    }
+
+    @Override
+    public Signature getSignature() {
+        return signature;
+    }
+
+    @Override
+    public SourceLocation getSourceLocation() {
+        return null;
+    }
+
+    @Override
+    public String getKind() {
+        return JoinPoint.METHOD_EXECUTION;
+    }
+
+    @Override
+    public StaticPart getStaticPart() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "execution(" + signature.toLongString() + ")";
+    }
+
+    /**
+     * An around advice, the interceptor methods of the aspects.
+     */
+    public interface Advice {
+
+        Object around(ProceedingJoinPoint pjp) throws Throwable;
+    }
+
+    static class ReflectiveMethodSignature implements MethodSignature {
+
+        private final Method method;
+
+        ReflectiveMethodSignature(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        public Class getReturnType() {
+            return method.getReturnType();
+        }
+
+        @Override
+        public Method getMethod() {
+            return method;
+        }
+
+        @Override
+        public Class[] getParameterTypes() {
+            return method.getParameterTypes();
+        }
+
+        @Override
+        public String[] getParameterNames() {
+            return null;
+        }
+
+        @Override
+        public Class[] getExceptionTypes() {
+            return method.getExceptionTypes();
+        }
+
+        @Override
+        public String toShortString() {
+            return method.getName();
+        }
+
+        @Override
+        public String toLongString() {
+            return method.toString();
+        }
+
+        @Override
+        public String getName() {
+            return method.getName();
+        }
+
+        @Override
+        public int getModifiers() {
+            return method.getModifiers();
+        }
+
+        @Override
+        public Class getDeclaringType() {
+            return method.getDeclaringClass();
+        }
+
+        @Override
+        public String getDeclaringTypeName() {
+            return method.getDeclaringClass().getName();
+        }
+
+        @Override
+        public String toString() {
+            return toLongString();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository operations against the local stand-ins of {@link StandInRepository}, with the transaction cache
+ * disabled so that every read goes to the store.
+ * <p/>
+ * The stores start empty but for recordCount transactions left for the recovery scan, so the numbers depend on the
+ * parameters only. To compare releases, run the same parameters on the same machine and keep the json results:
+ * <pre>
+ * java -jar tcc-transaction-benchmark/target/benchmarks.jar RepositoryBenchmark -rf json -rff repository-1.2.6.json
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    @Param({StandInRepository.MEMORY, StandInRepository.JDBC, StandInRepository.FILE, StandInRepository.ZOOKEEPER, StandInRepository.REDIS})
+    private String repositoryName;
+
+    @Param({"registerableKryo"})
+    private String serializerName;
+
+    @Param({"2"})
+    private int participantCount;
+
+    @Param({"64"})
+    private int payloadSize;
+
+    @Param({"100"})
+    private int recordCount;
+
+    private StandInRepository standIn;
+
+    private CachableTransactionRepository repository;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        standIn = StandInRepository.of(repositoryName, SerializerBenchmark.Serializers.of(serializerName));
+
+        repository = standIn.getRepository();
+        repository.setCacheEnabled(false);
+
+        for (int i = 0; i < recordCount; i++) {
+            repository.create(newTransaction());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        standIn.close();
+    }
+
+    @Benchmark
+    public int createAndDelete() {
+
+        Transaction transaction = newTransaction();
+
+        repository.create(transaction);
+        return repository.delete(transaction);
+    }
+
+    @Benchmark
+    public int commitCycle() {
+
+        Transaction transaction = newTransaction();
+
+        repository.create(transaction);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        repository.updateStatus(transaction);
+        return repository.delete(transaction);
+    }
+
+    @Benchmark
+    public int update(ThreadTransaction threadTransaction) {
+        return repository.update(threadTransaction.transaction);
+    }
+
+    @Benchmark
+    public int updateStatus(ThreadTransaction threadTransaction) {
+        return repository.updateStatus(threadTransaction.transaction);
+    }
+
+    @Benchmark
+    public Transaction findByXid(ThreadTransaction threadTransaction) {
+        return repository.findByXid((TransactionXid) threadTransaction.transaction.getXid());
+    }
+
+    @Benchmark
+    public List<Transaction> findAllUnmodifiedSince() {
+        return repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000L));
+    }
+
+    Transaction newTransaction() {
+        return BenchmarkTransactions.newTransaction(participantCount, payloadSize);
+    }
+
+    /**
+     * A transaction per benchmark thread, so that concurrent updates do not fail on the version check.
+     */
+    @State(Scope.Thread)
+    public static class ThreadTransaction {
+
+        private Transaction transaction;
+
+        @Setup(Level.Trial)
+        public void setUp(RepositoryBenchmark benchmark) {
+            transaction = benchmark.newTransaction();
+            benchmark.repository.create(transaction);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.KryoThreadLocalSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.ProtostuffSerializer;
+import org.mengyun.tcctransaction.serializer.RegisterableKryoSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialize and deserialize cost of a transaction per ObjectSerializer.
+ * <p/>
+ * Run with the gc profiler and compare gc.alloc.rate.norm, the bytes allocated per operation:
+ * <pre>
+ * java -jar tcc-transaction-benchmark/target/benchmarks.jar SerializerBenchmark -prof gc
+ * </pre>
+ * Add -bm thrpt for operations per second instead of the time per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"kryoPool", "kryoThreadLocal", "registerableKryo", "compact", "protostuff", "jdk"})
+    private String serializerName;
+
+    @Param({"2"})
+    private int participantCount;
+
+    @Param({"64"})
+    private int payloadSize;
+
+    private ObjectSerializer serializer;
+
+    private Transaction transaction;
+
+    private byte[] content;
+
+    @Setup
+    public void setUp() {
+        serializer = Serializers.of(serializerName);
+        transaction = BenchmarkTransactions.newTransaction(participantCount, payloadSize);
+        content = serializer.serialize(transaction);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(transaction);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return serializer.deserialize(content);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+
+        Options options = new OptionsBuilder()
+                .include(SerializerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+    static class Serializers {
+
+        static ObjectSerializer of(String name) {
+
+            if ("kryoPool".equals(name)) {
+                return new KryoPoolSerializer();
+            } else if ("kryoThreadLocal".equals(name)) {
+                return new KryoThreadLocalSerializer();
+            } else if ("registerableKryo".equals(name)) {
+                return new RegisterableKryoSerializer();
+            } else if ("compact".equals(name)) {
+                return new CompactTransactionSerializer(new RegisterableKryoSerializer());
+            } else if ("protostuff".equals(name)) {
+                return new ProtostuffSerializer();
+            } else if ("jdk".equals(name)) {
+                return new JdkSerializationSerializer();
+            }
+
+            throw new IllegalArgumentException("unknown serializer:" + name);
+        }
+    }
+}
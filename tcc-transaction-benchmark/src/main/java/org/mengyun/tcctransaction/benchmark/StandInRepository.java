@@ -0,0 +1,265 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.mengyun.tcctransaction.repository.FileSystemTransactionRepository;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.RedisTransactionRepository;
+import org.mengyun.tcctransaction.repository.ZooKeeperTransactionRepository;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+/**
+ * A transaction repository backed by a local stand-in of its store, so the repositories can be measured without
+ * external servers:
+ * <ul>
+ * <li>memory: the in-memory repository, the baseline without any store round trip</li>
+ * <li>jdbc: an in-memory H2 database behind a connection pool</li>
+ * <li>file: a temp directory</li>
+ * <li>zookeeper: a standalone ZooKeeper server running in-process</li>
+ * <li>redis: a redis 2.8 server binary started by embedded-redis, without persistence</li>
+ * </ul>
+ * The stand-ins are not the production stores, the numbers measure the repository code and the client round trips
+ * rather than the server side, and are meant to be compared between releases on the same machine.
+ */
+public abstract class StandInRepository {
+
+    public static final String MEMORY = "memory";
+
+    public static final String JDBC = "jdbc";
+
+    public static final String FILE = "file";
+
+    public static final String ZOOKEEPER = "zookeeper";
+
+    public static final String REDIS = "redis";
+
+    private CachableTransactionRepository repository;
+
+    public static StandInRepository of(String name, ObjectSerializer serializer) throws Exception {
+
+        StandInRepository standIn;
+
+        if (MEMORY.equals(name)) {
+            standIn = new Memory();
+        } else if (JDBC.equals(name)) {
+            standIn = new Jdbc();
+        } else if (FILE.equals(name)) {
+            standIn = new FileSystem();
+        } else if (ZOOKEEPER.equals(name)) {
+            standIn = new ZooKeeper();
+        } else if (REDIS.equals(name)) {
+            standIn = new Redis();
+        } else {
+            throw new IllegalArgumentException("unknown repository:" + name);
+        }
+
+        standIn.repository = standIn.start(serializer);
+        return standIn;
+    }
+
+    public CachableTransactionRepository getRepository() {
+        return repository;
+    }
+
+    protected abstract CachableTransactionRepository start(ObjectSerializer serializer) throws Exception;
+
+    public abstract void close();
+
+    static class Memory extends StandInRepository {
+
+        @Override
+        protected CachableTransactionRepository start(ObjectSerializer serializer) {
+
+            InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+            repository.setSerializer(serializer);
+            return repository;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    static class Jdbc extends StandInRepository {
+
+        private JdbcConnectionPool dataSource;
+
+        @Override
+        protected CachableTransactionRepository start(ObjectSerializer serializer) throws SQLException {
+
+            dataSource = JdbcConnectionPool.create("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+            dataSource.setMaxConnections(64);
+
+            Connection connection = dataSource.getConnection();
+            try {
+                Statement statement = connection.createStatement();
+                statement.execute("CREATE TABLE TCC_TRANSACTION (" +
+                        "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY," +
+                        "DOMAIN VARCHAR(100)," +
+                        "GLOBAL_TX_ID VARBINARY(32) NOT NULL," +
+                        "BRANCH_QUALIFIER VARBINARY(32) NOT NULL," +
+                        "CONTENT VARBINARY(65535)," +
+                        "STATUS INT," +
+                        "TRANSACTION_TYPE INT," +
+                        "RETRIED_COUNT INT," +
+                        "CREATE_TIME TIMESTAMP," +
+                        "LAST_UPDATE_TIME TIMESTAMP," +
+                        "VERSION INT," +
+                        "IS_DELETE TINYINT DEFAULT 0 NOT NULL," +
+                        "NEXT_RETRY_TIME TIMESTAMP," +
+                        "XID_HASH INT," +
+                        "CONSTRAINT UX_TX_BQ UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))");
+                statement.execute("CREATE INDEX IDX_NEXT_RETRY_TIME ON TCC_TRANSACTION (NEXT_RETRY_TIME, TRANSACTION_ID, XID_HASH)");
+                statement.close();
+            } finally {
+                connection.close();
+            }
+
+            JdbcTransactionRepository repository = new JdbcTransactionRepository();
+            repository.setDataSource(dataSource);
+            repository.setSerializer(serializer);
+            return repository;
+        }
+
+        @Override
+        public void close() {
+            dataSource.dispose();
+        }
+    }
+
+    static class FileSystem extends StandInRepository {
+
+        private File rootPath;
+
+        @Override
+        protected CachableTransactionRepository start(ObjectSerializer serializer) throws IOException {
+
+            rootPath = createTempDirectory("tcc-benchmark-file");
+
+            FileSystemTransactionRepository repository = new FileSystemTransactionRepository();
+            repository.setRootPath(rootPath.getAbsolutePath());
+            repository.setSerializer(serializer);
+            return repository;
+        }
+
+        @Override
+        public void close() {
+            delete(rootPath);
+        }
+    }
+
+    static class ZooKeeper extends StandInRepository {
+
+        private File dataDir;
+
+        private ServerCnxnFactory cnxnFactory;
+
+        @Override
+        protected CachableTransactionRepository start(ObjectSerializer serializer) throws Exception {
+
+            dataDir = createTempDirectory("tcc-benchmark-zookeeper");
+
+            ZooKeeperServer server = new ZooKeeperServer(dataDir, dataDir, 2000);
+            cnxnFactory = NIOServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 128);
+            cnxnFactory.startup(server);
+
+            ZooKeeperTransactionRepository repository = new ZooKeeperTransactionRepository();
+            repository.setZkServers("127.0.0.1:" + cnxnFactory.getLocalPort());
+            repository.setZkTimeout(10000);
+            repository.setZkRootPath("/tcc-benchmark");
+            repository.setSerializer(serializer);
+            return repository;
+        }
+
+        @Override
+        public void close() {
+            cnxnFactory.shutdown();
+            delete(dataDir);
+        }
+    }
+
+    static class Redis extends StandInRepository {
+
+        private RedisServer server;
+
+        private JedisPool jedisPool;
+
+        @Override
+        protected CachableTransactionRepository start(ObjectSerializer serializer) throws IOException {
+
+            int port = freePort();
+
+            server = RedisServer.builder().port(port).setting("save \"\"").setting("appendonly no").build();
+            server.start();
+
+            GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+            poolConfig.setMaxTotal(64);
+            poolConfig.setMaxIdle(64);
+            jedisPool = new JedisPool(poolConfig, "127.0.0.1", port);
+
+            RedisTransactionRepository repository = new RedisTransactionRepository();
+            repository.setKeyPrefix("TCC:BENCHMARK:");
+            repository.setJedisPool(jedisPool);
+            repository.setSerializer(serializer);
+            return repository;
+        }
+
+        @Override
+        public void close() {
+            jedisPool.destroy();
+            server.stop();
+        }
+    }
+
+    private static File createTempDirectory(String prefix) throws IOException {
+
+        File directory = File.createTempFile(prefix, "");
+
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("cannot create temp directory:" + directory);
+        }
+
+        return directory;
+    }
+
+    private static int freePort() throws IOException {
+
+        ServerSocket socket = new ServerSocket(0);
+
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void delete(File file) {
+
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,259 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.CancellingException;
+import org.mengyun.tcctransaction.ConfirmingException;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end throughput of compensable transactions: begin, the try of every participant, enlist, confirm and delete,
+ * through the CompensableTransactionInterceptor and the ResourceCoordinatorInterceptor, without Spring or Dubbo.
+ * <p/>
+ * For each thread count a fresh repository stand-in is started, the threads place orders for the warmup and then
+ * for the measurement duration. The participants are synthetic, see {@link CompensableServices.RecordService}.
+ * <pre>
+ * java -cp tcc-transaction-benchmark/target/benchmarks.jar org.mengyun.tcctransaction.benchmark.ThroughputHarness \
+ *     --repository=jdbc --threads=1,4,16 --participants=2 --tryLatencyMicros=200 --tryFailureRate=0.01
+ * </pre>
+ * Options and defaults:
+ * <ul>
+ * <li>--repository=jdbc, one of the {@link StandInRepository} names</li>
+ * <li>--serializer=registerableKryo</li>
+ * <li>--threads=1,4,16</li>
+ * <li>--participants=2, --payloadSize=64</li>
+ * <li>--warmupSeconds=5, --durationSeconds=10</li>
+ * <li>--tryLatencyMicros=0, --confirmLatencyMicros=0, --cancelLatencyMicros=0</li>
+ * <li>--tryFailureRate=0, --confirmFailureRate=0, --cancelFailureRate=0</li>
+ * </ul>
+ * Transactions are reported as confirmed, cancelled when a try failed and the cancel went through, or left to the
+ * recovery job when a confirm or cancel failed. Allocation is the bytes allocated by the calling threads per
+ * transaction, latencies are in microseconds.
+ */
+public class ThroughputHarness {
+
+    private final Map<String, String> options;
+
+    public ThroughputHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> options = new HashMap<String, String>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("expect --name=value, found:" + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        new ThroughputHarness(options).run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+
+        String repositoryName = option("repository", StandInRepository.JDBC);
+        String serializerName = option("serializer", "registerableKryo");
+        int participantCount = Integer.parseInt(option("participants", "2"));
+        int payloadSize = Integer.parseInt(option("payloadSize", "64"));
+        long warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmupSeconds", "5")));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("durationSeconds", "10")));
+
+        CompensableServices.RecordService recordService = CompensableServices.recordService();
+        recordService.setLatency(Long.parseLong(option("tryLatencyMicros", "0")),
+                Long.parseLong(option("confirmLatencyMicros", "0")),
+                Long.parseLong(option("cancelLatencyMicros", "0")), TimeUnit.MICROSECONDS);
+        recordService.setFailureRate(Double.parseDouble(option("tryFailureRate", "0")),
+                Double.parseDouble(option("confirmFailureRate", "0")),
+                Double.parseDouble(option("cancelFailureRate", "0")));
+
+        System.out.println("options: " + options);
+        System.out.println(String.format("%8s %12s %10s %10s %10s %10s %10s %14s %10s %10s %10s %8s",
+                "threads", "tx/s", "p50", "p90", "p99", "p99.9", "max", "alloc B/tx", "confirmed", "cancelled", "recovery", "gc ms"));
+
+        for (String threads : option("threads", "1,4,16").split(",")) {
+
+            StandInRepository standIn = StandInRepository.of(repositoryName, SerializerBenchmark.Serializers.of(serializerName));
+
+            try {
+                CompensableServices.PlaceOrderService placeOrderService = CompensableServices.placeOrderService();
+                placeOrderService.setInvoker(new CompensableInvoker(standIn.getRepository()));
+
+                BenchmarkTransactions.OrderDto order = new BenchmarkTransactions.OrderDto("ORDER-0", 10000L, new BigDecimal("99.90"), payloadSize);
+
+                Result result = run(Integer.parseInt(threads.trim()), placeOrderService, order, participantCount, warmupNanos, durationNanos);
+
+                System.out.println(String.format("%8s %12.1f %10d %10d %10d %10d %10d %14d %10d %10d %10d %8d",
+                        threads.trim(),
+                        result.getThroughput(),
+                        TimeUnit.NANOSECONDS.toMicros(result.latency.getValueAtPercentile(50)),
+                        TimeUnit.NANOSECONDS.toMicros(result.latency.getValueAtPercentile(90)),
+                        TimeUnit.NANOSECONDS.toMicros(result.latency.getValueAtPercentile(99)),
+                        TimeUnit.NANOSECONDS.toMicros(result.latency.getValueAtPercentile(99.9)),
+                        TimeUnit.NANOSECONDS.toMicros(result.latency.getMax()),
+                        result.getAllocatedBytesPerTransaction(),
+                        result.confirmed, result.cancelled, result.leftToRecovery, result.gcMillis));
+            } finally {
+                standIn.close();
+            }
+        }
+    }
+
+    private Result run(int threadCount, final CompensableServices.PlaceOrderService placeOrderService,
+                       final BenchmarkTransactions.OrderDto order, final int participantCount,
+                       final long warmupNanos, final long durationNanos) throws InterruptedException {
+
+        final CountDownLatch started = new CountDownLatch(threadCount);
+        final CountDownLatch finished = new CountDownLatch(threadCount);
+        final List<Worker> workers = new ArrayList<Worker>();
+
+        for (int i = 0; i < threadCount; i++) {
+            workers.add(new Worker() {
+                @Override
+                public void run() {
+                    try {
+                        started.countDown();
+                        started.await();
+
+                        long warmupEnd = System.nanoTime() + warmupNanos;
+                        while (System.nanoTime() < warmupEnd) {
+                            place(placeOrderService, order, participantCount, null);
+                        }
+
+                        long allocatedBefore = allocatedBytes();
+                        long start = System.nanoTime();
+                        long end = start + durationNanos;
+
+                        while (System.nanoTime() < end) {
+                            place(placeOrderService, order, participantCount, result);
+                        }
+
+                        result.elapsedNanos = System.nanoTime() - start;
+                        result.allocatedBytes = allocatedBytes() - allocatedBefore;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+
+        long gcMillisBefore = gcMillis();
+
+        for (Worker worker : workers) {
+            Thread thread = new Thread(worker, "tcc-harness-" + workers.indexOf(worker));
+            thread.start();
+        }
+
+        finished.await();
+
+        Result total = new Result();
+        for (Worker worker : workers) {
+            total.merge(worker.result);
+        }
+        total.elapsedNanos = total.elapsedNanos / threadCount;
+        total.gcMillis = gcMillis() - gcMillisBefore;
+        return total;
+    }
+
+    private static void place(CompensableServices.PlaceOrderService placeOrderService, BenchmarkTransactions.OrderDto order,
+                              int participantCount, Result result) {
+
+        long start = System.nanoTime();
+
+        try {
+            placeOrderService.placeThroughInterceptors(order, participantCount);
+            if (result != null) {
+                result.confirmed++;
+            }
+        } catch (ConfirmingException e) {
+            if (result != null) {
+                result.leftToRecovery++;
+            }
+        } catch (CancellingException e) {
+            if (result != null) {
+                result.leftToRecovery++;
+            }
+        } catch (Throwable e) {
+            if (result != null) {
+                result.cancelled++;
+            }
+        }
+
+        if (result != null) {
+            result.latency.record(System.nanoTime() - start);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, garbageCollector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private String option(String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    abstract static class Worker implements Runnable {
+
+        final Result result = new Result();
+    }
+
+    static class Result {
+
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        long confirmed;
+
+        long cancelled;
+
+        long leftToRecovery;
+
+        long elapsedNanos;
+
+        long allocatedBytes;
+
+        long gcMillis;
+
+        void merge(Result other) {
+            latency.merge(other.latency);
+            confirmed += other.confirmed;
+            cancelled += other.cancelled;
+            leftToRecovery += other.leftToRecovery;
+            elapsedNanos += other.elapsedNanos;
+            allocatedBytes += other.allocatedBytes;
+        }
+
+        double getThroughput() {
+            return elapsedNanos > 0 ? latency.getTotalCount() * 1e9 / elapsedNanos : 0;
+        }
+
+        long getAllocatedBytesPerTransaction() {
+            return latency.getTotalCount() > 0 ? allocatedBytes / latency.getTotalCount() : 0;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
+import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the repository record formats on top of the ObjectSerializer: the single byte[] envelope written by the
+ * file system and ZooKeeper repositories, and the hash fields written by the redis repository.
+ * The lazily variants decode the header only, as the recovery scan does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionSerializerBenchmark {
+
+    @Param({"kryoPool", "registerableKryo"})
+    private String serializerName;
+
+    @Param({"2"})
+    private int participantCount;
+
+    @Param({"64"})
+    private int payloadSize;
+
+    private ObjectSerializer serializer;
+
+    private Transaction transaction;
+
+    private byte[] envelope;
+
+    private Map<byte[], byte[]> fields;
+
+    @Setup
+    public void setUp() {
+        serializer = SerializerBenchmark.Serializers.of(serializerName);
+        transaction = BenchmarkTransactions.newTransaction(participantCount, payloadSize);
+        envelope = TransactionSerializer.serialize(serializer, transaction);
+        fields = ExpandTransactionSerializer.serialize(serializer, transaction);
+    }
+
+    @Benchmark
+    public byte[] envelopeSerialize() {
+        return TransactionSerializer.serialize(serializer, transaction);
+    }
+
+    @Benchmark
+    public Transaction envelopeDeserialize() {
+        return TransactionSerializer.deserialize(serializer, envelope);
+    }
+
+    @Benchmark
+    public Transaction envelopeDeserializeLazily() {
+        return TransactionSerializer.deserializeLazily(serializer, envelope);
+    }
+
+    @Benchmark
+    public Map<byte[], byte[]> expandSerialize() {
+        return ExpandTransactionSerializer.serialize(serializer, transaction);
+    }
+
+    @Benchmark
+    public Map<byte[], byte[]> expandSerializeState() {
+        return ExpandTransactionSerializer.serializeState(transaction);
+    }
+
+    @Benchmark
+    public Transaction expandDeserialize() {
+        return ExpandTransactionSerializer.deserialize(serializer, fields);
+    }
+
+    @Benchmark
+    public Transaction expandDeserializeLazily() {
+        return ExpandTransactionSerializer.deserializeLazily(serializer, fields);
+    }
+}
@@ -0,0 +1,190 @@
+package org.mengyun.tcctransaction;
+
+import org.mengyun.tcctransaction.utils.StringUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Circuit breaker of a confirm or cancel method, keyed by the class or remote interface it is called on and the
+ * method name.
+ * <p/>
+ * It opens after failureThreshold calls failed in a row, and calls are failed fast for openDurationInMillis. Then a
+ * single call is let through as a probe: the breaker closes if it succeeds and opens again if it fails.
+ * <p/>
+ * Only the failures caused by one of the failure exceptions count, by default the I/O errors and timeouts of a
+ * participant not reachable. Any other exception is an answer of the participant, business errors included.
+ * <p/>
+ * The breakers are shared by all the participants of the JVM, as participants are serialized along with their
+ * transaction. They are off until {@link #configure(int, long)} sets a failure threshold.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private static volatile int failureThreshold = 0;
+
+    private static volatile long openDurationInMillis = 30000;
+
+    private static volatile Set<Class<? extends Exception>> failureExceptions = Collections.unmodifiableSet(
+            new HashSet<Class<? extends Exception>>(Arrays.<Class<? extends Exception>>asList(IOException.class, TimeoutException.class)));
+
+    private final String name;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openedTime;
+
+    private long rejectedCount;
+
+    CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * A failureThreshold of 0 turns the breakers off.
+     */
+    public static void configure(int failureThreshold, long openDurationInMillis) {
+        CircuitBreaker.failureThreshold = failureThreshold;
+        CircuitBreaker.openDurationInMillis = openDurationInMillis;
+    }
+
+    public static void configure(int failureThreshold, long openDurationInMillis, Set<Class<? extends Exception>> failureExceptions) {
+        CircuitBreaker.failureExceptions = Collections.unmodifiableSet(new HashSet<Class<? extends Exception>>(failureExceptions));
+        configure(failureThreshold, openDurationInMillis);
+    }
+
+    /**
+     * Whether the exception thrown by a call, or one of its causes, is one of the failure exceptions.
+     */
+    public static boolean isFailure(Throwable throwable) {
+
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            for (Class<? extends Exception> failureException : failureExceptions) {
+                if (failureException.isInstance(cause)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    public static boolean isEnabled() {
+        return failureThreshold > 0;
+    }
+
+    /**
+     * The breaker of the method, null when the breakers are off or there is no method to call.
+     */
+    public static CircuitBreaker of(InvocationContext invocationContext) {
+
+        if (failureThreshold <= 0 || invocationContext == null || invocationContext.getTargetClass() == null
+                || !StringUtils.isNotEmpty(invocationContext.getMethodName())) {
+            return null;
+        }
+
+        String name = invocationContext.getTargetClass().getName() + "#" + invocationContext.getMethodName();
+
+        CircuitBreaker circuitBreaker = circuitBreakers.get(name);
+
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(name);
+            CircuitBreaker existing = circuitBreakers.putIfAbsent(name, circuitBreaker);
+            if (existing != null) {
+                circuitBreaker = existing;
+            }
+        }
+
+        return circuitBreaker;
+    }
+
+    /**
+     * The breakers of the methods called so far, by name.
+     */
+    public static Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(circuitBreakers);
+    }
+
+    /**
+     * Returns false if the call is to fail fast. Once true, the caller reports the outcome of the call.
+     */
+    public synchronized boolean allowRequest() {
+
+        if (state == State.OPEN && System.currentTimeMillis() - openedTime >= openDurationInMillis) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+
+        if (state != State.CLOSED) {
+            rejectedCount++;
+            return false;
+        }
+
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+
+        consecutiveFailures++;
+
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * How long calls are still failed fast, 0 once a probe may go through. While the probe is in flight its outcome is
+     * not known yet, calls are then expected to wait a whole open duration.
+     */
+    public synchronized long getRemainingOpenMillis() {
+
+        if (state == State.CLOSED) {
+            return 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            return openDurationInMillis;
+        }
+
+        return Math.max(0, openedTime + openDurationInMillis - System.currentTimeMillis());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Number of calls failed fast since the breaker was created.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+}
@@ -0,0 +1,11 @@
+package org.mengyun.tcctransaction;
+
+/**
+ * Thrown instead of calling a participant whose circuit breaker is open, the transaction is left to the recovery.
+ */
+public class CircuitBreakerOpenException extends SystemException {
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,46 @@
+package org.mengyun.tcctransaction;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A repository able to write parts of a transaction and to find the transactions due for retry. Implemented by
+ * {@link org.mengyun.tcctransaction.repository.CachableTransactionRepository}; for other implementations of
+ * {@link TransactionRepository} the transaction manager and the recovery fall back to {@link #update(Transaction)} and
+ * {@link #findAllUnmodifiedSince(Date)}.
+ */
+public interface PartialUpdateTransactionRepository extends TransactionRepository {
+
+    /**
+     * Persists the status and the retried count of the transaction, its participants are left as stored.
+     */
+    int updateStatus(Transaction transaction);
+
+    /**
+     * Persists the retried count of the transaction, its participants are left as stored.
+     */
+    int updateRetriedCount(Transaction transaction);
+
+    /**
+     * Persists the next retry time set on the transaction as it is, leaving the version and the last update time as
+     * stored, for the recovery to put a transaction off without it counting as an update. Returns 0 if the
+     * transaction changed meanwhile or the repository cannot store the next retry time alone.
+     */
+    int updateNextRetryTime(Transaction transaction);
+
+    /**
+     * Persists a transaction whose participant list got the participant appended.
+     */
+    int appendParticipant(Transaction transaction, Participant participant);
+
+    /**
+     * The transactions whose next retry time is before the date, those the recovery is to retry.
+     */
+    List<Transaction> findAllDueForRetry(Date date);
+
+    /**
+     * Hands the transactions due for retry to the handler in batches of at most batchSize, reading the repository page
+     * by page where it allows it. A transaction updated during the scan may be missed, the next scan finds it.
+     */
+    void findAllDueForRetry(Date date, int batchSize, TransactionBatchHandler handler);
+}
@@ -69,4 +69,8 @@ public class Participant implements Serializable {
         return cancelInvocationContext;
     }
 
+    public Class<? extends TransactionContextEditor> getTransactionContextEditorClass() {
+        return transactionContextEditorClass;
+    }
+
 }
@@ -6,6 +6,7 @@ import org.mengyun.tcctransaction.support.FactoryBuilder;
 import org.mengyun.tcctransaction.utils.StringUtils;
 
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 /**
@@ -25,6 +26,14 @@ public class Terminator implements Serializable {
 
         if (StringUtils.isNotEmpty(invocationContext.getMethodName())) {
 
+            CircuitBreaker circuitBreaker = CircuitBreaker.of(invocationContext);
+
+            if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                throw new CircuitBreakerOpenException(String.format("circuit breaker of %s is open", circuitBreaker.getName()));
+            }
+
+            boolean failed = false;
+
             try {
 
                 Object target = FactoryBuilder.factoryOf(invocationContext.getTargetClass()).getInstance();
@@ -37,8 +46,20 @@ public class Terminator implements Serializable {
 
                 return method.invoke(target, invocationContext.getArgs());
 
+            } catch (InvocationTargetException e) {
+                failed = CircuitBreaker.isFailure(e.getTargetException());
+                throw new SystemException(e);
             } catch (Exception e) {
                 throw new SystemException(e);
+            } finally {
+                // a call answered, even with a business error, tells the participant is up
+                if (circuitBreaker != null) {
+                    if (failed) {
+                        circuitBreaker.onFailure();
+                    } else {
+                        circuitBreaker.onSuccess();
+                    }
+                }
             }
         }
         return null;
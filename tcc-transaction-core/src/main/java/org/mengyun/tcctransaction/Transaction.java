@@ -35,6 +35,11 @@ public class Transaction implements Serializable {
 
     private long version = 1;
 
+    /**
+     * Kept by the repositories next to the content rather than in it, so the serialized form is unchanged.
+     */
+    private transient Date nextRetryTime;
+
     private List<Participant> participants = new ArrayList<Participant>();
 
     private Map<String, Object> attachments = new ConcurrentHashMap<String, Object>();
@@ -62,6 +67,20 @@ public class Transaction implements Serializable {
         this.transactionType = transactionType;
     }
 
+    public Transaction(TransactionXid xid, TransactionStatus status, TransactionType transactionType, int retriedCount,
+                       Date createTime, Date lastUpdateTime, long version,
+                       List<Participant> participants, Map<String, Object> attachments) {
+        this.xid = xid;
+        this.status = status;
+        this.transactionType = transactionType;
+        this.retriedCount = retriedCount;
+        this.createTime = createTime;
+        this.lastUpdateTime = lastUpdateTime;
+        this.version = version;
+        this.participants.addAll(participants);
+        this.attachments.putAll(attachments);
+    }
+
     public void enlistParticipant(Participant participant) {
         participants.add(participant);
     }
@@ -146,5 +165,16 @@ public class Transaction implements Serializable {
         this.lastUpdateTime = new Date();
     }
 
+    /**
+     * The time the recovery retries the transaction at the earliest, null until the recovery sets it.
+     */
+    public Date getNextRetryTime() {
+        return nextRetryTime;
+    }
+
+    public void setNextRetryTime(Date nextRetryTime) {
+        this.nextRetryTime = nextRetryTime;
+    }
+
 
 }
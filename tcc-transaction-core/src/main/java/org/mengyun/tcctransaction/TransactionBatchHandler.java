@@ -0,0 +1,15 @@
+package org.mengyun.tcctransaction;
+
+import java.util.List;
+
+/**
+ * Receives the transactions of a repository scan one batch at a time, so the scan holds a single batch whatever the
+ * number of transactions found.
+ */
+public interface TransactionBatchHandler {
+
+    /**
+     * Returns false to stop the scan, the remaining transactions are left to the next one.
+     */
+    boolean handle(List<Transaction> transactions);
+}
@@ -5,6 +5,7 @@ import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.recover.TransactionRecovery;
 
 import java.util.Deque;
 import java.util.LinkedList;
@@ -23,6 +24,8 @@ public class TransactionManager {
 
     private ExecutorService executorService;
 
+    private TransactionRecovery transactionRecovery;
+
     public void setTransactionRepository(TransactionRepository transactionRepository) {
         this.transactionRepository = transactionRepository;
     }
@@ -31,6 +34,13 @@ public class TransactionManager {
         this.executorService = executorService;
     }
 
+    /**
+     * Set to have failed confirms and cancels retried on their backoff rather than on the next recover job.
+     */
+    public void setTransactionRecovery(TransactionRecovery transactionRecovery) {
+        this.transactionRecovery = transactionRecovery;
+    }
+
     public TransactionManager() {
 
 
@@ -77,7 +87,7 @@ public class TransactionManager {
 
         transaction.changeStatus(TransactionStatus.CONFIRMING);
 
-        transactionRepository.update(transaction);
+        updateStatus(transaction);
 
         if (asyncCommit) {
             try {
@@ -105,7 +115,7 @@ public class TransactionManager {
         final Transaction transaction = getCurrentTransaction();
         transaction.changeStatus(TransactionStatus.CANCELLING);
 
-        transactionRepository.update(transaction);
+        updateStatus(transaction);
 
         if (asyncRollback) {
 
@@ -133,6 +143,7 @@ public class TransactionManager {
             transactionRepository.delete(transaction);
         } catch (Throwable commitException) {
             logger.warn("compensable transaction confirm failed, recovery job will try to confirm later.", commitException);
+            scheduleRecover(transaction);
             throw new ConfirmingException(commitException);
         }
     }
@@ -143,10 +154,21 @@ public class TransactionManager {
             transactionRepository.delete(transaction);
         } catch (Throwable rollbackException) {
             logger.warn("compensable transaction rollback failed, recovery job will try to rollback later.", rollbackException);
+            scheduleRecover(transaction);
             throw new CancellingException(rollbackException);
         }
     }
 
+    private void scheduleRecover(Transaction transaction) {
+        if (transactionRecovery != null) {
+            try {
+                transactionRecovery.scheduleRecover(transaction);
+            } catch (Throwable e) {
+                logger.warn("schedule recover failed, recovery job will retry it.", e);
+            }
+        }
+    }
+
     public Transaction getCurrentTransaction() {
         if (isTransactionActive()) {
             return CURRENT.get().peek();
@@ -186,6 +208,20 @@ public class TransactionManager {
     public void enlistParticipant(Participant participant) {
         Transaction transaction = this.getCurrentTransaction();
         transaction.enlistParticipant(participant);
-        transactionRepository.update(transaction);
+
+        if (transactionRepository instanceof PartialUpdateTransactionRepository) {
+            ((PartialUpdateTransactionRepository) transactionRepository).appendParticipant(transaction, participant);
+        } else {
+            transactionRepository.update(transaction);
+        }
+    }
+
+    private void updateStatus(Transaction transaction) {
+
+        if (transactionRepository instanceof PartialUpdateTransactionRepository) {
+            ((PartialUpdateTransactionRepository) transactionRepository).updateStatus(transaction);
+        } else {
+            transactionRepository.update(transaction);
+        }
     }
 }
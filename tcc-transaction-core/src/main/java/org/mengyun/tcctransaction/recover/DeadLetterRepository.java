@@ -0,0 +1,27 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+import java.util.List;
+
+/**
+ * Keeps the transactions the recovery gave up on, out of the ones it scans. Implemented by the transaction
+ * repositories able to hold them.
+ */
+public interface DeadLetterRepository {
+
+    /**
+     * Moves the transaction to the dead letters, provided the stored version still equals its version. Returns 0 if
+     * the transaction was changed or removed meanwhile.
+     */
+    int moveToDeadLetter(Transaction transaction);
+
+    List<Transaction> findAllDeadLetters();
+
+    /**
+     * Moves a dead letter back with its retried count reset, the next recover job retries it. Returns 0 if there is no
+     * such dead letter.
+     */
+    int requeue(TransactionXid xid);
+}
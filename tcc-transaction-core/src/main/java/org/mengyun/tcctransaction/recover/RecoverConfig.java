@@ -18,4 +18,94 @@ public interface RecoverConfig {
     public void setDelayCancelExceptions(Set<Class<? extends Exception>> delayRecoverExceptions);
 
     public int getAsyncTerminateThreadPoolSize();
+
+    /**
+     * Number of threads recovering transactions in parallel, 1 recovers them one after another on the job thread.
+     */
+    public int getRecoverThreadPoolSize();
+
+    /**
+     * Maximum number of transactions dispatched to the recover threads and not finished yet.
+     */
+    public int getMaxInFlightRecoveries();
+
+    /**
+     * How long a recover job waits for the transactions it dispatched before it gives up on them and returns.
+     */
+    public int getRecoverTimeoutInSeconds();
+
+    /**
+     * Number of buckets the transactions are hashed into to split the recovery between the nodes, 0 lets every node
+     * recover all transactions. Needs a repository implementing {@link RecoverLeaseRepository}.
+     */
+    public int getRecoverBucketCount();
+
+    /**
+     * How long a node holds a bucket without renewing it, longer than the interval between two recover jobs.
+     */
+    public int getRecoverLeaseInSeconds();
+
+    /**
+     * Delay before the second retry of a transaction, doubled on every further retry up to maxRecoverBackoffInSeconds.
+     * A transaction is never retried earlier than recoverDuration after its last retry.
+     */
+    public int getRecoverBackoffInSeconds();
+
+    public int getMaxRecoverBackoffInSeconds();
+
+    /**
+     * Fraction of the backoff added or removed at random, so transactions failing together are retried apart.
+     */
+    public double getRecoverBackoffJitter();
+
+    /**
+     * Tick of the timing wheel failed confirms and cancels are retried from as soon as their backoff passed, 0 leaves
+     * them to the recover job. The job then only catches what a stopped node left, its cron can be made rarer.
+     */
+    public int getRecoverTickInMillis();
+
+    /**
+     * Number of slots of every level of the timing wheel.
+     */
+    public int getRecoverWheelSize();
+
+    /**
+     * Number of transactions the recover job reads and recovers at a time.
+     */
+    public int getRecoverBatchSize();
+
+    /**
+     * Confirms or cancels per second the recovery sends to a participant target at most, lowered while the target
+     * fails or answers slowly. 0 leaves the recovery unpaced.
+     */
+    public int getRecoverRatePerTarget();
+
+    /**
+     * Average latency above which the recovery slows down on a target.
+     */
+    public int getRecoverSlowCallInMillis();
+
+    /**
+     * Number of failed calls in a row after which the circuit breaker of a confirm or cancel method opens, 0 turns the
+     * breakers off.
+     */
+    public int getCircuitBreakerFailureThreshold();
+
+    /**
+     * How long an open circuit breaker fails the calls fast before it lets a probe through.
+     */
+    public int getCircuitBreakerOpenInSeconds();
+
+    /**
+     * The exceptions counted as failures by the circuit breakers when thrown by a confirm or cancel method, or found
+     * among the causes of what it threw. Any other exception is an answer of the participant.
+     */
+    public Set<Class<? extends Exception>> getCircuitBreakerFailureExceptions();
+
+    /**
+     * Number of transactions confirmed or cancelled in one call to the participants implementing
+     * {@link org.mengyun.tcctransaction.api.BatchCompensable}, 0 calls every participant once per transaction. The
+     * transactions of a job are then recovered on the job thread.
+     */
+    public int getRecoverTerminateBatchSize();
 }
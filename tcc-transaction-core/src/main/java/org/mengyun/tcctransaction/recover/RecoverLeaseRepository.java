@@ -0,0 +1,46 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.mengyun.tcctransaction.TransactionBatchHandler;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Leases on the recover buckets, kept in the store shared by all nodes so each bucket is recovered by one node at a
+ * time. Implemented by the transaction repositories able to hold them, see {@link RecoverPartitioner}.
+ * <p/>
+ * A lease is held until it expires or is released, the expiry time is set from the clock of the node taking it, so
+ * the clocks of the nodes must not drift apart by more than a fraction of the lease time.
+ */
+public interface RecoverLeaseRepository {
+
+    /**
+     * Marks the node alive for leaseMillis and returns the nodes alive, this one included.
+     */
+    List<String> heartbeat(String node, long leaseMillis);
+
+    /**
+     * Removes the node from the nodes alive, its bucket leases are left as they are.
+     */
+    void leave(String node);
+
+    /**
+     * Takes the lease of the bucket for leaseMillis, or renews it if the node holds it already. Fails if another node
+     * holds a lease not expired yet.
+     */
+    boolean acquireLease(int bucket, String node, long leaseMillis);
+
+    /**
+     * Gives up the lease of the bucket if the node holds it.
+     */
+    void releaseLease(int bucket, String node);
+
+    /**
+     * Hands the transactions due for retry before the date to the handler, like
+     * {@link org.mengyun.tcctransaction.PartialUpdateTransactionRepository#findAllDueForRetry(Date, int, TransactionBatchHandler)},
+     * leaving out those of the buckets not in buckets where the store allows it. Transactions of other buckets may
+     * still be handed over, the caller filters them with {@link RecoverPartitioner#owns}.
+     */
+    void findAllDueForRetry(Date date, int batchSize, int bucketCount, Set<Integer> buckets, TransactionBatchHandler handler);
+}
@@ -0,0 +1,164 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.mengyun.tcctransaction.Transaction;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The counters of a recover job run, updated from the recover threads and forwarded to the metrics registry if any.
+ */
+class RecoverMetrics {
+
+    private static final long[] BACKLOG_AGE_BOUNDS = {
+            TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(10), TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1)};
+
+    private static final String[] BACKLOG_AGE_LABELS = {"1m", "10m", "1h", "1d", "+inf"};
+
+    private final RecoverMetricsRegistry metricsRegistry;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong loadedCount = new AtomicLong();
+
+    private final AtomicLong dueCount = new AtomicLong();
+
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    private final AtomicLong succeededCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong handleNanos = new AtomicLong();
+
+    private final AtomicLongArray backlogAges = new AtomicLongArray(BACKLOG_AGE_LABELS.length);
+
+    private final ConcurrentMap<String, AtomicLong> targetFailureCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    RecoverMetrics(RecoverMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    void onLoaded(int count) {
+        add(loadedCount, RecoverMetricsRegistry.LOADED, count);
+    }
+
+    void onDue(List<Transaction> transactions) {
+
+        add(dueCount, RecoverMetricsRegistry.DUE, transactions.size());
+
+        long now = System.currentTimeMillis();
+
+        for (Transaction transaction : transactions) {
+
+            long age = now - transaction.getCreateTime().getTime();
+
+            int bucket = 0;
+            while (bucket < BACKLOG_AGE_BOUNDS.length && age >= BACKLOG_AGE_BOUNDS[bucket]) {
+                bucket++;
+            }
+            backlogAges.incrementAndGet(bucket);
+
+            if (metricsRegistry != null) {
+                metricsRegistry.record(RecoverMetricsRegistry.BACKLOG_AGE, age);
+            }
+        }
+    }
+
+    void onSkipped() {
+        add(skippedCount, RecoverMetricsRegistry.SKIPPED, 1);
+    }
+
+    void onSucceeded() {
+        add(succeededCount, RecoverMetricsRegistry.SUCCEEDED, 1);
+    }
+
+    void onFailed() {
+        add(failedCount, RecoverMetricsRegistry.FAILED, 1);
+    }
+
+    void onTargetFailed(String target) {
+
+        AtomicLong count = targetFailureCounts.get(target);
+
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong existing = targetFailureCounts.putIfAbsent(target, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+
+        count.incrementAndGet();
+
+        if (metricsRegistry != null) {
+            metricsRegistry.increment(RecoverMetricsRegistry.TARGET_FAILED, target, 1);
+        }
+    }
+
+    /**
+     * Time spent recovering the transactions handed over by the repository, taken out of the scan duration.
+     */
+    void onHandled(long nanos) {
+        handleNanos.addAndGet(nanos);
+    }
+
+    RecoverSummary toSummary(long deserializeNanos) {
+
+        long durationNanos = System.nanoTime() - startNanos;
+
+        RecoverSummary summary = new RecoverSummary(startTime,
+                TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                TimeUnit.NANOSECONDS.toMillis(Math.max(0, durationNanos - handleNanos.get())),
+                TimeUnit.NANOSECONDS.toMillis(deserializeNanos),
+                loadedCount.get(), dueCount.get(), skippedCount.get(), succeededCount.get(), failedCount.get(),
+                getBacklogAgeHistogram(), getTargetFailureCounts());
+
+        if (metricsRegistry != null) {
+            metricsRegistry.record(RecoverMetricsRegistry.RUN_DURATION, summary.getDurationInMillis());
+            metricsRegistry.record(RecoverMetricsRegistry.SCAN_DURATION, summary.getScanDurationInMillis());
+            metricsRegistry.record(RecoverMetricsRegistry.DESERIALIZE_DURATION, summary.getDeserializeDurationInMillis());
+        }
+
+        return summary;
+    }
+
+    private Map<String, Long> getBacklogAgeHistogram() {
+
+        Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+
+        for (int i = 0; i < BACKLOG_AGE_LABELS.length; i++) {
+            histogram.put(BACKLOG_AGE_LABELS[i], backlogAges.get(i));
+        }
+
+        return histogram;
+    }
+
+    private Map<String, Long> getTargetFailureCounts() {
+
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+        for (Map.Entry<String, AtomicLong> entry : targetFailureCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+
+        return counts;
+    }
+
+    private void add(AtomicLong counter, String name, long count) {
+
+        counter.addAndGet(count);
+
+        if (metricsRegistry != null && count > 0) {
+            metricsRegistry.increment(name, null, count);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.mengyun.tcctransaction.recover;
+
+/**
+ * Receives the measurements of the recovery as they are taken, to forward them to a metrics library. Set with
+ * {@link TransactionRecovery#setMetricsRegistry(RecoverMetricsRegistry)}, called from the recover threads.
+ */
+public interface RecoverMetricsRegistry {
+
+    String LOADED = "tcc.recover.loaded";
+
+    String DUE = "tcc.recover.due";
+
+    String SKIPPED = "tcc.recover.skipped";
+
+    String SUCCEEDED = "tcc.recover.succeeded";
+
+    String FAILED = "tcc.recover.failed";
+
+    String TARGET_FAILED = "tcc.recover.target.failed";
+
+    String BACKLOG_AGE = "tcc.recover.backlog.age";
+
+    String SCAN_DURATION = "tcc.recover.scan.duration";
+
+    String DESERIALIZE_DURATION = "tcc.recover.deserialize.duration";
+
+    String RUN_DURATION = "tcc.recover.run.duration";
+
+    /**
+     * Adds to a counter, the tag is the participant target for {@link #TARGET_FAILED} and null otherwise.
+     */
+    void increment(String name, String tag, long count);
+
+    /**
+     * Records a value of a distribution, durations and ages in milliseconds.
+     */
+    void record(String name, long value);
+}
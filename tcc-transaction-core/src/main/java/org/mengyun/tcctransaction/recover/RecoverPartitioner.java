@@ -0,0 +1,153 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Transaction;
+
+import javax.transaction.xa.Xid;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Splits the recovery between the nodes sharing a repository. The transactions are hashed on their xid into
+ * bucketCount buckets and a node recovers the transactions of the buckets it holds a lease on. The hash is taken on
+ * the string form of the xid, which the repositories keep next to the transaction (the redis key, the XID_HASH column)
+ * so the recovery scan can leave out the buckets of the other nodes.
+ * <p/>
+ * Every recover job calls {@link #rebalance()}: the node renews its heartbeat and its leases, then gives up the
+ * buckets above its share of bucketCount / nodes alive and takes free or expired ones below it. A node joining
+ * gets its share as the others give theirs up on their next job, the buckets of a node stopping are taken over
+ * once their leases expire, or right away if it released them on {@link #releaseAll()}.
+ */
+public class RecoverPartitioner {
+
+    static final Logger logger = Logger.getLogger(RecoverPartitioner.class.getSimpleName());
+
+    private final RecoverLeaseRepository leaseRepository;
+
+    private final int bucketCount;
+
+    private final long leaseMillis;
+
+    private final String node;
+
+    private final TreeSet<Integer> ownedBuckets = new TreeSet<Integer>();
+
+    public RecoverPartitioner(RecoverLeaseRepository leaseRepository, int bucketCount, long leaseMillis) {
+        this(leaseRepository, bucketCount, leaseMillis, ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8));
+    }
+
+    public RecoverPartitioner(RecoverLeaseRepository leaseRepository, int bucketCount, long leaseMillis, String node) {
+        this.leaseRepository = leaseRepository;
+        this.bucketCount = bucketCount;
+        this.leaseMillis = leaseMillis;
+        this.node = node;
+    }
+
+    public static int hashOf(Xid xid) {
+        return hashOf(xid.toString());
+    }
+
+    public static int hashOf(String xid) {
+        return xid.hashCode() & Integer.MAX_VALUE;
+    }
+
+    public static int bucketOf(Xid xid, int bucketCount) {
+        return hashOf(xid) % bucketCount;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public boolean owns(Transaction transaction) {
+        synchronized (ownedBuckets) {
+            return ownedBuckets.contains(bucketOf(transaction.getXid(), bucketCount));
+        }
+    }
+
+    /**
+     * Renews the heartbeat and the leases of the node and moves it towards its share of the buckets, returns the
+     * buckets it holds.
+     */
+    public Set<Integer> rebalance() {
+
+        synchronized (ownedBuckets) {
+
+            List<String> nodes = new ArrayList<String>(leaseRepository.heartbeat(node, leaseMillis));
+            if (!nodes.contains(node)) {
+                nodes.add(node);
+            }
+            Collections.sort(nodes);
+
+            int share = (bucketCount + nodes.size() - 1) / nodes.size();
+
+            // the buckets from first on are tried first, so nodes starting together do not race for the same ones
+            final int first = nodes.indexOf(node) * bucketCount / nodes.size();
+
+            Iterator<Integer> iterator = ownedBuckets.iterator();
+            while (iterator.hasNext()) {
+                int bucket = iterator.next();
+                if (!leaseRepository.acquireLease(bucket, node, leaseMillis)) {
+                    logger.warn(String.format("lease of recover bucket %d lost by %s", bucket, node));
+                    iterator.remove();
+                }
+            }
+
+            if (ownedBuckets.size() > share) {
+
+                List<Integer> buckets = new ArrayList<Integer>(ownedBuckets);
+                Collections.sort(buckets, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer left, Integer right) {
+                        return distance(first, right) - distance(first, left);
+                    }
+                });
+
+                for (int i = 0; ownedBuckets.size() > share; i++) {
+                    leaseRepository.releaseLease(buckets.get(i), node);
+                    ownedBuckets.remove(buckets.get(i));
+                }
+            }
+
+            for (int i = 0; i < bucketCount && ownedBuckets.size() < share; i++) {
+                int bucket = (first + i) % bucketCount;
+                if (!ownedBuckets.contains(bucket) && leaseRepository.acquireLease(bucket, node, leaseMillis)) {
+                    ownedBuckets.add(bucket);
+                }
+            }
+
+            return new TreeSet<Integer>(ownedBuckets);
+        }
+    }
+
+    /**
+     * Releases the leases and the heartbeat of the node, for the other nodes to take its buckets on their next job.
+     */
+    public void releaseAll() {
+
+        synchronized (ownedBuckets) {
+
+            for (Integer bucket : ownedBuckets) {
+                leaseRepository.releaseLease(bucket, node);
+            }
+            ownedBuckets.clear();
+
+            leaseRepository.leave(node);
+        }
+    }
+
+    private int distance(int first, int bucket) {
+        return (bucket - first + bucketCount) % bucketCount;
+    }
+}
@@ -0,0 +1,164 @@
+package org.mengyun.tcctransaction.recover;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Token buckets pacing the confirms and cancels the recovery sends to every participant target, so a target back
+ * from an outage is not flooded with all the transactions it left behind.
+ * <p/>
+ * The rate of a target follows how it answers: it is halved on every call while the recent failure ratio or latency
+ * of the target is too high, and raised by a tenth of the maximum rate on every call otherwise.
+ */
+public class RecoverRateLimiter {
+
+    private static final double FAILURE_RATIO_THRESHOLD = 0.5;
+
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private final double maxRate;
+
+    private final double minRate;
+
+    private final long slowCallInMillis;
+
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * @param maxRate          calls per second to a target answering well
+     * @param slowCallInMillis average latency above which a target is slowed down
+     */
+    public RecoverRateLimiter(double maxRate, long slowCallInMillis) {
+        this.maxRate = maxRate;
+        this.minRate = Math.min(1, maxRate);
+        this.slowCallInMillis = slowCallInMillis;
+    }
+
+    /**
+     * Takes a token of every target. Returns 0 when it got them all, otherwise gives back those taken and returns how
+     * long until the missing one is available.
+     */
+    public long tryAcquire(Collection<String> targets) {
+
+        List<TokenBucket> acquired = new ArrayList<TokenBucket>(targets.size());
+
+        for (String target : targets) {
+
+            TokenBucket bucket = getBucket(target);
+            long waitMillis = bucket.tryAcquire();
+
+            if (waitMillis > 0) {
+                for (TokenBucket each : acquired) {
+                    each.release();
+                }
+                return waitMillis;
+            }
+
+            acquired.add(bucket);
+        }
+
+        return 0;
+    }
+
+    public void onSuccess(String target, long latencyInMillis) {
+        getBucket(target).record(false, latencyInMillis);
+    }
+
+    public void onFailure(String target, long latencyInMillis) {
+        getBucket(target).record(true, latencyInMillis);
+    }
+
+    /**
+     * The current rate of every target called so far, in calls per second.
+     */
+    public Map<String, Double> getRates() {
+
+        Map<String, Double> rates = new HashMap<String, Double>();
+
+        for (Map.Entry<String, TokenBucket> entry : buckets.entrySet()) {
+            rates.put(entry.getKey(), entry.getValue().getRate());
+        }
+
+        return rates;
+    }
+
+    private TokenBucket getBucket(String target) {
+
+        TokenBucket bucket = buckets.get(target);
+
+        if (bucket == null) {
+            bucket = new TokenBucket();
+            TokenBucket existing = buckets.putIfAbsent(target, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Holds at most a second worth of tokens.
+     */
+    private class TokenBucket {
+
+        private double rate = maxRate;
+
+        private double tokens = Math.max(1, maxRate);
+
+        private long lastRefillTime = System.nanoTime();
+
+        private double failureRatio;
+
+        private double latencyInMillis;
+
+        synchronized long tryAcquire() {
+
+            refill();
+
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+
+            return (long) Math.ceil((1 - tokens) * 1000 / rate);
+        }
+
+        synchronized void release() {
+            tokens = Math.min(Math.max(1, rate), tokens + 1);
+        }
+
+        synchronized void record(boolean failed, long latency) {
+
+            failureRatio += EWMA_WEIGHT * ((failed ? 1 : 0) - failureRatio);
+            latencyInMillis += EWMA_WEIGHT * (latency - latencyInMillis);
+
+            refill();
+
+            if (failureRatio > FAILURE_RATIO_THRESHOLD || latencyInMillis > slowCallInMillis) {
+                rate = Math.max(minRate, rate / 2);
+            } else {
+                rate = Math.min(maxRate, rate + maxRate / 10);
+            }
+
+            tokens = Math.min(tokens, Math.max(1, rate));
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        private void refill() {
+
+            long now = System.nanoTime();
+
+            tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefillTime) * rate / 1000000000L);
+            lastRefillTime = now;
+        }
+    }
+}
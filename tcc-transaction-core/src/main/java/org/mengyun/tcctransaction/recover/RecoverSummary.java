@@ -0,0 +1,120 @@
+package org.mengyun.tcctransaction.recover;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of a recover job run.
+ * <p/>
+ * Loaded counts the transactions the repository handed over, due those of them this node recovers. A due transaction
+ * is then skipped, when it is not retried yet or was changed meanwhile, succeeded or failed. The scan duration is the
+ * time spent in the repository, deserializing included.
+ */
+public class RecoverSummary {
+
+    private final long startTime;
+
+    private final long durationInMillis;
+
+    private final long scanDurationInMillis;
+
+    private final long deserializeDurationInMillis;
+
+    private final long loadedCount;
+
+    private final long dueCount;
+
+    private final long skippedCount;
+
+    private final long succeededCount;
+
+    private final long failedCount;
+
+    private final Map<String, Long> backlogAgeHistogram;
+
+    private final Map<String, Long> targetFailureCounts;
+
+    public RecoverSummary(long startTime, long durationInMillis, long scanDurationInMillis, long deserializeDurationInMillis,
+                          long loadedCount, long dueCount, long skippedCount, long succeededCount, long failedCount,
+                          Map<String, Long> backlogAgeHistogram, Map<String, Long> targetFailureCounts) {
+        this.startTime = startTime;
+        this.durationInMillis = durationInMillis;
+        this.scanDurationInMillis = scanDurationInMillis;
+        this.deserializeDurationInMillis = deserializeDurationInMillis;
+        this.loadedCount = loadedCount;
+        this.dueCount = dueCount;
+        this.skippedCount = skippedCount;
+        this.succeededCount = succeededCount;
+        this.failedCount = failedCount;
+        this.backlogAgeHistogram = Collections.unmodifiableMap(backlogAgeHistogram);
+        this.targetFailureCounts = Collections.unmodifiableMap(targetFailureCounts);
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getDurationInMillis() {
+        return durationInMillis;
+    }
+
+    public long getScanDurationInMillis() {
+        return scanDurationInMillis;
+    }
+
+    /**
+     * 0 for the repositories not telling it, see {@link org.mengyun.tcctransaction.repository.CachableTransactionRepository#getScanDeserializeNanos()}.
+     */
+    public long getDeserializeDurationInMillis() {
+        return deserializeDurationInMillis;
+    }
+
+    public long getLoadedCount() {
+        return loadedCount;
+    }
+
+    public long getDueCount() {
+        return dueCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public long getSucceededCount() {
+        return succeededCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Number of due transactions by time since their creation, keyed by the upper bound of the bucket.
+     */
+    public Map<String, Long> getBacklogAgeHistogram() {
+        return backlogAgeHistogram;
+    }
+
+    /**
+     * Number of failed confirms and cancels by participant target.
+     */
+    public Map<String, Long> getTargetFailureCounts() {
+        return targetFailureCounts;
+    }
+
+    @Override
+    public String toString() {
+        return "RecoverSummary{startTime=" + startTime
+                + ", durationInMillis=" + durationInMillis
+                + ", scanDurationInMillis=" + scanDurationInMillis
+                + ", deserializeDurationInMillis=" + deserializeDurationInMillis
+                + ", loadedCount=" + loadedCount
+                + ", dueCount=" + dueCount
+                + ", skippedCount=" + skippedCount
+                + ", succeededCount=" + succeededCount
+                + ", failedCount=" + failedCount
+                + ", backlogAgeHistogram=" + backlogAgeHistogram
+                + ", targetFailureCounts=" + targetFailureCounts + "}";
+    }
+}
@@ -0,0 +1,175 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical timing wheel. The first level has wheelSize slots of one tick, every further level wheelSize slots of
+ * the span of the level below, added when a delay does not fit in the existing ones. A task is put in the slot of the
+ * lowest level its delay fits in and moved down when that slot comes round, so scheduling and expiring a task cost
+ * the same whatever the number of tasks waiting.
+ * <p/>
+ * The wheel is driven by a single daemon thread, tasks scheduled from other threads are queued and put in the wheel
+ * on the next tick. Tasks run on the ticker thread and are expected to hand the work off.
+ */
+public class TimingWheel {
+
+    static final Logger logger = Logger.getLogger(TimingWheel.class.getSimpleName());
+
+    private final long tickMillis;
+
+    private final int wheelSize;
+
+    private final long startTime;
+
+    private final long[] spans;
+
+    private final List<List<LinkedList<Timeout>>> levels = new ArrayList<List<LinkedList<Timeout>>>();
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+
+    private final Thread ticker;
+
+    private volatile boolean stopped;
+
+    private long currentTick;
+
+    public TimingWheel(long tickMillis, int wheelSize, String threadName) {
+
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.startTime = System.currentTimeMillis();
+
+        List<Long> spans = new ArrayList<Long>();
+        for (long span = 1; ; span *= wheelSize) {
+            spans.add(span);
+            if (span > Long.MAX_VALUE / wheelSize) {
+                break;
+            }
+        }
+        this.spans = new long[spans.size()];
+        for (int i = 0; i < this.spans.length; i++) {
+            this.spans[i] = spans.get(i);
+        }
+
+        ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, threadName);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Runs the task once delayMillis passed, rounded up to the next tick.
+     */
+    public void schedule(Runnable task, long delayMillis) {
+
+        long deadline = System.currentTimeMillis() + Math.max(0, delayMillis) - startTime;
+
+        scheduled.add(new Timeout((deadline + tickMillis - 1) / tickMillis, task));
+    }
+
+    /**
+     * Stops the ticker thread, the tasks not expired yet are dropped.
+     */
+    public void stop() {
+        stopped = true;
+        ticker.interrupt();
+    }
+
+    private void tick() {
+
+        while (!stopped) {
+
+            long sleepMillis = startTime + (currentTick + 1) * tickMillis - System.currentTimeMillis();
+
+            if (sleepMillis > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            currentTick++;
+
+            List<Timeout> expired = new ArrayList<Timeout>();
+
+            // slots of the upper levels coming round are moved down first, their tasks may expire on this very tick
+            for (int level = levels.size() - 1; level > 0; level--) {
+                long levelTick = spans[level];
+                if (currentTick % levelTick == 0) {
+                    LinkedList<Timeout> slot = levels.get(level).get((int) ((currentTick / levelTick) % wheelSize));
+                    while (!slot.isEmpty()) {
+                        add(slot.poll(), expired);
+                    }
+                }
+            }
+
+            Timeout timeout;
+            while ((timeout = scheduled.poll()) != null) {
+                add(timeout, expired);
+            }
+
+            if (!levels.isEmpty()) {
+                expired.addAll(levels.get(0).get((int) (currentTick % wheelSize)));
+                levels.get(0).get((int) (currentTick % wheelSize)).clear();
+            }
+
+            for (Timeout each : expired) {
+                try {
+                    each.task.run();
+                } catch (Throwable e) {
+                    logger.error("timing wheel task failed", e);
+                }
+            }
+        }
+    }
+
+    private void add(Timeout timeout, List<Timeout> expired) {
+
+        long remaining = timeout.deadlineTick - currentTick;
+
+        if (remaining <= 0) {
+            expired.add(timeout);
+            return;
+        }
+
+        // a delay beyond the top level waits there for more rounds
+        int level = 0;
+        while (level + 1 < spans.length && remaining >= spans[level + 1]) {
+            level++;
+        }
+
+        while (levels.size() <= level) {
+            List<LinkedList<Timeout>> slots = new ArrayList<LinkedList<Timeout>>(wheelSize);
+            for (int i = 0; i < wheelSize; i++) {
+                slots.add(new LinkedList<Timeout>());
+            }
+            levels.add(slots);
+        }
+
+        levels.get(level).get((int) ((timeout.deadlineTick / spans[level]) % wheelSize)).add(timeout);
+    }
+
+    private static class Timeout {
+
+        private final long deadlineTick;
+
+        private final Runnable task;
+
+        Timeout(long deadlineTick, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+    }
+}
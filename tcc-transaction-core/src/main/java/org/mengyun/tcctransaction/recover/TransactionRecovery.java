@@ -3,95 +3,1088 @@ package org.mengyun.tcctransaction.recover;
 import com.alibaba.fastjson.JSON;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.CircuitBreaker;
+import org.mengyun.tcctransaction.CircuitBreakerOpenException;
+import org.mengyun.tcctransaction.InvocationContext;
 import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.PartialUpdateTransactionRepository;
+import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionBatchHandler;
 import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.BatchCompensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.mengyun.tcctransaction.utils.StringUtils;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by changmingxie on 11/10/15.
  */
-public class TransactionRecovery {
+public class TransactionRecovery implements TransactionRecoveryMXBean {
 
     static final Logger logger = Logger.getLogger(TransactionRecovery.class.getSimpleName());
 
+    static final String OBJECT_NAME = "org.mengyun.tcctransaction:type=TransactionRecovery";
+
     private TransactionConfigurator transactionConfigurator;
 
+    private volatile ExecutorService recoverExecutor;
+
+    private volatile Semaphore inFlightPermits;
+
+    private volatile RecoverPartitioner partitioner;
+
+    private volatile TimingWheel timingWheel;
+
+    private volatile RecoverRateLimiter rateLimiter;
+
+    private volatile RecoverMetricsRegistry metricsRegistry;
+
+    private volatile RecoverSummary lastRecoverSummary;
+
+    private volatile ObjectName objectName;
+
+    private final Random random = new Random();
+
+    /**
+     * Reads the transactions due in batches of recoverBatchSize and recovers each batch before reading the next one,
+     * so the job holds a single batch whatever the number of transactions to recover. The summary of the run is
+     * published once it ends, see {@link #getLastRecoverSummary()}.
+     */
     public void startRecover() {
 
-        List<Transaction> transactions = loadErrorTransactions();
+        TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
+        final RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
+
+        final RecoverMetrics metrics = new RecoverMetrics(metricsRegistry);
+        long deserializeNanos = getScanDeserializeNanos(transactionRepository);
+
+        try {
+            final RecoverPartitioner recoverPartitioner = getPartitioner(recoverConfig, transactionRepository);
+
+            Set<Integer> ownedBuckets = recoverPartitioner != null ? recoverPartitioner.rebalance() : null;
+
+            if (ownedBuckets != null && ownedBuckets.isEmpty()) {
+                return;
+            }
+
+            final long deadline = System.currentTimeMillis() + recoverConfig.getRecoverTimeoutInSeconds() * 1000L;
+
+            TransactionBatchHandler handler = new TransactionBatchHandler() {
+                @Override
+                public boolean handle(List<Transaction> transactions) {
+
+                    metrics.onLoaded(transactions.size());
+
+                    List<Transaction> ownedTransactions = getOwnedTransactions(recoverPartitioner, transactions);
+                    metrics.onDue(ownedTransactions);
+
+                    long startNanos = System.nanoTime();
+
+                    try {
+                        return recoverErrorTransactions(ownedTransactions, recoverConfig, deadline, metrics);
+                    } finally {
+                        metrics.onHandled(System.nanoTime() - startNanos);
+                    }
+                }
+            };
+
+            Date date = new Date(Calendar.getInstance().getTimeInMillis());
 
-        recoverErrorTransactions(transactions);
+            if (ownedBuckets != null) {
+                // the repository leaves the buckets of the other nodes out where it can, the rest is filtered here
+                ((RecoverLeaseRepository) transactionRepository).findAllDueForRetry(date, recoverConfig.getRecoverBatchSize(),
+                        recoverPartitioner.getBucketCount(), ownedBuckets, handler);
+            } else {
+                findAllDueForRetry(transactionRepository, date, recoverConfig, handler);
+            }
+
+        } finally {
+            lastRecoverSummary = metrics.toSummary(getScanDeserializeNanos(transactionRepository) - deserializeNanos);
+        }
     }
 
-    private List<Transaction> loadErrorTransactions() {
+    /**
+     * Repositories not able to find the transactions due for retry are read as before the next retry time was kept,
+     * the transactions not updated for recoverDuration are all due.
+     */
+    private void findAllDueForRetry(TransactionRepository transactionRepository, Date date, RecoverConfig recoverConfig, TransactionBatchHandler handler) {
 
+        if (transactionRepository instanceof PartialUpdateTransactionRepository) {
+            ((PartialUpdateTransactionRepository) transactionRepository).findAllDueForRetry(date, recoverConfig.getRecoverBatchSize(), handler);
+            return;
+        }
 
-        long currentTimeInMillis = Calendar.getInstance().getTimeInMillis();
+        List<Transaction> transactions = transactionRepository.findAllUnmodifiedSince(
+                new Date(date.getTime() - recoverConfig.getRecoverDuration() * 1000L));
 
-        TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
-        RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
+        int batchSize = Math.max(1, recoverConfig.getRecoverBatchSize());
+
+        for (int from = 0; from < transactions.size(); from += batchSize) {
+            if (!handler.handle(new ArrayList<Transaction>(transactions.subList(from, Math.min(from + batchSize, transactions.size()))))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Only the repositories keeping a cache time their deserialization.
+     */
+    private long getScanDeserializeNanos(TransactionRepository transactionRepository) {
+
+        if (transactionRepository instanceof CachableTransactionRepository) {
+            return ((CachableTransactionRepository) transactionRepository).getScanDeserializeNanos();
+        }
 
-        return transactionRepository.findAllUnmodifiedSince(new Date(currentTimeInMillis - recoverConfig.getRecoverDuration() * 1000));
+        return 0;
     }
 
-    private void recoverErrorTransactions(List<Transaction> transactions) {
+    private List<Transaction> getOwnedTransactions(RecoverPartitioner recoverPartitioner, List<Transaction> transactions) {
+
+        if (recoverPartitioner == null) {
+            return transactions;
+        }
 
+        List<Transaction> ownedTransactions = new ArrayList<Transaction>();
 
         for (Transaction transaction : transactions) {
+            if (recoverPartitioner.owns(transaction)) {
+                ownedTransactions.add(transaction);
+            }
+        }
+
+        return ownedTransactions;
+    }
 
-            if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
+    /**
+     * The partitioner of this node when recoverBucketCount is set, null when every transaction is recovered here.
+     */
+    private RecoverPartitioner getPartitioner(RecoverConfig recoverConfig, TransactionRepository transactionRepository) {
 
-                logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
-                continue;
+        if (recoverConfig.getRecoverBucketCount() <= 0) {
+            return null;
+        }
+
+        if (!(transactionRepository instanceof RecoverLeaseRepository)) {
+            logger.warn(String.format("%s cannot hold recover leases, all transactions are recovered by every node", transactionRepository.getClass().getName()));
+            return null;
+        }
+
+        if (partitioner == null) {
+            synchronized (this) {
+                if (partitioner == null) {
+                    partitioner = new RecoverPartitioner((RecoverLeaseRepository) transactionRepository,
+                            recoverConfig.getRecoverBucketCount(), recoverConfig.getRecoverLeaseInSeconds() * 1000L);
+                }
             }
+        }
+
+        return partitioner;
+    }
+
+    /**
+     * Returns false once the recover timeout is reached, for the job to stop reading transactions.
+     */
+    private boolean recoverErrorTransactions(List<Transaction> transactions, RecoverConfig recoverConfig, long deadline, RecoverMetrics metrics) {
+
+        if (recoverConfig.getRecoverTerminateBatchSize() > 0) {
+            return recoverErrorTransactionsInBatches(transactions, recoverConfig, deadline, metrics);
+        }
+
+        if (recoverConfig.getRecoverThreadPoolSize() > 1) {
+            return recoverErrorTransactionsInParallel(transactions, recoverConfig, deadline, metrics);
+        }
+
+        for (Transaction transaction : transactions) {
+            recoverErrorTransaction(transaction, metrics);
+        }
+
+        return true;
+    }
+
+    /**
+     * Dispatches the transactions to the recover threads, at most maxInFlightRecoveries at a time, and waits until
+     * they are all recovered or the recover timeout is reached. A transaction still running then is left to finish
+     * on its thread, the next job sees it again only if its recovery failed.
+     */
+    private boolean recoverErrorTransactionsInParallel(List<Transaction> transactions, RecoverConfig recoverConfig, long deadline, final RecoverMetrics metrics) {
+
+        List<Runnable> recoveries = new ArrayList<Runnable>(transactions.size());
+
+        for (final Transaction transaction : transactions) {
+            recoveries.add(new Runnable() {
+                @Override
+                public void run() {
+                    recoverErrorTransaction(transaction, metrics);
+                }
+            });
+        }
+
+        return runOnRecoverThreads(recoveries, recoverConfig, deadline);
+    }
+
+    /**
+     * Runs the recoveries on the recover threads, at most maxInFlightRecoveries at a time, and waits until they all
+     * ended or the recover timeout is reached. Returns false once it is.
+     */
+    private boolean runOnRecoverThreads(List<Runnable> recoveries, RecoverConfig recoverConfig, long deadline) {
+
+        ExecutorService executor = getRecoverExecutor(recoverConfig);
+        final Semaphore permits = getInFlightPermits(recoverConfig);
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(recoveries.size());
+
+        try {
+            for (final Runnable recovery : recoveries) {
+
+                if (!permits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    logger.warn(String.format("recover timeout reached with %d recoveries not dispatched", recoveries.size() - futures.size()));
+                    break;
+                }
+
+                try {
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                recovery.run();
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            int unfinished = 0;
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    unfinished++;
+                } catch (ExecutionException e) {
+                    logger.error("recover failed", e.getCause());
+                }
+            }
+
+            if (unfinished > 0) {
+                logger.warn(String.format("recover timeout reached with %d recoveries still running", unfinished));
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return System.currentTimeMillis() < deadline;
+    }
+
+    /**
+     * Retries a transaction whose confirm or cancel just failed from the timing wheel, once its backoff passed, rather
+     * than on the recover job scanning the repository. Does nothing unless recoverTickInMillis is set.
+     */
+    public void scheduleRecover(Transaction transaction) {
+
+        RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
+
+        if (recoverConfig.getRecoverTickInMillis() <= 0) {
+            return;
+        }
+
+        scheduleRecover((TransactionXid) transaction.getXid(), transaction.getRetriedCount(),
+                getBackoffInMillis(transaction.getRetriedCount()), recoverConfig);
+    }
 
-            if (transaction.getTransactionType().equals(TransactionType.BRANCH)
-                    && (transaction.getCreateTime().getTime() +
-                    transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
-                            transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
-                    > System.currentTimeMillis())) {
+    /**
+     * The transaction is read again when its time comes, it is left alone if it was finished meanwhile and retried
+     * at its next retry time if a recover job retried it meanwhile.
+     */
+    private void scheduleRecover(final TransactionXid xid, final int retriedCount, long delayMillis, final RecoverConfig recoverConfig) {
+
+        getTimingWheel(recoverConfig).schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getRecoverExecutor(recoverConfig).submit(new Runnable() {
+                        @Override
+                        public void run() {
+
+                            Transaction transaction = transactionConfigurator.getTransactionRepository().findByXid(xid);
+
+                            if (transaction == null) {
+                                return;
+                            }
+
+                            if (transaction.getRetriedCount() != retriedCount) {
+                                scheduleRecover(xid, transaction.getRetriedCount(), delayUntilNextRetry(transaction), recoverConfig);
+                            } else if (recoverErrorTransaction(transaction, new RecoverMetrics(metricsRegistry))) {
+                                scheduleRecover(xid, transaction.getRetriedCount(), delayUntilNextRetry(transaction), recoverConfig);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    logger.warn(String.format("recover of txid:%s not scheduled, recover job will retry it", xid), e);
+                }
+            }
+        }, delayMillis);
+    }
+
+    private long delayUntilNextRetry(Transaction transaction) {
+        return transaction.getNextRetryTime() != null ? transaction.getNextRetryTime().getTime() - System.currentTimeMillis() : 0;
+    }
+
+    /**
+     * Returns true if the retry failed and the transaction is still to be recovered here.
+     */
+    private boolean recoverErrorTransaction(Transaction transaction, RecoverMetrics metrics) {
+
+        Boolean retry = skipRecover(transaction, false);
+
+        if (retry != null) {
+            metrics.onSkipped();
+            return retry;
+        }
+
+        try {
+            Boolean commit = beginRecover(transaction);
+
+            if (commit != null) {
+                terminate(transaction, commit, getRateLimiter(transactionConfigurator.getRecoverConfig()), metrics);
+                transactionConfigurator.getTransactionRepository().delete(transaction);
+                metrics.onSucceeded();
+            } else {
+                metrics.onSkipped();
+            }
+
+            return false;
+
+        } catch (Throwable throwable) {
+            return onRecoverFailed(transaction, throwable, metrics);
+        }
+    }
+
+    /**
+     * Recovers the transactions with the participants implementing {@link BatchCompensable} called once per chunk of
+     * recoverTerminateBatchSize transactions pending on the same confirm or cancel method, the others once per
+     * transaction. The calls run on the recover threads like {@link #recoverErrorTransactionsInParallel}. A
+     * transaction is deleted once all its participants succeeded, one whose calls did not all end before the recover
+     * timeout is left to a later job.
+     */
+    private boolean recoverErrorTransactionsInBatches(List<Transaction> transactions, RecoverConfig recoverConfig, long deadline, final RecoverMetrics metrics) {
+
+        final RecoverRateLimiter recoverRateLimiter = getRateLimiter(recoverConfig);
+
+        List<Transaction> started = new ArrayList<Transaction>();
+        final Map<Transaction, Throwable> failures = Collections.synchronizedMap(new IdentityHashMap<Transaction, Throwable>());
+        final Map<Transaction, AtomicInteger> pendingCalls = new IdentityHashMap<Transaction, AtomicInteger>();
+        final Map<Participant, Transaction> owners = new IdentityHashMap<Participant, Transaction>();
+        Map<BatchMethod, List<Participant>> batches = new LinkedHashMap<BatchMethod, List<Participant>>();
+        List<Runnable> calls = new ArrayList<Runnable>();
+
+        boolean inTime = true;
+
+        for (final Transaction transaction : transactions) {
+
+            if (System.currentTimeMillis() >= deadline) {
+                logger.warn(String.format("recover timeout reached with %d transactions not started", transactions.size() - started.size()));
+                inTime = false;
+                break;
+            }
+
+            if (skipRecover(transaction, true) != null) {
+                metrics.onSkipped();
                 continue;
             }
-            
+
+            final Boolean commit;
+
             try {
-                transaction.addRetriedCount();
+                commit = beginRecover(transaction);
+            } catch (Throwable throwable) {
+                onRecoverFailed(transaction, throwable, metrics);
+                continue;
+            }
 
-                if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
+            if (commit == null) {
+                metrics.onSkipped();
+                continue;
+            }
 
-                    transaction.changeStatus(TransactionStatus.CONFIRMING);
-                    transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.commit();
-                    transactionConfigurator.getTransactionRepository().delete(transaction);
+            started.add(transaction);
+            pendingCalls.put(transaction, new AtomicInteger());
+
+            final List<Participant> unbatched = new ArrayList<Participant>();
+
+            for (Participant participant : transaction.getParticipants()) {
+
+                InvocationContext invocationContext = commit ? participant.getConfirmInvocationContext() : participant.getCancelInvocationContext();
+
+                if (isBatched(invocationContext)) {
+
+                    BatchMethod batchMethod = new BatchMethod(invocationContext.getTargetClass(), invocationContext.getMethodName(), commit);
+
+                    if (!batches.containsKey(batchMethod)) {
+                        batches.put(batchMethod, new ArrayList<Participant>());
+                    }
+
+                    batches.get(batchMethod).add(participant);
+                    owners.put(participant, transaction);
+                    pendingCalls.get(transaction).incrementAndGet();
+
+                } else {
+                    unbatched.add(participant);
+                }
+            }
 
-                } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
-                        || transaction.getTransactionType().equals(TransactionType.ROOT)) {
+            if (!unbatched.isEmpty()) {
 
-                    transaction.changeStatus(TransactionStatus.CANCELLING);
-                    transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.rollback();
+                pendingCalls.get(transaction).incrementAndGet();
+
+                calls.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (Participant participant : unbatched) {
+                                terminate(participant, commit, recoverRateLimiter, metrics);
+                            }
+                        } catch (Throwable throwable) {
+                            addFailure(failures, transaction, throwable);
+                        } finally {
+                            pendingCalls.get(transaction).decrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+
+        int batchSize = recoverConfig.getRecoverTerminateBatchSize();
+
+        for (Map.Entry<BatchMethod, List<Participant>> batch : batches.entrySet()) {
+
+            final BatchMethod batchMethod = batch.getKey();
+            List<Participant> participants = batch.getValue();
+
+            for (int fromIndex = 0; fromIndex < participants.size(); fromIndex += batchSize) {
+
+                final List<Participant> chunk = participants.subList(fromIndex, Math.min(fromIndex + batchSize, participants.size()));
+
+                calls.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            terminate(batchMethod.targetClass, chunk, batchMethod.commit, recoverRateLimiter);
+                        } catch (Throwable throwable) {
+                            metrics.onTargetFailed(batchMethod.targetClass.getName());
+                            for (Participant participant : chunk) {
+                                addFailure(failures, owners.get(participant), throwable);
+                            }
+                        } finally {
+                            for (Participant participant : chunk) {
+                                pendingCalls.get(owners.get(participant)).decrementAndGet();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        if (!calls.isEmpty()) {
+            inTime = runOnRecoverThreads(calls, recoverConfig, deadline) && inTime;
+        }
+
+        int unfinished = 0;
+
+        for (Transaction transaction : started) {
+
+            if (pendingCalls.get(transaction).get() > 0) {
+                unfinished++;
+                continue;
+            }
+
+            Throwable failure = failures.get(transaction);
+
+            if (failure == null) {
+                try {
                     transactionConfigurator.getTransactionRepository().delete(transaction);
+                    metrics.onSucceeded();
+                    continue;
+                } catch (Throwable throwable) {
+                    failure = throwable;
                 }
+            }
 
-            } catch (Throwable throwable) {
+            onRecoverFailed(transaction, failure, metrics);
+        }
+
+        if (unfinished > 0) {
+            logger.warn(String.format("recover timeout reached with %d transactions still recovering", unfinished));
+        }
+
+        return inTime;
+    }
+
+    private void addFailure(Map<Transaction, Throwable> failures, Transaction transaction, Throwable throwable) {
+
+        synchronized (failures) {
+            if (!failures.containsKey(transaction)) {
+                failures.put(transaction, throwable);
+            }
+        }
+    }
+
+    /**
+     * Whether the participant method is called through {@link BatchCompensable} when recovering in batches.
+     */
+    private boolean isBatched(InvocationContext invocationContext) {
+        return getTarget(invocationContext) != null && BatchCompensable.class.isAssignableFrom(invocationContext.getTargetClass());
+    }
+
+    private InvocationContext getBatchInvocationContext(Class targetClass, boolean commit) {
+        return new InvocationContext(targetClass, commit ? "confirmBatch" : "cancelBatch", new Class[]{List.class});
+    }
+
+    /**
+     * Null when the transaction is to be recovered now, otherwise whether it is still to be recovered, at the next
+     * retry time it was given. When batched, the breakers of the batch methods are looked at for the participants
+     * implementing {@link BatchCompensable}.
+     */
+    private Boolean skipRecover(Transaction transaction, boolean batched) {
+
+        if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
+
+            if (moveToDeadLetter(transaction)) {
+                return false;
+            }
+
+            logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
+            return false;
+        }
+
+        if (transaction.getTransactionType().equals(TransactionType.BRANCH)
+                && (transaction.getCreateTime().getTime() +
+                transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
+                        transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
+                > System.currentTimeMillis())) {
+            return false;
+        }
+
+        // the participants are only looked at when a breaker or the rate limiter is on, a transaction read lazily by
+        // the scan is not deserialized otherwise
+        long waitMillis = CircuitBreaker.isEnabled() ? getRemainingOpenMillis(transaction, batched) : 0;
+
+        if (waitMillis <= 0) {
+
+            RecoverRateLimiter recoverRateLimiter = getRateLimiter(transactionConfigurator.getRecoverConfig());
 
-                if (throwable instanceof OptimisticLockException
-                        || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
-                    logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            if (recoverRateLimiter != null) {
+                waitMillis = recoverRateLimiter.tryAcquire(getTargets(transaction));
+            }
+        }
+
+        if (waitMillis > 0) {
+            deferRecover(transaction, waitMillis);
+            return true;
+        }
+
+        return null;
+    }
+
+    /**
+     * Pushes the next retry time of a transaction whose participants cannot be called now back to when they can,
+     * without counting a retry, so the next jobs leave it alone until then. Only the next retry time is written, the
+     * wait is stored as it is rather than put off to recoverDuration after a new last update time.
+     */
+    private void deferRecover(Transaction transaction, long delayMillis) {
+
+        transaction.setNextRetryTime(new Date(System.currentTimeMillis() + delayMillis));
+
+        TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
+
+        if (!(transactionRepository instanceof PartialUpdateTransactionRepository)) {
+            return;
+        }
+
+        try {
+            ((PartialUpdateTransactionRepository) transactionRepository).updateNextRetryTime(transaction);
+        } catch (Throwable throwable) {
+            logger.warn(String.format("next retry time of txid:%s not saved, it is read again by the next recover job", transaction.getXid()), throwable);
+        }
+    }
+
+    /**
+     * Counts the retry and persists the status the transaction is driven to: true to confirm it, false to cancel it,
+     * null when it is left as it is.
+     */
+    private Boolean beginRecover(Transaction transaction) {
+
+        transaction.addRetriedCount();
+        transaction.setNextRetryTime(new Date(System.currentTimeMillis() + getBackoffInMillis(transaction.getRetriedCount())));
+
+        if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
+
+            transaction.changeStatus(TransactionStatus.CONFIRMING);
+            updateStatus(transaction);
+            return true;
+
+        } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
+                || transaction.getTransactionType().equals(TransactionType.ROOT)) {
+
+            transaction.changeStatus(TransactionStatus.CANCELLING);
+            updateStatus(transaction);
+            return false;
+        }
+
+        return null;
+    }
+
+    private void updateStatus(Transaction transaction) {
+
+        TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
+
+        if (transactionRepository instanceof PartialUpdateTransactionRepository) {
+            ((PartialUpdateTransactionRepository) transactionRepository).updateStatus(transaction);
+        } else {
+            transactionRepository.update(transaction);
+        }
+    }
+
+    /**
+     * Returns true unless the transaction was changed by someone else meanwhile, which counts as skipped.
+     */
+    private boolean onRecoverFailed(Transaction transaction, Throwable throwable, RecoverMetrics metrics) {
+
+        if (throwable instanceof OptimisticLockException
+                || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
+            metrics.onSkipped();
+            logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            return false;
+        }
+
+        metrics.onFailed();
+        logger.error(String.format("recover failed, txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+        return true;
+    }
+
+    /**
+     * Commits or rolls back the participants one after another like the transaction does, telling the rate limiter
+     * and the metrics how each target answered.
+     */
+    private void terminate(Transaction transaction, boolean commit, RecoverRateLimiter recoverRateLimiter, RecoverMetrics metrics) {
+
+        for (Participant participant : transaction.getParticipants()) {
+            terminate(participant, commit, recoverRateLimiter, metrics);
+        }
+    }
+
+    private void terminate(Participant participant, boolean commit, RecoverRateLimiter recoverRateLimiter, RecoverMetrics metrics) {
+
+        String target = getTarget(commit ? participant.getConfirmInvocationContext() : participant.getCancelInvocationContext());
+        long startTime = System.currentTimeMillis();
+
+        try {
+            if (commit) {
+                participant.commit();
+            } else {
+                participant.rollback();
+            }
+        } catch (RuntimeException e) {
+            if (target != null) {
+                metrics.onTargetFailed(target);
+                if (recoverRateLimiter != null) {
+                    recoverRateLimiter.onFailure(target, System.currentTimeMillis() - startTime);
+                }
+            }
+            throw e;
+        }
+
+        if (target != null && recoverRateLimiter != null) {
+            recoverRateLimiter.onSuccess(target, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Confirms or cancels a chunk of participants of the same target in one call, behind the circuit breaker of the
+     * batch method.
+     */
+    private void terminate(Class targetClass, List<Participant> participants, boolean commit, RecoverRateLimiter recoverRateLimiter) {
+
+        List<TransactionContext> transactionContexts = new ArrayList<TransactionContext>(participants.size());
+
+        for (Participant participant : participants) {
+            transactionContexts.add(new TransactionContext(participant.getXid(),
+                    (commit ? TransactionStatus.CONFIRMING : TransactionStatus.CANCELLING).getId()));
+        }
+
+        CircuitBreaker circuitBreaker = CircuitBreaker.of(getBatchInvocationContext(targetClass, commit));
+
+        if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+            throw new CircuitBreakerOpenException(String.format("circuit breaker of %s is open", circuitBreaker.getName()));
+        }
+
+        long startTime = System.currentTimeMillis();
+        boolean succeeded = false;
+        boolean failed = false;
+
+        try {
+            BatchCompensable target = (BatchCompensable) FactoryBuilder.factoryOf(targetClass).getInstance();
+
+            if (commit) {
+                target.confirmBatch(transactionContexts);
+            } else {
+                target.cancelBatch(transactionContexts);
+            }
+
+            succeeded = true;
+
+        } catch (RuntimeException e) {
+            failed = CircuitBreaker.isFailure(e);
+            throw e;
+        } finally {
+            if (circuitBreaker != null) {
+                if (failed) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+            }
+
+            if (recoverRateLimiter != null) {
+                if (succeeded) {
+                    recoverRateLimiter.onSuccess(targetClass.getName(), System.currentTimeMillis() - startTime);
                 } else {
-                    logger.error(String.format("recover failed, txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+                    recoverRateLimiter.onFailure(targetClass.getName(), System.currentTimeMillis() - startTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * The confirms or cancels the recovery of the transaction calls, none if it is left as it is.
+     */
+    private List<InvocationContext> getInvocationContexts(Transaction transaction) {
+
+        List<InvocationContext> invocationContexts = new ArrayList<InvocationContext>();
+
+        boolean commit = transaction.getStatus().equals(TransactionStatus.CONFIRMING);
+
+        if (!commit && !transaction.getStatus().equals(TransactionStatus.CANCELLING)
+                && !transaction.getTransactionType().equals(TransactionType.ROOT)) {
+            return invocationContexts;
+        }
+
+        for (Participant participant : transaction.getParticipants()) {
+            invocationContexts.add(commit ? participant.getConfirmInvocationContext() : participant.getCancelInvocationContext());
+        }
+
+        return invocationContexts;
+    }
+
+    private Set<String> getTargets(Transaction transaction) {
+
+        Set<String> targets = new LinkedHashSet<String>();
+
+        for (InvocationContext invocationContext : getInvocationContexts(transaction)) {
+            String target = getTarget(invocationContext);
+            if (target != null) {
+                targets.add(target);
+            }
+        }
+
+        return targets;
+    }
+
+    /**
+     * How long until the open circuit breakers of the methods the recovery calls let a probe through.
+     */
+    private long getRemainingOpenMillis(Transaction transaction, boolean batched) {
+
+        long remainingOpenMillis = 0;
+
+        boolean commit = transaction.getStatus().equals(TransactionStatus.CONFIRMING);
+
+        for (InvocationContext invocationContext : getInvocationContexts(transaction)) {
+            CircuitBreaker circuitBreaker = CircuitBreaker.of(batched && isBatched(invocationContext)
+                    ? getBatchInvocationContext(invocationContext.getTargetClass(), commit) : invocationContext);
+            if (circuitBreaker != null) {
+                remainingOpenMillis = Math.max(remainingOpenMillis, circuitBreaker.getRemainingOpenMillis());
+            }
+        }
+
+        return remainingOpenMillis;
+    }
+
+    /**
+     * Participants are told apart by the class or remote interface they are called on.
+     */
+    private String getTarget(InvocationContext invocationContext) {
+
+        if (invocationContext == null || invocationContext.getTargetClass() == null
+                || !StringUtils.isNotEmpty(invocationContext.getMethodName())) {
+            return null;
+        }
+
+        return invocationContext.getTargetClass().getName();
+    }
+
+    /**
+     * Moves a transaction out of the ones recovered, when the repository keeps dead letters. Returns false for the
+     * caller to keep it where it is.
+     */
+    private boolean moveToDeadLetter(Transaction transaction) {
+
+        TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
+
+        if (!(transactionRepository instanceof DeadLetterRepository)) {
+            return false;
+        }
+
+        try {
+            // a transaction changed meanwhile is left to the next recover job
+            if (((DeadLetterRepository) transactionRepository).moveToDeadLetter(transaction) > 0) {
+                logger.error(String.format("recover failed with max retry count, moved to the dead letters. txid:%s, status:%s,retried count:%d", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount()));
+            }
+            return true;
+        } catch (Throwable throwable) {
+            logger.warn(String.format("move to the dead letters failed. txid:%s", transaction.getXid()), throwable);
+            return false;
+        }
+    }
+
+    /**
+     * recoverBackoffInSeconds doubled for every retry after the first, capped and spread by the jitter.
+     */
+    private long getBackoffInMillis(int retriedCount) {
+
+        RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
+
+        long backoff = recoverConfig.getRecoverBackoffInSeconds() * 1000L << Math.min(Math.max(retriedCount - 1, 0), 30);
+        backoff = Math.min(backoff, recoverConfig.getMaxRecoverBackoffInSeconds() * 1000L);
+
+        double jitter = recoverConfig.getRecoverBackoffJitter();
+        return Math.max(0, (long) (backoff * (1 - jitter + 2 * jitter * random.nextDouble())));
+    }
+
+    private ExecutorService getRecoverExecutor(RecoverConfig recoverConfig) {
+
+        if (recoverExecutor == null) {
+            synchronized (this) {
+                if (recoverExecutor == null) {
+                    recoverExecutor = Executors.newFixedThreadPool(recoverConfig.getRecoverThreadPoolSize(), new ThreadFactory() {
+
+                        private final AtomicInteger threadNumber = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "tcc-transaction-recovery-" + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+
+        return recoverExecutor;
+    }
+
+    /**
+     * The rate limiter when recoverRatePerTarget is set, null when the recovery calls the participants unpaced.
+     */
+    private RecoverRateLimiter getRateLimiter(RecoverConfig recoverConfig) {
+
+        if (recoverConfig.getRecoverRatePerTarget() <= 0) {
+            return null;
+        }
+
+        if (rateLimiter == null) {
+            synchronized (this) {
+                if (rateLimiter == null) {
+                    rateLimiter = new RecoverRateLimiter(recoverConfig.getRecoverRatePerTarget(), recoverConfig.getRecoverSlowCallInMillis());
+                }
+            }
+        }
+
+        return rateLimiter;
+    }
+
+    private TimingWheel getTimingWheel(RecoverConfig recoverConfig) {
+
+        if (timingWheel == null) {
+            synchronized (this) {
+                if (timingWheel == null) {
+                    timingWheel = new TimingWheel(recoverConfig.getRecoverTickInMillis(), recoverConfig.getRecoverWheelSize(), "tcc-transaction-recovery-timer");
+                }
+            }
+        }
+
+        return timingWheel;
+    }
+
+    private Semaphore getInFlightPermits(RecoverConfig recoverConfig) {
+
+        if (inFlightPermits == null) {
+            synchronized (this) {
+                if (inFlightPermits == null) {
+                    inFlightPermits = new Semaphore(recoverConfig.getMaxInFlightRecoveries());
                 }
             }
         }
+
+        return inFlightPermits;
+    }
+
+    /**
+     * Publishes this recovery over JMX under {@value #OBJECT_NAME}, the first one registered wins when several run in
+     * the same JVM.
+     */
+    public synchronized void registerMBean() throws Exception {
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+
+        try {
+            mBeanServer.registerMBean(this, name);
+            objectName = name;
+        } catch (InstanceAlreadyExistsException e) {
+            logger.warn(String.format("%s already registered, this recovery is not published", OBJECT_NAME));
+        }
+    }
+
+    @Override
+    public RecoverSummary getLastRecoverSummary() {
+        return lastRecoverSummary;
+    }
+
+    @Override
+    public Map<String, Double> getRecoverRates() {
+
+        RecoverRateLimiter recoverRateLimiter = rateLimiter;
+
+        if (recoverRateLimiter == null) {
+            return Collections.emptyMap();
+        }
+
+        return recoverRateLimiter.getRates();
+    }
+
+    @Override
+    public Map<String, String> getCircuitBreakerStates() {
+
+        Map<String, String> states = new HashMap<String, String>();
+
+        for (CircuitBreaker circuitBreaker : CircuitBreaker.getCircuitBreakers().values()) {
+            states.put(circuitBreaker.getName(), circuitBreaker.getState().name());
+        }
+
+        return states;
+    }
+
+    /**
+     * Stops the recover threads and the timing wheel, recoveries in progress are interrupted, and hands the recover buckets of this node
+     * over to the others.
+     */
+    public synchronized void shutdown() {
+        if (timingWheel != null) {
+            timingWheel.stop();
+            timingWheel = null;
+        }
+
+        if (recoverExecutor != null) {
+            recoverExecutor.shutdownNow();
+            recoverExecutor = null;
+        }
+
+        if (partitioner != null) {
+            partitioner.releaseAll();
+            partitioner = null;
+        }
+
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                logger.warn(String.format("%s not unregistered", objectName), e);
+            }
+            objectName = null;
+        }
     }
 
     public void setTransactionConfigurator(TransactionConfigurator transactionConfigurator) {
         this.transactionConfigurator = transactionConfigurator;
     }
+
+    public void setMetricsRegistry(RecoverMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * The confirm or cancel method the participants of a batch are pending on, so one call only holds the
+     * transactions of a single method.
+     */
+    private static class BatchMethod {
+
+        private final Class targetClass;
+
+        private final String methodName;
+
+        private final boolean commit;
+
+        BatchMethod(Class targetClass, String methodName, boolean commit) {
+            this.targetClass = targetClass;
+            this.methodName = methodName;
+            this.commit = commit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof BatchMethod)) {
+                return false;
+            }
+
+            BatchMethod that = (BatchMethod) o;
+            return targetClass.equals(that.targetClass) && methodName.equals(that.methodName) && commit == that.commit;
+        }
+
+        @Override
+        public int hashCode() {
+            return (targetClass.hashCode() * 31 + methodName.hashCode()) * 31 + (commit ? 1 : 0);
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package org.mengyun.tcctransaction.recover;
+
+import java.util.Map;
+
+/**
+ * The state of the recovery published over JMX, see {@link TransactionRecovery#registerMBean()}.
+ */
+public interface TransactionRecoveryMXBean {
+
+    /**
+     * The last recover job run, null before the first one ended.
+     */
+    RecoverSummary getLastRecoverSummary();
+
+    /**
+     * The current rate of every participant target, in calls per second, empty when the recovery is unpaced.
+     */
+    Map<String, Double> getRecoverRates();
+
+    /**
+     * The state of every circuit breaker of a confirm or cancel method.
+     */
+    Map<String, String> getCircuitBreakerStates();
+}
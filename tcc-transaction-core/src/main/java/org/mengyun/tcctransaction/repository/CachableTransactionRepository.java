@@ -1,27 +1,64 @@
 package org.mengyun.tcctransaction.repository;
 
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import org.mengyun.tcctransaction.ConcurrentTransactionException;
 import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.PartialUpdateTransactionRepository;
+import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
-import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.TransactionBatchHandler;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.cache.CacheEngine;
+import org.mengyun.tcctransaction.repository.cache.CacheInvalidation;
+import org.mengyun.tcctransaction.repository.cache.CacheInvalidationChannel;
+import org.mengyun.tcctransaction.repository.cache.CacheInvalidationListener;
+import org.mengyun.tcctransaction.repository.cache.RecoveryCacheMode;
+import org.mengyun.tcctransaction.repository.cache.TransactionCache;
+import org.mengyun.tcctransaction.repository.cache.TransactionCacheSpec;
+import org.mengyun.tcctransaction.repository.cache.TransactionCacheStats;
+import org.mengyun.tcctransaction.serializer.CompressingSerializer;
+import org.mengyun.tcctransaction.serializer.CompressionStats;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 
 import javax.transaction.xa.Xid;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by changmingxie on 10/30/15.
  */
-public abstract class CachableTransactionRepository implements TransactionRepository {
+public abstract class CachableTransactionRepository implements PartialUpdateTransactionRepository {
 
-    private int expireDuration = 120;
+    private final TransactionCacheSpec cacheSpec = new TransactionCacheSpec();
 
-    private Cache<Xid, Transaction> transactionXidCompensableTransactionCache;
+    private volatile TransactionCache transactionCache;
+
+    private RecoveryCacheMode recoveryCacheMode = RecoveryCacheMode.BYPASS;
+
+    private long recoveryCacheMaximumSize = 100;
+
+    private volatile TransactionCache recoveryTransactionCache;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private volatile CacheInvalidationChannel cacheInvalidationChannel;
+
+    private int recoverDuration = 120;
+
+    private final AtomicLong scanDeserializeNanos = new AtomicLong();
+
+    private final CacheInvalidationListener cacheInvalidationListener = new CacheInvalidationListener() {
+        @Override
+        public void onInvalidation(CacheInvalidation invalidation) {
+            if (!nodeId.equals(invalidation.getNodeId())) {
+                invalidateCache(invalidation.getXid(), invalidation.getVersion());
+            }
+        }
+    };
 
     @Override
     public int create(Transaction transaction) {
@@ -37,12 +74,50 @@ public abstract class CachableTransactionRepository implements TransactionReposi
 
     @Override
     public int update(Transaction transaction) {
+        return update(transaction, UpdateType.ALL, null);
+    }
+
+    @Override
+    public int updateStatus(Transaction transaction) {
+        return update(transaction, UpdateType.STATUS, null);
+    }
+
+    @Override
+    public int updateRetriedCount(Transaction transaction) {
+        return update(transaction, UpdateType.RETRIED_COUNT, null);
+    }
+
+    @Override
+    public int appendParticipant(Transaction transaction, Participant participant) {
+        return update(transaction, UpdateType.PARTICIPANT, participant);
+    }
+
+    @Override
+    public int updateNextRetryTime(Transaction transaction) {
+        return transaction.getNextRetryTime() != null ? doUpdateNextRetryTime(transaction) : 0;
+    }
+
+    private int update(Transaction transaction, UpdateType updateType, Participant participant) {
         int result = 0;
 
         try {
-            result = doUpdate(transaction);
+            switch (updateType) {
+                case STATUS:
+                    result = doUpdateStatus(transaction);
+                    break;
+                case RETRIED_COUNT:
+                    result = doUpdateRetriedCount(transaction);
+                    break;
+                case PARTICIPANT:
+                    result = doAppendParticipant(transaction, participant);
+                    break;
+                default:
+                    result = doUpdate(transaction);
+            }
+
             if (result > 0) {
-                putToCache(transaction);
+                refreshCache(transaction);
+                publishInvalidation(transaction, transaction.getVersion());
             } else {
                 throw new OptimisticLockException();
             }
@@ -65,6 +140,10 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         } finally {
             removeFromCache(transaction);
         }
+
+        if (result > 0) {
+            publishInvalidation(transaction, CacheInvalidation.DELETED);
+        }
         return result;
     }
 
@@ -85,43 +164,421 @@ public abstract class CachableTransactionRepository implements TransactionReposi
 
     @Override
     public List<Transaction> findAllUnmodifiedSince(Date date) {
+        return cacheRecovered(doFindAllUnmodifiedSince(date));
+    }
 
-        List<Transaction> transactions = doFindAllUnmodifiedSince(date);
+    @Override
+    public List<Transaction> findAllDueForRetry(Date date) {
+        return cacheRecovered(doFindAllDueForRetry(date));
+    }
 
-        for (Transaction transaction : transactions) {
-            putToCache(transaction);
+    @Override
+    public void findAllDueForRetry(Date date, int batchSize, final TransactionBatchHandler handler) {
+        doFindAllDueForRetry(date, Math.max(1, batchSize), new TransactionBatchHandler() {
+            @Override
+            public boolean handle(List<Transaction> transactions) {
+                return handler.handle(cacheRecovered(transactions));
+            }
+        });
+    }
+
+    /**
+     * Like {@link #findAllDueForRetry(Date, int, TransactionBatchHandler)}, for the recover buckets only, see
+     * {@link org.mengyun.tcctransaction.recover.RecoverLeaseRepository}.
+     */
+    public void findAllDueForRetry(Date date, int batchSize, int bucketCount, Set<Integer> buckets, final TransactionBatchHandler handler) {
+        doFindAllDueForRetry(date, Math.max(1, batchSize), bucketCount, buckets, new TransactionBatchHandler() {
+            @Override
+            public boolean handle(List<Transaction> transactions) {
+                return handler.handle(cacheRecovered(transactions));
+            }
+        });
+    }
+
+    private List<Transaction> cacheRecovered(List<Transaction> transactions) {
+
+        switch (recoveryCacheMode) {
+            case SHARED:
+                for (Transaction transaction : transactions) {
+                    putToCache(transaction);
+                }
+                break;
+            case SEGMENT:
+                TransactionCache recoveryCache = getRecoveryTransactionCache();
+                for (Transaction transaction : transactions) {
+                    if (!getTransactionCache().contains(transaction.getXid())) {
+                        recoveryCache.put(transaction);
+                    }
+                }
+                break;
+            default:
+                break;
         }
 
         return transactions;
     }
 
-    public CachableTransactionRepository() {
-        transactionXidCompensableTransactionCache = CacheBuilder.newBuilder().expireAfterAccess(expireDuration, TimeUnit.SECONDS).maximumSize(1000).build();
+    protected void putToCache(Transaction transaction) {
+        getTransactionCache().put(transaction);
     }
 
-    protected void putToCache(Transaction transaction) {
-        transactionXidCompensableTransactionCache.put(transaction.getXid(), transaction);
+    /**
+     * Refreshes the entry of an updated transaction. Unless recovery loads share the cache, a transaction that is not
+     * cached yet is not added, so updates made by the recovery job leave the in-flight transactions in place.
+     */
+    protected void refreshCache(Transaction transaction) {
+
+        if (recoveryCacheMode == RecoveryCacheMode.SHARED || getTransactionCache().contains(transaction.getXid())) {
+            putToCache(transaction);
+        } else if (recoveryCacheMode == RecoveryCacheMode.SEGMENT && getRecoveryTransactionCache().contains(transaction.getXid())) {
+            getRecoveryTransactionCache().put(transaction);
+        }
     }
 
     protected void removeFromCache(Transaction transaction) {
-        transactionXidCompensableTransactionCache.invalidate(transaction.getXid());
+        invalidateCache(transaction.getXid());
+    }
+
+    private void invalidateCache(Xid xid) {
+        getTransactionCache().invalidate(xid);
+
+        if (recoveryTransactionCache != null) {
+            recoveryTransactionCache.invalidate(xid);
+        }
+    }
+
+    /**
+     * Drops the cached copies older than the version a peer reported, a message arriving late leaves a newer copy
+     * in place.
+     */
+    private void invalidateCache(Xid xid, long version) {
+        invalidateIfOlder(getTransactionCache(), xid, version);
+
+        if (recoveryTransactionCache != null) {
+            invalidateIfOlder(recoveryTransactionCache, xid, version);
+        }
+    }
+
+    private void invalidateIfOlder(TransactionCache cache, Xid xid, long version) {
+
+        if (version == CacheInvalidation.DELETED) {
+            cache.invalidate(xid);
+            return;
+        }
+
+        Transaction cached = cache.peek(xid);
+
+        if (cached != null && cached.getVersion() < version) {
+            cache.invalidate(xid);
+        }
+    }
+
+    private void publishInvalidation(Transaction transaction, long version) {
+
+        CacheInvalidationChannel channel = cacheInvalidationChannel;
+
+        if (channel != null) {
+            channel.publish(new CacheInvalidation(nodeId, (TransactionXid) transaction.getXid(), version));
+        }
     }
 
     protected Transaction findFromCache(TransactionXid transactionXid) {
-        return transactionXidCompensableTransactionCache.getIfPresent(transactionXid);
+
+        Transaction transaction = getTransactionCache().get(transactionXid);
+
+        if (transaction == null && recoveryTransactionCache != null) {
+            transaction = recoveryTransactionCache.get(transactionXid);
+        }
+
+        return transaction;
+    }
+
+    /**
+     * The cache is built on first use, so the settings below take effect whenever they are applied before that.
+     * Changing a setting afterwards drops the current cache and builds a new one.
+     */
+    protected TransactionCache getTransactionCache() {
+
+        TransactionCache cache = transactionCache;
+
+        if (cache == null) {
+            synchronized (cacheSpec) {
+                cache = transactionCache;
+                if (cache == null) {
+                    cache = cacheSpec.build();
+                    transactionCache = cache;
+                }
+            }
+        }
+
+        return cache;
+    }
+
+    protected TransactionCache getRecoveryTransactionCache() {
+
+        TransactionCache cache = recoveryTransactionCache;
+
+        if (cache == null) {
+            synchronized (cacheSpec) {
+                cache = recoveryTransactionCache;
+                if (cache == null) {
+                    TransactionCacheSpec recoveryCacheSpec = new TransactionCacheSpec();
+                    recoveryCacheSpec.setEnabled(cacheSpec.isEnabled());
+                    recoveryCacheSpec.setEngine(cacheSpec.getEngine());
+                    recoveryCacheSpec.setMaximumSize(recoveryCacheMaximumSize);
+                    recoveryCacheSpec.setExpireDuration(cacheSpec.getExpireDuration());
+                    recoveryCacheSpec.setExpireAfterAccess(false);
+                    cache = recoveryCacheSpec.build();
+                    recoveryTransactionCache = cache;
+                }
+            }
+        }
+
+        return cache;
+    }
+
+    public TransactionCacheStats getCacheStats() {
+        return getTransactionCache().stats();
+    }
+
+    /**
+     * The serializer of the transaction content, null for repositories not storing serialized content.
+     */
+    public ObjectSerializer getSerializer() {
+        return null;
+    }
+
+    /**
+     * Compression ratio and time when the serializer is a {@link CompressingSerializer}, null otherwise.
+     */
+    public CompressionStats getCompressionStats() {
+        ObjectSerializer serializer = getSerializer();
+        return serializer instanceof CompressingSerializer ? ((CompressingSerializer) serializer).getStats() : null;
+    }
+
+    /**
+     * Time spent deserializing the transactions read by scans of the whole repository, reads by xid excluded.
+     */
+    public long getScanDeserializeNanos() {
+        return scanDeserializeNanos.get();
+    }
+
+    protected void recordScanDeserialization(long nanos) {
+        scanDeserializeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * How long a transaction not updated is left alone before the recovery takes it over, the earliest next retry
+     * time written along with the transaction.
+     */
+    public void setRecoverDuration(int recoverDuration) {
+        this.recoverDuration = recoverDuration;
+    }
+
+    public int getRecoverDuration() {
+        return recoverDuration;
+    }
+
+    /**
+     * The next retry time to store for the transaction: the one set by the recovery, but no earlier than
+     * recoverDuration after its last update so an in-flight transaction is not recovered.
+     */
+    protected Date getNextRetryTime(Transaction transaction) {
+
+        long nextRetryTime = transaction.getLastUpdateTime().getTime() + recoverDuration * 1000L;
+
+        if (transaction.getNextRetryTime() != null && transaction.getNextRetryTime().getTime() > nextRetryTime) {
+            return transaction.getNextRetryTime();
+        }
+
+        return new Date(nextRetryTime);
     }
 
     public void setExpireDuration(int durationInSeconds) {
-        this.expireDuration = durationInSeconds;
+        synchronized (cacheSpec) {
+            cacheSpec.setExpireDuration(durationInSeconds);
+            transactionCache = null;
+            recoveryTransactionCache = null;
+        }
+    }
+
+    public void setExpireAfterAccess(boolean expireAfterAccess) {
+        synchronized (cacheSpec) {
+            cacheSpec.setExpireAfterAccess(expireAfterAccess);
+            transactionCache = null;
+            recoveryTransactionCache = null;
+        }
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        synchronized (cacheSpec) {
+            cacheSpec.setEnabled(cacheEnabled);
+            transactionCache = null;
+            recoveryTransactionCache = null;
+        }
+    }
+
+    public void setCacheEngine(CacheEngine cacheEngine) {
+        synchronized (cacheSpec) {
+            cacheSpec.setEngine(cacheEngine);
+            transactionCache = null;
+            recoveryTransactionCache = null;
+        }
+    }
+
+    public void setCacheMaximumSize(long cacheMaximumSize) {
+        synchronized (cacheSpec) {
+            cacheSpec.setMaximumSize(cacheMaximumSize);
+            transactionCache = null;
+            recoveryTransactionCache = null;
+        }
+    }
+
+    /**
+     * Peers sharing the channel drop their cached copy of a transaction this repository updated or deleted,
+     * instead of finding out through an OptimisticLockException on their next update.
+     */
+    public synchronized void setCacheInvalidationChannel(CacheInvalidationChannel cacheInvalidationChannel) {
+
+        if (this.cacheInvalidationChannel != null) {
+            this.cacheInvalidationChannel.unsubscribe(cacheInvalidationListener);
+        }
+
+        this.cacheInvalidationChannel = cacheInvalidationChannel;
+
+        if (cacheInvalidationChannel != null) {
+            cacheInvalidationChannel.subscribe(cacheInvalidationListener);
+        }
+    }
+
+    public void setRecoveryCacheMode(RecoveryCacheMode recoveryCacheMode) {
+        synchronized (cacheSpec) {
+            this.recoveryCacheMode = recoveryCacheMode;
+            recoveryTransactionCache = null;
+        }
+    }
+
+    public void setRecoveryCacheMaximumSize(long recoveryCacheMaximumSize) {
+        synchronized (cacheSpec) {
+            this.recoveryCacheMaximumSize = recoveryCacheMaximumSize;
+            recoveryTransactionCache = null;
+        }
+    }
+
+    public void setCacheMaximumWeight(long cacheMaximumWeight) {
+        synchronized (cacheSpec) {
+            cacheSpec.setMaximumWeight(cacheMaximumWeight);
+            transactionCache = null;
+            recoveryTransactionCache = null;
+        }
     }
 
     protected abstract int doCreate(Transaction transaction);
 
     protected abstract int doUpdate(Transaction transaction);
 
+    /**
+     * Writes the status and the retried count, along with the version and last update time. Rewrites the whole
+     * transaction unless overridden.
+     */
+    protected int doUpdateStatus(Transaction transaction) {
+        return doUpdate(transaction);
+    }
+
+    /**
+     * Writes the retried count, along with the version and last update time. Rewrites the whole transaction
+     * unless overridden.
+     */
+    protected int doUpdateRetriedCount(Transaction transaction) {
+        return doUpdate(transaction);
+    }
+
+    protected int doUpdateNextRetryTime(Transaction transaction) {
+        return 0;
+    }
+
+    protected int doAppendParticipant(Transaction transaction, Participant participant) {
+        return doUpdate(transaction);
+    }
+
     protected abstract int doDelete(Transaction transaction);
 
     protected abstract Transaction doFindOne(Xid xid);
 
     protected abstract List<Transaction> doFindAllUnmodifiedSince(Date date);
+
+    /**
+     * Filters the transactions not updated for recoverDuration on their next retry time, for the repositories
+     * without an index on it.
+     */
+    protected List<Transaction> doFindAllDueForRetry(Date date) {
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (Transaction transaction : doFindAllUnmodifiedSince(new Date(date.getTime() - recoverDuration * 1000L))) {
+            if (isDueForRetry(transaction, date)) {
+                transactions.add(transaction);
+            }
+        }
+
+        return transactions;
+    }
+
+    /**
+     * Splits the transactions of {@link #doFindAllDueForRetry(Date)} into batches, for the repositories holding them
+     * in memory anyway.
+     */
+    protected void doFindAllDueForRetry(Date date, int batchSize, TransactionBatchHandler handler) {
+
+        List<Transaction> transactions = doFindAllDueForRetry(date);
+
+        for (int fromIndex = 0; fromIndex < transactions.size(); fromIndex += batchSize) {
+            if (!handler.handle(new ArrayList<Transaction>(transactions.subList(fromIndex, Math.min(fromIndex + batchSize, transactions.size()))))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Leaves the buckets out where the store allows it, the whole scan by default.
+     */
+    protected void doFindAllDueForRetry(Date date, int batchSize, int bucketCount, Set<Integer> buckets, TransactionBatchHandler handler) {
+        doFindAllDueForRetry(date, batchSize, handler);
+    }
+
+    protected boolean isDueForRetry(Transaction transaction, Date date) {
+        return transaction.getLastUpdateTime().getTime() < date.getTime() - recoverDuration * 1000L
+                && (transaction.getNextRetryTime() == null || transaction.getNextRetryTime().before(date));
+    }
+
+    /**
+     * Adds a transaction read by a scan to the batch if it is due, and hands the batch over once full. Returns false
+     * once the handler stopped the scan.
+     */
+    protected boolean addIfDueForRetry(List<Transaction> batch, Transaction transaction, Date date, int batchSize, TransactionBatchHandler handler) {
+
+        if (transaction != null && isDueForRetry(transaction, date)) {
+            batch.add(transaction);
+        }
+
+        return batch.size() < batchSize || flush(batch, handler);
+    }
+
+    /**
+     * Hands the remaining transactions of a scan over.
+     */
+    protected boolean flush(List<Transaction> batch, TransactionBatchHandler handler) {
+
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        List<Transaction> transactions = new ArrayList<Transaction>(batch);
+        batch.clear();
+        return handler.handle(transactions);
+    }
+
+    private enum UpdateType {
+        ALL, STATUS, RETRIED_COUNT, PARTICIPANT
+    }
 }
@@ -2,6 +2,7 @@ package org.mengyun.tcctransaction.repository;
 
 import org.mengyun.tcctransaction.ConcurrentTransactionException;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionBatchHandler;
 import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
@@ -26,6 +27,11 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
 
     private ObjectSerializer serializer = new KryoPoolSerializer();
 
+    @Override
+    public ObjectSerializer getSerializer() {
+        return serializer;
+    }
+
     public void setSerializer(ObjectSerializer serializer) {
         this.serializer = serializer;
     }
@@ -67,7 +73,7 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         File file = new File(fullFileName);
 
         if (file.exists()) {
-            return readTransaction(file);
+            return readTransaction(file, false);
         }
 
         return null;
@@ -90,6 +96,35 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
     }
 
 
+    /**
+     * Reads the files one by one, only their names are held for the whole scan.
+     */
+    @Override
+    protected void doFindAllDueForRetry(Date date, int batchSize, TransactionBatchHandler handler) {
+
+        String[] fileNames = new File(rootPath).list();
+
+        if (fileNames == null) {
+            return;
+        }
+
+        List<Transaction> batch = new ArrayList<Transaction>(batchSize);
+
+        for (String fileName : fileNames) {
+
+            File file = new File(rootPath, fileName);
+
+            // deleted since the directory was listed
+            Transaction transaction = file.exists() ? readTransaction(file, true) : null;
+
+            if (!addIfDueForRetry(batch, transaction, date, batchSize, handler)) {
+                return;
+            }
+        }
+
+        flush(batch, handler);
+    }
+
     protected List<Transaction> doFindAll() {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
@@ -97,7 +132,7 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         File[] files = path.listFiles();
 
         for (File file : files) {
-            Transaction transaction = readTransaction(file);
+            Transaction transaction = readTransaction(file, true);
             transactions.add(transaction);
         }
 
@@ -219,7 +254,7 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         }
     }
 
-    private Transaction readTransaction(File file) {
+    private Transaction readTransaction(File file, boolean lazily) {
 
         FileInputStream fis = null;
         try {
@@ -230,7 +265,16 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
             fis.read(content);
 
             if (content != null) {
-                return TransactionSerializer.deserialize(serializer, content);
+
+                if (!lazily) {
+                    return TransactionSerializer.deserialize(serializer, content);
+                }
+
+                // read lazily by the scans only
+                long startTime = System.nanoTime();
+                Transaction transaction = TransactionSerializer.deserializeLazily(serializer, content);
+                recordScanDeserialization(System.nanoTime() - startTime);
+                return transaction;
             }
         } catch (Exception e) {
             throw new TransactionIOException(e);
@@ -0,0 +1,511 @@
+package org.mengyun.tcctransaction.repository;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.recover.DeadLetterRepository;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import javax.transaction.xa.Xid;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the transactions in the heap, they are lost when the process stops unless a snapshot file is set, and even
+ * then the changes since the last snapshot are lost. Suitable for tests, benchmarks and flows where the participants
+ * are idempotent and a lost transaction is acceptable, not for flows that need the recovery job to finish them.
+ * <p/>
+ * Transactions are stored serialized, so a transaction read from the repository is a copy and the version check of
+ * an update works as with the other repositories. Writes of the same transaction are serialized by a lock striped on
+ * its xid, reads take no lock. The cache is disabled by default, as a read costs a deserialization only.
+ * <p/>
+ * The dead letters are kept in a separate map, they are not written to the snapshot.
+ */
+public class InMemoryTransactionRepository extends CachableTransactionRepository implements DeadLetterRepository {
+
+    static final Logger logger = Logger.getLogger(InMemoryTransactionRepository.class.getSimpleName());
+
+    private static final int SNAPSHOT_MAGIC_V1 = 0x54434331;
+
+    private static final int SNAPSHOT_MAGIC = 0x54434332;
+
+    private final ConcurrentMap<Xid, Entry> entries = new ConcurrentHashMap<Xid, Entry>();
+
+    private final ConcurrentSkipListSet<Entry> lastUpdateTimeIndex = new ConcurrentSkipListSet<Entry>();
+
+    private final ConcurrentMap<Xid, Entry> deadLetters = new ConcurrentHashMap<Xid, Entry>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Object[] locks;
+
+    private ObjectSerializer serializer = new KryoPoolSerializer();
+
+    private String snapshotFile;
+
+    private int snapshotIntervalInSeconds = 60;
+
+    private volatile boolean initialized;
+
+    private ScheduledExecutorService snapshotExecutor;
+
+    public InMemoryTransactionRepository() {
+        this(64);
+    }
+
+    public InMemoryTransactionRepository(int concurrencyLevel) {
+        locks = new Object[concurrencyLevel];
+        for (int i = 0; i < concurrencyLevel; i++) {
+            locks[i] = new Object();
+        }
+        setCacheEnabled(false);
+    }
+
+    @Override
+    public ObjectSerializer getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * The file the transactions are written to every snapshotIntervalInSeconds and read back from on first use.
+     */
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    public void setSnapshotIntervalInSeconds(int snapshotIntervalInSeconds) {
+        this.snapshotIntervalInSeconds = snapshotIntervalInSeconds;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    protected int doCreate(Transaction transaction) {
+
+        initIfNecessary();
+
+        Xid xid = transaction.getXid();
+
+        synchronized (lockOf(xid)) {
+
+            if (entries.containsKey(xid)) {
+                return 0;
+            }
+
+            put(new Entry(((TransactionXid) xid).clone(), serializer.serialize(transaction), transaction.getStatus().getId(),
+                    transaction.getRetriedCount(), transaction.getVersion(), transaction.getLastUpdateTime().getTime(),
+                    getNextRetryTime(transaction).getTime(), sequence.incrementAndGet()));
+            return 1;
+        }
+    }
+
+    @Override
+    protected int doUpdate(Transaction transaction) {
+        return doUpdate(transaction, false);
+    }
+
+    @Override
+    protected int doUpdateStatus(Transaction transaction) {
+        return doUpdate(transaction, true);
+    }
+
+    @Override
+    protected int doUpdateRetriedCount(Transaction transaction) {
+        return doUpdate(transaction, true);
+    }
+
+    /**
+     * With stateOnly, the stored content is kept and only the status, retried count, version and last update time
+     * are replaced.
+     */
+    private int doUpdate(Transaction transaction, boolean stateOnly) {
+
+        initIfNecessary();
+
+        Xid xid = transaction.getXid();
+
+        synchronized (lockOf(xid)) {
+
+            Entry current = entries.get(xid);
+
+            if (current == null || current.version != transaction.getVersion()) {
+                return 0;
+            }
+
+            transaction.updateTime();
+            transaction.updateVersion();
+
+            byte[] content = stateOnly ? current.content : serializer.serialize(transaction);
+
+            put(new Entry(current.xid, content, transaction.getStatus().getId(), transaction.getRetriedCount(),
+                    transaction.getVersion(), transaction.getLastUpdateTime().getTime(), getNextRetryTime(transaction).getTime(),
+                    sequence.incrementAndGet()));
+            return 1;
+        }
+    }
+
+    @Override
+    protected int doUpdateNextRetryTime(Transaction transaction) {
+
+        initIfNecessary();
+
+        Xid xid = transaction.getXid();
+
+        synchronized (lockOf(xid)) {
+
+            Entry current = entries.get(xid);
+
+            if (current == null || current.version != transaction.getVersion()) {
+                return 0;
+            }
+
+            put(new Entry(current.xid, current.content, current.status, current.retriedCount, current.version,
+                    current.lastUpdateTime, transaction.getNextRetryTime().getTime(), sequence.incrementAndGet()));
+            return 1;
+        }
+    }
+
+    @Override
+    protected int doDelete(Transaction transaction) {
+
+        initIfNecessary();
+
+        Xid xid = transaction.getXid();
+
+        synchronized (lockOf(xid)) {
+
+            Entry removed = entries.remove(xid);
+
+            if (removed == null) {
+                return 0;
+            }
+
+            lastUpdateTimeIndex.remove(removed);
+            return 1;
+        }
+    }
+
+    @Override
+    protected Transaction doFindOne(Xid xid) {
+
+        initIfNecessary();
+
+        Entry entry = entries.get(xid);
+        return entry != null ? toTransaction(entry) : null;
+    }
+
+    @Override
+    protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+
+        initIfNecessary();
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (Entry entry : lastUpdateTimeIndex.headSet(new Entry(null, null, 0, 0, 0, date.getTime(), 0, Long.MIN_VALUE))) {
+            if (entries.get(entry.xid) == entry) {
+                long startTime = System.nanoTime();
+                transactions.add(toTransaction(entry));
+                recordScanDeserialization(System.nanoTime() - startTime);
+            }
+        }
+
+        return transactions;
+    }
+
+    @Override
+    public int moveToDeadLetter(Transaction transaction) {
+
+        initIfNecessary();
+
+        Xid xid = transaction.getXid();
+
+        synchronized (lockOf(xid)) {
+
+            Entry current = entries.get(xid);
+
+            if (current == null || current.version != transaction.getVersion()) {
+                return 0;
+            }
+
+            entries.remove(xid);
+            lastUpdateTimeIndex.remove(current);
+            deadLetters.put(xid, current);
+        }
+
+        removeFromCache(transaction);
+        return 1;
+    }
+
+    @Override
+    public List<Transaction> findAllDeadLetters() {
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (Entry entry : deadLetters.values()) {
+            transactions.add(toTransaction(entry));
+        }
+
+        return transactions;
+    }
+
+    @Override
+    public int requeue(TransactionXid xid) {
+
+        initIfNecessary();
+
+        synchronized (lockOf(xid)) {
+
+            Entry dead = deadLetters.get(xid);
+
+            if (dead == null || entries.containsKey(xid)) {
+                return 0;
+            }
+
+            deadLetters.remove(xid);
+            put(new Entry(dead.xid, dead.content, dead.status, 0, dead.version, dead.lastUpdateTime,
+                    System.currentTimeMillis(), sequence.incrementAndGet()));
+            return 1;
+        }
+    }
+
+    /**
+     * Writes all transactions to the snapshot file, through a temp file renamed on completion.
+     */
+    public synchronized void snapshot() {
+
+        if (snapshotFile == null) {
+            return;
+        }
+
+        File file = new File(snapshotFile);
+        File tempFile = new File(snapshotFile + ".tmp");
+
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+            List<Entry> snapshot = new ArrayList<Entry>(entries.values());
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(snapshot.size());
+
+            for (Entry entry : snapshot) {
+                writeBytes(out, entry.xid.getGlobalTransactionId());
+                writeBytes(out, entry.xid.getBranchQualifier());
+                out.writeInt(entry.status);
+                out.writeInt(entry.retriedCount);
+                out.writeLong(entry.version);
+                out.writeLong(entry.lastUpdateTime);
+                out.writeLong(entry.nextRetryTime);
+                writeBytes(out, entry.content);
+            }
+
+            out.close();
+            out = null;
+
+            if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+                throw new TransactionIOException("cannot rename snapshot file " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    logger.warn("close snapshot file failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic snapshot and writes a last one.
+     */
+    public synchronized void close() {
+
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            snapshotExecutor = null;
+        }
+
+        snapshot();
+    }
+
+    private void put(Entry entry) {
+
+        Entry previous = entries.put(entry.xid, entry);
+
+        lastUpdateTimeIndex.add(entry);
+
+        if (previous != null) {
+            lastUpdateTimeIndex.remove(previous);
+        }
+    }
+
+    private Transaction toTransaction(Entry entry) {
+        Transaction transaction = (Transaction) serializer.deserialize(entry.content);
+        transaction.changeStatus(TransactionStatus.valueOf(entry.status));
+        transaction.resetRetriedCount(entry.retriedCount);
+        transaction.setVersion(entry.version);
+        transaction.setLastUpdateTime(new Date(entry.lastUpdateTime));
+        transaction.setNextRetryTime(new Date(entry.nextRetryTime));
+        return transaction;
+    }
+
+    private Object lockOf(Xid xid) {
+        return locks[(xid.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+
+    private void initIfNecessary() {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    if (snapshotFile != null) {
+                        loadSnapshot();
+                        startSnapshotExecutor();
+                    }
+                    initialized = true;
+                }
+            }
+        }
+    }
+
+    private void loadSnapshot() {
+
+        File file = new File(snapshotFile);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            int magic = in.readInt();
+
+            if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1) {
+                throw new TransactionIOException("not a transaction snapshot file:" + snapshotFile);
+            }
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                TransactionXid xid = new TransactionXid(readBytes(in), readBytes(in));
+                int status = in.readInt();
+                int retriedCount = in.readInt();
+                long version = in.readLong();
+                long lastUpdateTime = in.readLong();
+                long nextRetryTime = magic == SNAPSHOT_MAGIC ? in.readLong() : lastUpdateTime + getRecoverDuration() * 1000L;
+                put(new Entry(xid, readBytes(in), status, retriedCount, version, lastUpdateTime, nextRetryTime, sequence.incrementAndGet()));
+            }
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    logger.warn("close snapshot file failed", e);
+                }
+            }
+        }
+    }
+
+    private void startSnapshotExecutor() {
+
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "tcc-transaction-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot();
+                } catch (Throwable e) {
+                    logger.error("write transaction snapshot failed", e);
+                }
+            }
+        }, snapshotIntervalInSeconds, snapshotIntervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * A stored transaction, replaced as a whole on every write. Ordered by last update time for the recovery scan.
+     */
+    private static class Entry implements Comparable<Entry> {
+
+        private final TransactionXid xid;
+
+        private final byte[] content;
+
+        private final int status;
+
+        private final int retriedCount;
+
+        private final long version;
+
+        private final long lastUpdateTime;
+
+        private final long nextRetryTime;
+
+        private final long sequence;
+
+        Entry(TransactionXid xid, byte[] content, int status, int retriedCount, long version, long lastUpdateTime,
+              long nextRetryTime, long sequence) {
+            this.xid = xid;
+            this.content = content;
+            this.status = status;
+            this.retriedCount = retriedCount;
+            this.version = version;
+            this.lastUpdateTime = lastUpdateTime;
+            this.nextRetryTime = nextRetryTime;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (lastUpdateTime != other.lastUpdateTime) {
+                return lastUpdateTime < other.lastUpdateTime ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
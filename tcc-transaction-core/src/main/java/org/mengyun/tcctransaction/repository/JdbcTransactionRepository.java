@@ -1,8 +1,16 @@
 package org.mengyun.tcctransaction.repository;
 
 
+import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionBatchHandler;
 import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.recover.DeadLetterRepository;
+import org.mengyun.tcctransaction.recover.RecoverLeaseRepository;
+import org.mengyun.tcctransaction.recover.RecoverPartitioner;
+import org.mengyun.tcctransaction.repository.dialect.Dialect;
+import org.mengyun.tcctransaction.repository.dialect.TransactionStatements;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.utils.CollectionUtils;
@@ -14,11 +22,22 @@ import java.sql.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by changmingxie on 10/30/15.
+ * <p/>
+ * The recover leases are rows of the TCC_RECOVER_LEASE table, with the same suffix as the transaction table, only
+ * needed when the recovery is split between the nodes. The dead letters are moved to the TCC_DEAD_TRANSACTION table,
+ * with the same suffix and the columns of the transaction table.
  */
-public class JdbcTransactionRepository extends CachableTransactionRepository {
+public class JdbcTransactionRepository extends CachableTransactionRepository implements RecoverLeaseRepository, DeadLetterRepository {
+
+    static final Logger logger = Logger.getLogger(JdbcTransactionRepository.class.getSimpleName());
+
+    private static final String NODE_LEASE_PREFIX = "NODE:";
+
+    private static final String BUCKET_LEASE_PREFIX = "BUCKET:";
 
     private String domain;
 
@@ -28,12 +47,21 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     private ObjectSerializer serializer = new KryoPoolSerializer();
 
+    private Dialect dialect;
+
+    private Boolean nextRetryTimeColumn;
+
+    private Boolean xidHashColumn;
+
+    private volatile TransactionStatements statements;
+
     public String getDomain() {
         return domain;
     }
 
     public void setDomain(String domain) {
         this.domain = domain;
+        this.statements = null;
     }
 
     public String getTbSuffix() {
@@ -42,6 +70,50 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     public void setTbSuffix(String tbSuffix) {
         this.tbSuffix = tbSuffix;
+        this.statements = null;
+    }
+
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Sets the sql dialect, if not set the dialect is detected from the database product name on first use.
+     */
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+        this.statements = null;
+    }
+
+    public Boolean getNextRetryTimeColumn() {
+        return nextRetryTimeColumn;
+    }
+
+    /**
+     * Whether the table has the NEXT_RETRY_TIME column, detected from the table on first use if not set. Without it the
+     * transactions are recovered on their last update time only, so nodes can be upgraded before the table migrated.
+     */
+    public void setNextRetryTimeColumn(Boolean nextRetryTimeColumn) {
+        this.nextRetryTimeColumn = nextRetryTimeColumn;
+        this.statements = null;
+    }
+
+    public Boolean getXidHashColumn() {
+        return xidHashColumn;
+    }
+
+    /**
+     * Whether the table has the XID_HASH column, detected from the table on first use if not set. With it the
+     * recovery scan of a node only reads the rows of the recover buckets it holds.
+     */
+    public void setXidHashColumn(Boolean xidHashColumn) {
+        this.xidHashColumn = xidHashColumn;
+        this.statements = null;
+    }
+
+    @Override
+    public ObjectSerializer getSerializer() {
+        return serializer;
     }
 
     public void setSerializer(ObjectSerializer serializer) {
@@ -60,16 +132,13 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
         Connection connection = null;
         PreparedStatement stmt = null;
+        TransactionStatements sql = null;
 
         try {
             connection = this.getConnection();
+            sql = getStatements(connection);
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("INSERT INTO " + getTableName() +
-                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN ) VALUES (?,?,?,?,?,?,?,?,?,?)" : ") VALUES (?,?,?,?,?,?,?,?,?)");
-
-            stmt = connection.prepareStatement(builder.toString());
+            stmt = connection.prepareStatement(sql.getInsertSql());
 
             stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
             stmt.setBytes(2, transaction.getXid().getBranchQualifier());
@@ -81,14 +150,23 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             stmt.setTimestamp(8, new java.sql.Timestamp(transaction.getLastUpdateTime().getTime()));
             stmt.setLong(9, transaction.getVersion());
 
+            int i = 9;
+
+            if (sql.hasNextRetryTime()) {
+                stmt.setTimestamp(++i, new java.sql.Timestamp(getNextRetryTime(transaction).getTime()));
+            }
+
+            if (sql.hasXidHash()) {
+                stmt.setInt(++i, RecoverPartitioner.hashOf(transaction.getXid()));
+            }
+
             if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(10, domain);
+                stmt.setString(++i, domain);
             }
 
-            stmt.executeUpdate();
-            return 1;
+            return stmt.executeUpdate() > 0 ? 1 : 0;
         } catch (SQLException e) {
-            if (e instanceof SQLIntegrityConstraintViolationException) {
+            if (sql != null && sql.getDialect().isDuplicateKeyException(e)) {
                 return 0;
             } else {
                 throw new TransactionIOException(e);
@@ -102,8 +180,6 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
     }
 
     protected int doUpdate(Transaction transaction) {
-        Connection connection = null;
-        PreparedStatement stmt = null;
 
         java.util.Date lastUpdateTime = transaction.getLastUpdateTime();
         long currentVersion = transaction.getVersion();
@@ -112,33 +188,105 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         transaction.updateVersion();
 
         try {
-            connection = this.getConnection();
-
-            StringBuilder builder = new StringBuilder();
-            builder.append("UPDATE " + getTableName() + " SET " +
-                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
+            return doUpdate(transaction, currentVersion);
+        } catch (TransactionIOException e) {
+            transaction.setLastUpdateTime(lastUpdateTime);
+            transaction.setVersion(currentVersion);
+            throw e;
+        }
+    }
 
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+    /**
+     * Writes the transaction as it is, provided the stored version still equals {@code expectedVersion}.
+     */
+    protected int doUpdate(Transaction transaction, long expectedVersion) {
+        Connection connection = null;
+        PreparedStatement stmt = null;
 
-            stmt = connection.prepareStatement(builder.toString());
+        try {
+            connection = this.getConnection();
+            TransactionStatements sql = getStatements(connection);
 
-            stmt.setBytes(1, serializer.serialize(transaction));
-            stmt.setInt(2, transaction.getStatus().getId());
-            stmt.setTimestamp(3, new Timestamp(transaction.getLastUpdateTime().getTime()));
+            stmt = connection.prepareStatement(sql.getUpdateSql());
 
-            stmt.setInt(4, transaction.getRetriedCount());
-            stmt.setBytes(5, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(6, transaction.getXid().getBranchQualifier());
-            stmt.setLong(7, currentVersion);
+            int i = 0;
+            stmt.setBytes(++i, serializer.serialize(transaction));
+            stmt.setInt(++i, transaction.getStatus().getId());
+            stmt.setTimestamp(++i, new Timestamp(transaction.getLastUpdateTime().getTime()));
+
+            stmt.setInt(++i, transaction.getRetriedCount());
+            stmt.setLong(++i, transaction.getVersion());
+            if (sql.hasNextRetryTime()) {
+                stmt.setTimestamp(++i, new Timestamp(getNextRetryTime(transaction).getTime()));
+            }
+            stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+            stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
+            stmt.setLong(++i, expectedVersion);
 
             if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(8, domain);
+                stmt.setString(++i, domain);
             }
 
             int result = stmt.executeUpdate();
 
             return result;
 
+        } catch (Throwable e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    protected int doUpdateStatus(Transaction transaction) {
+        return doUpdateState(transaction);
+    }
+
+    @Override
+    protected int doUpdateRetriedCount(Transaction transaction) {
+        return doUpdateState(transaction);
+    }
+
+    /**
+     * Writes the STATUS and RETRIED_COUNT columns only, CONTENT is neither serialized nor written.
+     */
+    protected int doUpdateState(Transaction transaction) {
+
+        java.util.Date lastUpdateTime = transaction.getLastUpdateTime();
+        long currentVersion = transaction.getVersion();
+
+        transaction.updateTime();
+        transaction.updateVersion();
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+            TransactionStatements sql = getStatements(connection);
+
+            stmt = connection.prepareStatement(sql.getUpdateStateSql());
+
+            int i = 0;
+            stmt.setInt(++i, transaction.getStatus().getId());
+            stmt.setTimestamp(++i, new Timestamp(transaction.getLastUpdateTime().getTime()));
+            stmt.setInt(++i, transaction.getRetriedCount());
+            stmt.setLong(++i, transaction.getVersion());
+            if (sql.hasNextRetryTime()) {
+                stmt.setTimestamp(++i, new Timestamp(getNextRetryTime(transaction).getTime()));
+            }
+            stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+            stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
+            stmt.setLong(++i, currentVersion);
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(++i, domain);
+            }
+
+            return stmt.executeUpdate();
+
         } catch (Throwable e) {
             transaction.setLastUpdateTime(lastUpdateTime);
             transaction.setVersion(currentVersion);
@@ -149,20 +297,53 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         }
     }
 
-    protected int doDelete(Transaction transaction) {
+    /**
+     * Only with the NEXT_RETRY_TIME column, without it the transactions are due on their last update time anyway.
+     */
+    @Override
+    protected int doUpdateNextRetryTime(Transaction transaction) {
+
         Connection connection = null;
         PreparedStatement stmt = null;
 
         try {
             connection = this.getConnection();
+            TransactionStatements sql = getStatements(connection);
+
+            if (!sql.hasNextRetryTime()) {
+                return 0;
+            }
+
+            stmt = connection.prepareStatement(sql.getUpdateNextRetryTimeSql());
+
+            int i = 0;
+            stmt.setTimestamp(++i, new Timestamp(transaction.getNextRetryTime().getTime()));
+            stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+            stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
+            stmt.setLong(++i, transaction.getVersion());
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(++i, domain);
+            }
+
+            return stmt.executeUpdate();
+
+        } catch (Throwable e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("DELETE FROM " + getTableName() +
-                    " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
+    protected int doDelete(Transaction transaction) {
+        Connection connection = null;
+        PreparedStatement stmt = null;
 
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+        try {
+            connection = this.getConnection();
 
-            stmt = connection.prepareStatement(builder.toString());
+            stmt = connection.prepareStatement(getStatements(connection).getDeleteSql());
 
             stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
             stmt.setBytes(2, transaction.getXid().getBranchQualifier());
@@ -193,6 +374,121 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     @Override
     protected List<Transaction> doFindAllUnmodifiedSince(java.util.Date date) {
+        return doFindAllBefore(date, false);
+    }
+
+    @Override
+    protected List<Transaction> doFindAllDueForRetry(java.util.Date date) {
+        return doFindAllBefore(date, true);
+    }
+
+    /**
+     * Reads the transactions due one page at a time, each page starting after the row the previous one ended at, so
+     * no connection is held while the handler runs and no page re-reads the rows already handled. The transactions
+     * without a next retry time are read first, then the others in the order of their next retry time.
+     */
+    @Override
+    protected void doFindAllDueForRetry(java.util.Date date, int batchSize, TransactionBatchHandler handler) {
+        doFindAllDueForRetry(date, batchSize, 0, null, handler);
+    }
+
+    /**
+     * With the XID_HASH column the pages only hold the rows of the buckets, and those written without a hash.
+     */
+    @Override
+    protected void doFindAllDueForRetry(java.util.Date date, int batchSize, int bucketCount, Set<Integer> buckets, TransactionBatchHandler handler) {
+
+        DueForRetryCursor cursor = new DueForRetryCursor();
+
+        if (buckets != null && bucketCount > 0) {
+            cursor.bucketCount = bucketCount;
+            cursor.buckets = new ArrayList<Integer>(buckets);
+        }
+
+        while (true) {
+
+            List<Transaction> transactions = new ArrayList<Transaction>(batchSize);
+
+            boolean timed = doFindAllDueForRetry(date, cursor, batchSize, transactions);
+
+            if (!transactions.isEmpty() && !handler.handle(transactions)) {
+                return;
+            }
+
+            if (transactions.size() < batchSize) {
+                if (timed || !cursor.startTimed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the page following the cursor and moves it to the last row read. Returns whether the page was read on
+     * the next retry time.
+     */
+    private boolean doFindAllDueForRetry(java.util.Date date, DueForRetryCursor cursor, int batchSize, List<Transaction> transactions) {
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            TransactionStatements sql = getStatements(connection);
+
+            cursor.withNextRetryTime = sql.hasNextRetryTime();
+
+            int bucketCount = sql.hasXidHash() && cursor.buckets != null ? cursor.buckets.size() : 0;
+
+            int i = 0;
+
+            if (cursor.timed) {
+                stmt = connection.prepareStatement(sql.getSelectDueForRetryPageSql(batchSize, bucketCount));
+                stmt.setTimestamp(++i, new Timestamp(date.getTime()));
+                stmt.setTimestamp(++i, cursor.lastNextRetryTime);
+                stmt.setTimestamp(++i, cursor.lastNextRetryTime);
+            } else {
+                stmt = connection.prepareStatement(sql.getSelectUntimedDueForRetryPageSql(batchSize, bucketCount));
+                stmt.setTimestamp(++i, new Timestamp(date.getTime() - getRecoverDuration() * 1000L));
+            }
+
+            stmt.setLong(++i, cursor.lastId);
+
+            if (bucketCount > 0) {
+                stmt.setInt(++i, cursor.bucketCount);
+                for (Integer bucket : cursor.buckets) {
+                    stmt.setInt(++i, bucket);
+                }
+            }
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(++i, domain);
+            }
+
+            ResultSet resultSet = stmt.executeQuery();
+
+            while (resultSet.next()) {
+                long startTime = System.nanoTime();
+                transactions.add(constructTransaction(resultSet, sql));
+                recordScanDeserialization(System.nanoTime() - startTime);
+
+                if (cursor.timed) {
+                    cursor.lastNextRetryTime = resultSet.getTimestamp(10);
+                }
+                cursor.lastId = resultSet.getLong("TRANSACTION_ID");
+            }
+
+            return cursor.timed;
+        } catch (Throwable e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
+    private List<Transaction> doFindAllBefore(java.util.Date date, boolean onNextRetryTime) {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
 
@@ -202,25 +498,26 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         try {
             connection = this.getConnection();
 
-            StringBuilder builder = new StringBuilder();
+            TransactionStatements sql = getStatements(connection);
 
-            builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
-            builder.append("  FROM " + getTableName() + " WHERE LAST_UPDATE_TIME < ?");
-            builder.append(" AND IS_DELETE = 0 ");
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+            stmt = connection.prepareStatement(onNextRetryTime ? sql.getSelectDueForRetrySql() : sql.getSelectUnmodifiedSinceSql());
 
-            stmt = connection.prepareStatement(builder.toString());
+            int i;
 
-            stmt.setTimestamp(1, new Timestamp(date.getTime()));
+            if (onNextRetryTime) {
+                i = bindDueForRetry(stmt, sql, date);
+            } else {
+                stmt.setTimestamp(1, new Timestamp(date.getTime()));
+                i = 1;
+            }
 
             if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(2, domain);
+                stmt.setString(++i, domain);
             }
 
             ResultSet resultSet = stmt.executeQuery();
 
-            this.constructTransactions(resultSet, transactions);
+            this.constructTransactions(resultSet, sql, transactions);
         } catch (Throwable e) {
             throw new TransactionIOException(e);
         } finally {
@@ -231,6 +528,21 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return transactions;
     }
 
+    /**
+     * Binds the times of the due condition, returns the index of the last parameter bound.
+     */
+    private int bindDueForRetry(PreparedStatement stmt, TransactionStatements sql, java.util.Date date) throws SQLException {
+
+        int i = 0;
+
+        if (sql.hasNextRetryTime()) {
+            stmt.setTimestamp(++i, new Timestamp(date.getTime()));
+        }
+        stmt.setTimestamp(++i, new Timestamp(date.getTime() - getRecoverDuration() * 1000L));
+
+        return i;
+    }
+
     protected List<Transaction> doFind(List<Xid> xids) {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
@@ -240,27 +552,32 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         }
 
         Connection connection = null;
-        PreparedStatement stmt = null;
 
         try {
             connection = this.getConnection();
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
-            builder.append("  FROM " + getTableName() + " WHERE");
+            TransactionStatements sql = getStatements(connection);
 
-            if (!CollectionUtils.isEmpty(xids)) {
-                for (Xid xid : xids) {
-                    builder.append(" ( GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? ) OR");
-                }
+            int chunkSize = sql.getDialect().getMaxXidsPerQuery();
 
-                builder.delete(builder.length() - 2, builder.length());
+            for (int fromIndex = 0; fromIndex < xids.size(); fromIndex += chunkSize) {
+                doFind(connection, sql, xids.subList(fromIndex, Math.min(fromIndex + chunkSize, xids.size())), transactions);
             }
+        } catch (Throwable e) {
+            throw new TransactionIOException(e);
+        } finally {
+            this.releaseConnection(connection);
+        }
 
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+        return transactions;
+    }
 
-            stmt = connection.prepareStatement(builder.toString());
+    private void doFind(Connection connection, TransactionStatements sql, List<Xid> xids, List<Transaction> transactions) throws SQLException {
+
+        PreparedStatement stmt = null;
+
+        try {
+            stmt = connection.prepareStatement(sql.getSelectByXidsSql(xids.size()));
 
             int i = 0;
 
@@ -275,7 +592,229 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
             ResultSet resultSet = stmt.executeQuery();
 
-            this.constructTransactions(resultSet, transactions);
+            this.constructTransactions(resultSet, sql, transactions);
+        } finally {
+            closeStatement(stmt);
+        }
+    }
+
+    /**
+     * Reads the rows with the statements the query was built from, the columns read depend on them.
+     */
+    protected void constructTransactions(ResultSet resultSet, TransactionStatements sql, List<Transaction> transactions) throws SQLException {
+        while (resultSet.next()) {
+            transactions.add(constructTransaction(resultSet, sql));
+        }
+    }
+
+    private Transaction constructTransaction(ResultSet resultSet, TransactionStatements sql) throws SQLException {
+        byte[] transactionBytes = resultSet.getBytes(3);
+        Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
+        transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
+        transaction.setLastUpdateTime(resultSet.getTimestamp(7));
+        transaction.setVersion(resultSet.getLong(9));
+        transaction.resetRetriedCount(resultSet.getInt(8));
+        if (sql.hasNextRetryTime()) {
+            transaction.setNextRetryTime(resultSet.getTimestamp(10));
+        }
+        return transaction;
+    }
+
+
+    @Override
+    public List<String> heartbeat(String node, long leaseMillis) {
+
+        acquireLease(NODE_LEASE_PREFIX + node, node, leaseMillis);
+
+        List<String> nodes = new ArrayList<String>();
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+            TransactionStatements sql = getStatements(connection);
+
+            long now = System.currentTimeMillis();
+
+            stmt = connection.prepareStatement(sql.getDeleteExpiredLeasesSql());
+            stmt.setString(1, getLeaseDomain());
+            stmt.setString(2, NODE_LEASE_PREFIX + "%");
+            stmt.setLong(3, now);
+            stmt.executeUpdate();
+            closeStatement(stmt);
+
+            stmt = connection.prepareStatement(sql.getSelectLeaseOwnersSql());
+            stmt.setString(1, getLeaseDomain());
+            stmt.setString(2, NODE_LEASE_PREFIX + "%");
+            stmt.setLong(3, now);
+
+            ResultSet resultSet = stmt.executeQuery();
+
+            while (resultSet.next()) {
+                nodes.add(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+
+        return nodes;
+    }
+
+    @Override
+    public void leave(String node) {
+        releaseLease(NODE_LEASE_PREFIX + node, node);
+    }
+
+    @Override
+    public boolean acquireLease(int bucket, String node, long leaseMillis) {
+        return acquireLease(BUCKET_LEASE_PREFIX + bucket, node, leaseMillis);
+    }
+
+    @Override
+    public void releaseLease(int bucket, String node) {
+        releaseLease(BUCKET_LEASE_PREFIX + bucket, node);
+    }
+
+    /**
+     * Renews the lease row if held by the node or expired, inserts it if missing. Two nodes inserting the same row
+     * are told apart by the primary key, the loser gets the duplicate key error.
+     */
+    private boolean acquireLease(String leaseKey, String node, long leaseMillis) {
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        TransactionStatements sql = null;
+
+        try {
+            connection = this.getConnection();
+            sql = getStatements(connection);
+
+            long now = System.currentTimeMillis();
+
+            stmt = connection.prepareStatement(sql.getRenewLeaseSql());
+            stmt.setString(1, node);
+            stmt.setLong(2, now + leaseMillis);
+            stmt.setString(3, getLeaseDomain());
+            stmt.setString(4, leaseKey);
+            stmt.setString(5, node);
+            stmt.setLong(6, now);
+
+            if (stmt.executeUpdate() > 0) {
+                return true;
+            }
+            closeStatement(stmt);
+
+            stmt = connection.prepareStatement(sql.getInsertLeaseSql());
+            stmt.setString(1, getLeaseDomain());
+            stmt.setString(2, leaseKey);
+            stmt.setString(3, node);
+            stmt.setLong(4, now + leaseMillis);
+
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            if (sql != null && sql.getDialect().isDuplicateKeyException(e)) {
+                return false;
+            }
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
+    private void releaseLease(String leaseKey, String node) {
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            stmt = connection.prepareStatement(getStatements(connection).getReleaseLeaseSql());
+            stmt.setString(1, getLeaseDomain());
+            stmt.setString(2, leaseKey);
+            stmt.setString(3, node);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public int moveToDeadLetter(Transaction transaction) {
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        boolean autoCommit = false;
+
+        try {
+            connection = this.getConnection();
+            TransactionStatements sql = getStatements(connection);
+
+            autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+
+            stmt = connection.prepareStatement(sql.getMoveToDeadLetterSql());
+            bindXid(stmt, transaction.getXid(), transaction.getVersion());
+
+            int result = stmt.executeUpdate();
+            closeStatement(stmt);
+
+            if (result > 0) {
+                // the version is checked again, the row may have been updated since it was copied
+                stmt = connection.prepareStatement(sql.getDeleteVersionSql());
+                bindXid(stmt, transaction.getXid(), transaction.getVersion());
+                result = stmt.executeUpdate();
+            }
+
+            endTransaction(connection, autoCommit, result > 0);
+
+            if (result > 0) {
+                removeFromCache(transaction);
+            }
+            return result;
+
+        } catch (SQLException e) {
+            rollbackQuietly(connection, autoCommit);
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            restoreAutoCommit(connection, autoCommit);
+            this.releaseConnection(connection);
+        }
+    }
+
+    @Override
+    public List<Transaction> findAllDeadLetters() {
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            TransactionStatements sql = getStatements(connection);
+
+            stmt = connection.prepareStatement(sql.getSelectDeadLettersSql());
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(1, domain);
+            }
+
+            ResultSet resultSet = stmt.executeQuery();
+
+            this.constructTransactions(resultSet, sql, transactions);
         } catch (Throwable e) {
             throw new TransactionIOException(e);
         } finally {
@@ -286,18 +825,117 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return transactions;
     }
 
-    protected void constructTransactions(ResultSet resultSet, List<Transaction> transactions) throws SQLException {
-        while (resultSet.next()) {
-            byte[] transactionBytes = resultSet.getBytes(3);
-            Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
-            transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
-            transaction.setLastUpdateTime(resultSet.getDate(7));
-            transaction.setVersion(resultSet.getLong(9));
-            transaction.resetRetriedCount(resultSet.getInt(8));
-            transactions.add(transaction);
+    @Override
+    public int requeue(TransactionXid xid) {
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        boolean autoCommit = false;
+
+        try {
+            connection = this.getConnection();
+            TransactionStatements sql = getStatements(connection);
+
+            autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+
+            stmt = connection.prepareStatement(sql.getRequeueSql());
+            bindXid(stmt, xid, null);
+
+            int result = stmt.executeUpdate();
+            closeStatement(stmt);
+
+            if (result > 0) {
+                stmt = connection.prepareStatement(sql.getResetRequeuedSql());
+                int i = 0;
+                if (sql.hasNextRetryTime()) {
+                    stmt.setTimestamp(++i, new Timestamp(System.currentTimeMillis()));
+                }
+                if (sql.hasXidHash()) {
+                    stmt.setInt(++i, RecoverPartitioner.hashOf(xid));
+                }
+                stmt.setBytes(++i, xid.getGlobalTransactionId());
+                stmt.setBytes(++i, xid.getBranchQualifier());
+                if (StringUtils.isNotEmpty(domain)) {
+                    stmt.setString(++i, domain);
+                }
+                stmt.executeUpdate();
+                closeStatement(stmt);
+
+                stmt = connection.prepareStatement(sql.getDeleteDeadLetterSql());
+                bindXid(stmt, xid, null);
+                stmt.executeUpdate();
+            }
+
+            endTransaction(connection, autoCommit, result > 0);
+            return result;
+
+        } catch (SQLException e) {
+            rollbackQuietly(connection, autoCommit);
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            restoreAutoCommit(connection, autoCommit);
+            this.releaseConnection(connection);
+        }
+    }
+
+    private void bindXid(PreparedStatement stmt, Xid xid, Long version) throws SQLException {
+
+        int i = 0;
+        stmt.setBytes(++i, xid.getGlobalTransactionId());
+        stmt.setBytes(++i, xid.getBranchQualifier());
+
+        if (version != null) {
+            stmt.setLong(++i, version);
+        }
+
+        if (StringUtils.isNotEmpty(domain)) {
+            stmt.setString(++i, domain);
         }
     }
 
+    /**
+     * Commits or rolls back the statements run since auto-commit was turned off, a surrounding transaction is left to
+     * its owner.
+     */
+    private void endTransaction(Connection connection, boolean autoCommit, boolean succeeded) throws SQLException {
+
+        if (!autoCommit) {
+            return;
+        }
+
+        if (succeeded) {
+            connection.commit();
+        } else {
+            connection.rollback();
+        }
+    }
+
+    private void rollbackQuietly(Connection connection, boolean autoCommit) {
+        try {
+            if (autoCommit && connection != null) {
+                connection.rollback();
+            }
+        } catch (SQLException ignore) {
+        }
+    }
+
+    private void restoreAutoCommit(Connection connection, boolean autoCommit) {
+        try {
+            if (autoCommit && connection != null && !connection.isClosed()) {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    private String getLeaseDomain() {
+        return StringUtils.isNotEmpty(domain) ? domain : "";
+    }
 
     protected Connection getConnection() {
         try {
@@ -327,7 +965,106 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         }
     }
 
+    protected TransactionStatements getStatements(Connection connection) throws SQLException {
+
+        TransactionStatements current = statements;
+
+        if (current == null) {
+            synchronized (this) {
+                if (statements == null) {
+                    Dialect resolved = dialect != null ? dialect : Dialect.of(connection.getMetaData().getDatabaseProductName());
+                    boolean withNextRetryTime = nextRetryTimeColumn != null ? nextRetryTimeColumn : hasColumn(connection, getTableName(), Dialect.NEXT_RETRY_TIME_COLUMN);
+                    if (nextRetryTimeColumn == null && !withNextRetryTime) {
+                        logger.warn(String.format("%s has no %s column, transactions are recovered on their last update time", getTableName(), Dialect.NEXT_RETRY_TIME_COLUMN));
+                    }
+
+                    boolean withXidHash = xidHashColumn != null ? xidHashColumn : hasColumn(connection, getTableName(), Dialect.XID_HASH_COLUMN);
+
+                    statements = new TransactionStatements(resolved, getTableName(), getLeaseTableName(), getDeadLetterTableName(),
+                            withNextRetryTime, withXidHash, StringUtils.isNotEmpty(domain));
+                }
+                current = statements;
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Looks the column up in the metadata rather than selecting it, a failed statement would abort the surrounding
+     * transaction on some databases. The table name is tried as given and in both cases, as databases store it.
+     */
+    private boolean hasColumn(Connection connection, String tableName, String columnName) throws SQLException {
+
+        DatabaseMetaData metaData = connection.getMetaData();
+
+        for (String table : new String[]{tableName, tableName.toUpperCase(), tableName.toLowerCase()}) {
+
+            ResultSet resultSet = metaData.getColumns(connection.getCatalog(), null, table, null);
+
+            try {
+                boolean tableFound = false;
+
+                while (resultSet.next()) {
+                    tableFound = true;
+                    if (columnName.equalsIgnoreCase(resultSet.getString("COLUMN_NAME"))) {
+                        return true;
+                    }
+                }
+
+                if (tableFound) {
+                    return false;
+                }
+            } finally {
+                resultSet.close();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Where a paged scan of the transactions due is at.
+     */
+    private static class DueForRetryCursor {
+
+        private boolean withNextRetryTime;
+
+        private boolean timed;
+
+        private Timestamp lastNextRetryTime;
+
+        private long lastId = Long.MIN_VALUE;
+
+        private int bucketCount;
+
+        private List<Integer> buckets;
+
+        /**
+         * Moves on to the transactions with a next retry time, returns false if the table has none.
+         */
+        boolean startTimed() {
+
+            if (!withNextRetryTime) {
+                return false;
+            }
+
+            timed = true;
+            lastNextRetryTime = new Timestamp(0);
+            lastId = Long.MIN_VALUE;
+            return true;
+        }
+    }
+
     private String getTableName() {
         return StringUtils.isNotEmpty(tbSuffix) ? "TCC_TRANSACTION" + tbSuffix : "TCC_TRANSACTION";
     }
+
+    private String getLeaseTableName() {
+        return StringUtils.isNotEmpty(tbSuffix) ? "TCC_RECOVER_LEASE" + tbSuffix : "TCC_RECOVER_LEASE";
+    }
+
+    private String getDeadLetterTableName() {
+        return StringUtils.isNotEmpty(tbSuffix) ? "TCC_DEAD_TRANSACTION" + tbSuffix : "TCC_DEAD_TRANSACTION";
+    }
 }
@@ -2,11 +2,17 @@ package org.mengyun.tcctransaction.repository;
 
 import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionBatchHandler;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.recover.DeadLetterRepository;
+import org.mengyun.tcctransaction.recover.RecoverLeaseRepository;
+import org.mengyun.tcctransaction.recover.RecoverPartitioner;
 import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
 import org.mengyun.tcctransaction.repository.helper.JedisCallback;
 import org.mengyun.tcctransaction.repository.helper.RedisHelper;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.utils.ByteUtils;
 import redis.clients.jedis.*;
 
 import javax.transaction.xa.Xid;
@@ -19,8 +25,11 @@ import java.util.*;
  * set below directives in your redis.conf
  * appendonly yes
  * appendfsync always
+ * <p/>
+ * The recover leases are kept under LEASE:keyPrefix and the dead letters under DEAD:keyPrefix, out of the keys
+ * scanned for transactions.
  */
-public class RedisTransactionRepository extends CachableTransactionRepository {
+public class RedisTransactionRepository extends CachableTransactionRepository implements RecoverLeaseRepository, DeadLetterRepository {
 
     private static final Logger logger = Logger.getLogger(RedisTransactionRepository.class.getSimpleName());
 
@@ -40,6 +49,11 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
 
     private ObjectSerializer serializer = new KryoPoolSerializer();
 
+    @Override
+    public ObjectSerializer getSerializer() {
+        return serializer;
+    }
+
     public void setSerializer(ObjectSerializer serializer) {
         this.serializer = serializer;
     }
@@ -93,6 +107,9 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
                         params.add(entry.getValue());
                     }
 
+                    params.add(ExpandTransactionSerializer.NEXT_RETRY_TIME);
+                    params.add(ByteUtils.longToBytes(getNextRetryTime(transaction).getTime()));
+
                     Object result = jedis.eval("if redis.call('exists', KEYS[1]) == 0 then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;".getBytes(),
                             Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
 
@@ -108,6 +125,23 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
 
     @Override
     protected int doUpdate(final Transaction transaction) {
+        return doUpdate(transaction, false);
+    }
+
+    @Override
+    protected int doUpdateStatus(Transaction transaction) {
+        return doUpdate(transaction, true);
+    }
+
+    @Override
+    protected int doUpdateRetriedCount(Transaction transaction) {
+        return doUpdate(transaction, true);
+    }
+
+    /**
+     * With stateOnly, only the status, retried count, last update time and version fields are written.
+     */
+    private int doUpdate(final Transaction transaction, final boolean stateOnly) {
 
         try {
 
@@ -120,11 +154,17 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
 
                     List<byte[]> params = new ArrayList<byte[]>();
 
-                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serialize(serializer, transaction).entrySet()) {
+                    Map<byte[], byte[]> fields = stateOnly ? ExpandTransactionSerializer.serializeState(transaction)
+                            : ExpandTransactionSerializer.serialize(serializer, transaction);
+
+                    for (Map.Entry<byte[], byte[]> entry : fields.entrySet()) {
                         params.add(entry.getKey());
                         params.add(entry.getValue());
                     }
 
+                    params.add(ExpandTransactionSerializer.NEXT_RETRY_TIME);
+                    params.add(ByteUtils.longToBytes(getNextRetryTime(transaction).getTime()));
+
                     Object result = jedis.eval(String.format("if redis.call('hget',KEYS[1],'VERSION') == '%s' then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;",
                             transaction.getVersion() - 1).getBytes(),
                             Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
@@ -139,6 +179,30 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         }
     }
 
+    @Override
+    protected int doUpdateNextRetryTime(final Transaction transaction) {
+
+        try {
+            Long result = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+                @Override
+                public Long doInJedis(Jedis jedis) {
+
+                    List<byte[]> params = new ArrayList<byte[]>();
+                    params.add(ExpandTransactionSerializer.NEXT_RETRY_TIME);
+                    params.add(ByteUtils.longToBytes(transaction.getNextRetryTime().getTime()));
+
+                    return (Long) jedis.eval(String.format("if redis.call('hget',KEYS[1],'VERSION') == '%s' then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;",
+                            transaction.getVersion()).getBytes(),
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
+                }
+            });
+
+            return result.intValue();
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     @Override
     protected int doDelete(final Transaction transaction) {
         try {
@@ -195,19 +259,145 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         return allUnmodifiedSince;
     }
 
+    @Override
+    public List<String> heartbeat(final String node, final long leaseMillis) {
+
+        try {
+            return RedisHelper.execute(jedisPool, new JedisCallback<List<String>>() {
+                @Override
+                public List<String> doInJedis(Jedis jedis) {
+
+                    long now = System.currentTimeMillis();
+
+                    Object result = jedis.eval("redis.call('zadd', KEYS[1], ARGV[1], ARGV[2]); redis.call('zremrangebyscore', KEYS[1], '-inf', '(' .. ARGV[3]); return redis.call('zrange', KEYS[1], 0, -1);",
+                            Arrays.asList(RedisHelper.getLeaseKey(keyPrefix, "NODES")),
+                            Arrays.asList(String.valueOf(now + leaseMillis), node, String.valueOf(now)));
+
+                    return (List<String>) result;
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public void leave(final String node) {
+
+        try {
+            RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+                @Override
+                public Long doInJedis(Jedis jedis) {
+                    return jedis.zrem(RedisHelper.getLeaseKey(keyPrefix, "NODES"), node);
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public boolean acquireLease(final int bucket, final String node, final long leaseMillis) {
+
+        try {
+            Long result = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+                @Override
+                public Long doInJedis(Jedis jedis) {
+                    return (Long) jedis.eval("local owner = redis.call('get', KEYS[1]); if owner == false or owner == ARGV[1] then redis.call('psetex', KEYS[1], ARGV[2], ARGV[1]); return 1; end; return 0;",
+                            Arrays.asList(RedisHelper.getLeaseKey(keyPrefix, "BUCKET:" + bucket)),
+                            Arrays.asList(node, String.valueOf(leaseMillis)));
+                }
+            });
+
+            return result.intValue() > 0;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public void releaseLease(final int bucket, final String node) {
+
+        try {
+            RedisHelper.execute(jedisPool, new JedisCallback<Object>() {
+                @Override
+                public Object doInJedis(Jedis jedis) {
+                    return jedis.eval("if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]); end; return 0;",
+                            Arrays.asList(RedisHelper.getLeaseKey(keyPrefix, "BUCKET:" + bucket)),
+                            Arrays.asList(node));
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public int moveToDeadLetter(final Transaction transaction) {
+
+        try {
+            Long result = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+                @Override
+                public Long doInJedis(Jedis jedis) {
+                    return (Long) jedis.eval("if redis.call('hget', KEYS[1], 'VERSION') == ARGV[1] then redis.call('rename', KEYS[1], KEYS[2]); return 1; end; return 0;".getBytes(),
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()), RedisHelper.getDeadLetterKey(keyPrefix, transaction.getXid())),
+                            Arrays.asList(ByteUtils.longToBytes(transaction.getVersion())));
+                }
+            });
+
+            if (result.intValue() > 0) {
+                removeFromCache(transaction);
+            }
+            return result.intValue();
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public List<Transaction> findAllDeadLetters() {
+        return doFindAll(RedisHelper.DEAD_LETTER_KEY_PREFIX + keyPrefix + "*");
+    }
+
+    @Override
+    public int requeue(final TransactionXid xid) {
+
+        try {
+            Long result = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+                @Override
+                public Long doInJedis(Jedis jedis) {
+                    return (Long) jedis.eval(("if redis.call('exists', KEYS[1]) == 1 and redis.call('exists', KEYS[2]) == 0 then " +
+                                    "redis.call('rename', KEYS[1], KEYS[2]); redis.call('hmset', KEYS[2], 'RETRIED_COUNT', ARGV[1], 'NEXT_RETRY_TIME', ARGV[2]); return 1; end; return 0;").getBytes(),
+                            Arrays.asList(RedisHelper.getDeadLetterKey(keyPrefix, xid), RedisHelper.getRedisKey(keyPrefix, xid)),
+                            Arrays.asList(ByteUtils.intToBytes(0), ByteUtils.longToBytes(System.currentTimeMillis())));
+                }
+            });
+
+            return result.intValue();
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     //    @Override
     protected List<Transaction> doFindAll() {
+        return doFindAll(keyPrefix + "*");
+    }
+
+    private List<Transaction> doFindAll(final String keyPattern) {
+
+        Set<byte[]> keys;
 
         try {
 
-            final Set<byte[]> keys = RedisHelper.execute(jedisPool, new JedisCallback<Set<byte[]>>() {
+            keys = RedisHelper.execute(jedisPool, new JedisCallback<Set<byte[]>>() {
                 @Override
                 public Set<byte[]> doInJedis(Jedis jedis) {
 
                     if (isSupportScan) {
                         List<String> allKeys = new ArrayList<String>();
                         String cursor = RedisHelper.SCAN_INIT_CURSOR;
-                        ScanParams scanParams = RedisHelper.buildDefaultScanParams(keyPrefix + "*", fetchKeySize);
+                        ScanParams scanParams = RedisHelper.buildDefaultScanParams(keyPattern, fetchKeySize);
                         do {
                             ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
                             allKeys.addAll(scanResult.getResult());
@@ -219,16 +409,122 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
                         for (String key : allKeys) {
                             allKeySet.add(key.getBytes());
                         }
-                        logger.info(String.format("find all key by scan command with pattern:%s allKeySet.size()=%d", keyPrefix + "*", allKeySet.size()));
+                        logger.info(String.format("find all key by scan command with pattern:%s allKeySet.size()=%d", keyPattern, allKeySet.size()));
                         return allKeySet;
                     } else {
-                        return jedis.keys((keyPrefix + "*").getBytes());
+                        return jedis.keys(keyPattern.getBytes());
                     }
 
                 }
             });
 
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+
+        return findLazily(keys);
+    }
+
+    /**
+     * Scans batchSize keys at a time and reads each page in one pipeline, no connection is held while the handler
+     * runs. Without the scan command the key names are all listed first.
+     */
+    @Override
+    protected void doFindAllDueForRetry(Date date, int batchSize, TransactionBatchHandler handler) {
+        doFindAllDueForRetry(date, batchSize, 0, null, handler);
+    }
+
+    /**
+     * The key names end with the xid the buckets are hashed on, so the keys of the other buckets are left out before
+     * their transactions are read.
+     */
+    @Override
+    protected void doFindAllDueForRetry(Date date, int batchSize, int bucketCount, Set<Integer> buckets, TransactionBatchHandler handler) {
+
+        List<Transaction> batch = new ArrayList<Transaction>(batchSize);
+
+        if (isSupportScan) {
+
+            String cursor = RedisHelper.SCAN_INIT_CURSOR;
+
+            do {
+                ScanResult<byte[]> scanResult = scan(cursor, batchSize);
 
+                for (Transaction transaction : findLazily(inBuckets(scanResult.getResult(), bucketCount, buckets))) {
+                    if (!addIfDueForRetry(batch, transaction, date, batchSize, handler)) {
+                        return;
+                    }
+                }
+
+                cursor = scanResult.getStringCursor();
+            } while (!cursor.equals(RedisHelper.SCAN_INIT_CURSOR));
+
+        } else {
+
+            List<byte[]> keys = inBuckets(keys(), bucketCount, buckets);
+
+            for (int fromIndex = 0; fromIndex < keys.size(); fromIndex += batchSize) {
+                for (Transaction transaction : findLazily(keys.subList(fromIndex, Math.min(fromIndex + batchSize, keys.size())))) {
+                    if (!addIfDueForRetry(batch, transaction, date, batchSize, handler)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        flush(batch, handler);
+    }
+
+    private List<byte[]> inBuckets(Collection<byte[]> keys, int bucketCount, Set<Integer> buckets) {
+
+        if (buckets == null || bucketCount <= 0) {
+            return new ArrayList<byte[]>(keys);
+        }
+
+        List<byte[]> bucketKeys = new ArrayList<byte[]>();
+        for (byte[] key : keys) {
+            String xid = new String(key).substring(keyPrefix.length());
+            if (buckets.contains(RecoverPartitioner.hashOf(xid) % bucketCount)) {
+                bucketKeys.add(key);
+            }
+        }
+        return bucketKeys;
+    }
+
+    private ScanResult<byte[]> scan(final String cursor, final int count) {
+
+        try {
+            return RedisHelper.execute(jedisPool, new JedisCallback<ScanResult<byte[]>>() {
+                @Override
+                public ScanResult<byte[]> doInJedis(Jedis jedis) {
+                    return jedis.scan(cursor.getBytes(), RedisHelper.buildDefaultScanParams(keyPrefix + "*", count));
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    private Set<byte[]> keys() {
+
+        try {
+            return RedisHelper.execute(jedisPool, new JedisCallback<Set<byte[]>>() {
+                @Override
+                public Set<byte[]> doInJedis(Jedis jedis) {
+                    return jedis.keys((keyPrefix + "*").getBytes());
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    /**
+     * Reads the transactions of the keys in one pipeline, skipping the keys deleted meanwhile.
+     */
+    private List<Transaction> findLazily(final Collection<byte[]> keys) {
+
+        try {
             return RedisHelper.execute(jedisPool, new JedisCallback<List<Transaction>>() {
                 @Override
                 public List<Transaction> doInJedis(Jedis jedis) {
@@ -240,20 +536,22 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
                     }
                     List<Object> result = pipeline.syncAndReturnAll();
 
+                    long startTime = System.nanoTime();
+
                     List<Transaction> list = new ArrayList<Transaction>();
                     for (Object data : result) {
 
                         if (data != null && ((Map<byte[], byte[]>) data).size() > 0) {
 
-                            list.add(ExpandTransactionSerializer.deserialize(serializer, (Map<byte[], byte[]>) data));
+                            list.add(ExpandTransactionSerializer.deserializeLazily(serializer, (Map<byte[], byte[]>) data));
                         }
 
                     }
 
+                    recordScanDeserialization(System.nanoTime() - startTime);
                     return list;
                 }
             });
-
         } catch (Exception e) {
             throw new TransactionIOException(e);
         }
@@ -3,6 +3,7 @@ package org.mengyun.tcctransaction.repository;
 import org.apache.zookeeper.*;
 import org.apache.zookeeper.data.Stat;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionBatchHandler;
 import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
@@ -31,6 +32,11 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         super();
     }
 
+    @Override
+    public ObjectSerializer getSerializer() {
+        return serializer;
+    }
+
     public void setSerializer(ObjectSerializer serializer) {
         this.serializer = serializer;
     }
@@ -124,33 +130,66 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         return allUnmodifiedSince;
     }
 
+    /**
+     * Reads the children one by one, only their names are held for the whole scan.
+     */
+    @Override
+    protected void doFindAllDueForRetry(Date date, int batchSize, TransactionBatchHandler handler) {
+
+        List<Transaction> batch = new ArrayList<Transaction>(batchSize);
+
+        for (String znodePath : getChildren()) {
+            if (!addIfDueForRetry(batch, findLazily(znodePath), date, batchSize, handler)) {
+                return;
+            }
+        }
+
+        flush(batch, handler);
+    }
+
     protected List<Transaction> doFindAll() {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
 
-        List<String> znodePaths = null;
-        try {
-            znodePaths = getZk().getChildren(zkRootPath, false);
-        } catch (Exception e) {
-            throw new TransactionIOException(e);
-        }
+        for (String znodePath : getChildren()) {
 
-        for (String znodePath : znodePaths) {
+            Transaction transaction = findLazily(znodePath);
 
-            byte[] content = null;
-            try {
-                Stat stat = new Stat();
-                content = getZk().getData(getTxidPath(znodePath), false, stat);
-                Transaction transaction = TransactionSerializer.deserialize(serializer, content);
+            if (transaction != null) {
                 transactions.add(transaction);
-            } catch (Exception e) {
-                throw new TransactionIOException(e);
             }
         }
 
         return transactions;
     }
 
+    private List<String> getChildren() {
+        try {
+            return getZk().getChildren(zkRootPath, false);
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    /**
+     * Null if the node was deleted since the children were listed.
+     */
+    private Transaction findLazily(String znodePath) {
+        try {
+            Stat stat = new Stat();
+            byte[] content = getZk().getData(getTxidPath(znodePath), false, stat);
+
+            long startTime = System.nanoTime();
+            Transaction transaction = TransactionSerializer.deserializeLazily(serializer, content);
+            recordScanDeserialization(System.nanoTime() - startTime);
+            return transaction;
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     private ZooKeeper getZk() {
 
         if (zk == null) {
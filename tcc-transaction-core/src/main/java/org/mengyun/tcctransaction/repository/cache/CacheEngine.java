@@ -0,0 +1,18 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+/**
+ * Eviction engine backing the transaction near cache.
+ */
+public enum CacheEngine {
+
+    /**
+     * Guava cache, LRU eviction.
+     */
+    GUAVA,
+
+    /**
+     * Caffeine cache, W-TinyLFU eviction. Requires com.github.ben-manes.caffeine:caffeine on the classpath, and Java 8
+     * or later as Caffeine 2.x is built for it; use GUAVA on Java 6 and 7.
+     */
+    CAFFEINE
+}
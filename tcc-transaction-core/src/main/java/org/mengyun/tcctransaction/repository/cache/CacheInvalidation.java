@@ -0,0 +1,72 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Tells peer nodes that a transaction changed. A version of {@link #DELETED} means the transaction was deleted.
+ */
+public class CacheInvalidation {
+
+    public static final long DELETED = -1L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String nodeId;
+
+    private final TransactionXid xid;
+
+    private final long version;
+
+    public CacheInvalidation(String nodeId, TransactionXid xid, long version) {
+        this.nodeId = nodeId;
+        this.xid = xid;
+        this.version = version;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public TransactionXid getXid() {
+        return xid;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public byte[] encode() {
+
+        byte[] nodeIdBytes = nodeId.getBytes(UTF_8);
+        byte[] globalTransactionId = xid.getGlobalTransactionId();
+        byte[] branchQualifier = xid.getBranchQualifier();
+
+        ByteBuffer buffer = ByteBuffer.allocate(3 * 4 + nodeIdBytes.length + globalTransactionId.length + branchQualifier.length + 8);
+        buffer.putInt(nodeIdBytes.length).put(nodeIdBytes);
+        buffer.putInt(globalTransactionId.length).put(globalTransactionId);
+        buffer.putInt(branchQualifier.length).put(branchQualifier);
+        buffer.putLong(version);
+
+        return buffer.array();
+    }
+
+    public static CacheInvalidation decode(byte[] bytes) {
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        String nodeId = new String(readBytes(buffer), UTF_8);
+        byte[] globalTransactionId = readBytes(buffer);
+        byte[] branchQualifier = readBytes(buffer);
+
+        return new CacheInvalidation(nodeId, new TransactionXid(globalTransactionId, branchQualifier), buffer.getLong());
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,14 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+/**
+ * Broadcasts transaction changes between the near caches of several nodes.
+ * Delivery is best effort, the optimistic lock of the store stays the source of truth.
+ */
+public interface CacheInvalidationChannel {
+
+    void publish(CacheInvalidation invalidation);
+
+    void subscribe(CacheInvalidationListener listener);
+
+    void unsubscribe(CacheInvalidationListener listener);
+}
@@ -0,0 +1,9 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+/**
+ * Receives the invalidations published on a {@link CacheInvalidationChannel}.
+ */
+public interface CacheInvalidationListener {
+
+    void onInvalidation(CacheInvalidation invalidation);
+}
@@ -0,0 +1,88 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.mengyun.tcctransaction.Transaction;
+
+import javax.transaction.xa.Xid;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caffeine backed near cache. Its W-TinyLFU admission keeps frequently used transactions
+ * when a burst of one-off transactions passes through.
+ * <p/>
+ * Requires com.github.ben-manes.caffeine:caffeine on the classpath and Java 8 or later.
+ */
+public class CaffeineTransactionCache implements TransactionCache {
+
+    private final Cache<Xid, Transaction> cache;
+
+    public CaffeineTransactionCache(TransactionCacheSpec spec) {
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+
+        if (spec.getMaximumWeight() > 0) {
+            builder.maximumWeight(spec.getMaximumWeight()).weigher(new Weigher<Object, Object>() {
+                @Override
+                public int weigh(Object key, Object value) {
+                    return TransactionCacheSpec.weigh((Transaction) value);
+                }
+            });
+        } else {
+            builder.maximumSize(spec.getMaximumSize());
+        }
+
+        if (spec.getExpireDuration() > 0) {
+            if (spec.isExpireAfterAccess()) {
+                builder.expireAfterAccess(spec.getExpireDuration(), TimeUnit.SECONDS);
+            } else {
+                builder.expireAfterWrite(spec.getExpireDuration(), TimeUnit.SECONDS);
+            }
+        }
+
+        this.cache = builder.build();
+    }
+
+    @Override
+    public Transaction get(Xid xid) {
+        return cache.getIfPresent(xid);
+    }
+
+    @Override
+    public boolean contains(Xid xid) {
+        return cache.asMap().containsKey(xid);
+    }
+
+    @Override
+    public Transaction peek(Xid xid) {
+        return cache.policy().getIfPresentQuietly(xid);
+    }
+
+    @Override
+    public void put(Transaction transaction) {
+        cache.put(transaction.getXid(), transaction);
+    }
+
+    @Override
+    public void invalidate(Xid xid) {
+        cache.invalidate(xid);
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    @Override
+    public TransactionCacheStats stats() {
+        CacheStats stats = cache.stats();
+        return new TransactionCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+}
@@ -0,0 +1,85 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import org.mengyun.tcctransaction.Transaction;
+
+import javax.transaction.xa.Xid;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guava backed near cache, LRU eviction.
+ */
+public class GuavaTransactionCache implements TransactionCache {
+
+    private final Cache<Xid, Transaction> cache;
+
+    public GuavaTransactionCache(TransactionCacheSpec spec) {
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+
+        if (spec.getMaximumWeight() > 0) {
+            builder.maximumWeight(spec.getMaximumWeight()).weigher(new Weigher<Object, Object>() {
+                @Override
+                public int weigh(Object key, Object value) {
+                    return TransactionCacheSpec.weigh((Transaction) value);
+                }
+            });
+        } else {
+            builder.maximumSize(spec.getMaximumSize());
+        }
+
+        if (spec.getExpireDuration() > 0) {
+            if (spec.isExpireAfterAccess()) {
+                builder.expireAfterAccess(spec.getExpireDuration(), TimeUnit.SECONDS);
+            } else {
+                builder.expireAfterWrite(spec.getExpireDuration(), TimeUnit.SECONDS);
+            }
+        }
+
+        this.cache = builder.build();
+    }
+
+    @Override
+    public Transaction get(Xid xid) {
+        return cache.getIfPresent(xid);
+    }
+
+    @Override
+    public boolean contains(Xid xid) {
+        return cache.asMap().containsKey(xid);
+    }
+
+    @Override
+    public Transaction peek(Xid xid) {
+        return cache.asMap().get(xid);
+    }
+
+    @Override
+    public void put(Transaction transaction) {
+        cache.put(transaction.getXid(), transaction);
+    }
+
+    @Override
+    public void invalidate(Xid xid) {
+        cache.invalidate(xid);
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public TransactionCacheStats stats() {
+        CacheStats stats = cache.stats();
+        return new TransactionCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+}
@@ -0,0 +1,29 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers invalidations synchronously to the listeners of the same JVM, for tests and single process deployments
+ * running several repositories.
+ */
+public class LocalCacheInvalidationChannel implements CacheInvalidationChannel {
+
+    private final CopyOnWriteArrayList<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<CacheInvalidationListener>();
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        for (CacheInvalidationListener listener : listeners) {
+            listener.onInvalidation(invalidation);
+        }
+    }
+
+    @Override
+    public void subscribe(CacheInvalidationListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void unsubscribe(CacheInvalidationListener listener) {
+        listeners.remove(listener);
+    }
+}
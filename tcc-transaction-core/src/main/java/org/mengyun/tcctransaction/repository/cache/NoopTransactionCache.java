@@ -0,0 +1,53 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import org.mengyun.tcctransaction.Transaction;
+
+import javax.transaction.xa.Xid;
+
+/**
+ * Used when the near cache is disabled, every lookup goes to the store.
+ */
+public class NoopTransactionCache implements TransactionCache {
+
+    public static final NoopTransactionCache INSTANCE = new NoopTransactionCache();
+
+    @Override
+    public Transaction get(Xid xid) {
+        return null;
+    }
+
+    @Override
+    public boolean contains(Xid xid) {
+        return false;
+    }
+
+    @Override
+    public Transaction peek(Xid xid) {
+        return null;
+    }
+
+    @Override
+    public void put(Transaction transaction) {
+
+    }
+
+    @Override
+    public void invalidate(Xid xid) {
+
+    }
+
+    @Override
+    public void invalidateAll() {
+
+    }
+
+    @Override
+    public long size() {
+        return 0;
+    }
+
+    @Override
+    public TransactionCacheStats stats() {
+        return TransactionCacheStats.EMPTY;
+    }
+}
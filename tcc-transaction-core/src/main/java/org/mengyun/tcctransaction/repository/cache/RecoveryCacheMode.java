@@ -0,0 +1,22 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+/**
+ * How transactions loaded by a recovery scan are admitted to the near cache.
+ */
+public enum RecoveryCacheMode {
+
+    /**
+     * Recovery loads are not cached, a scan never evicts in-flight transactions.
+     */
+    BYPASS,
+
+    /**
+     * Recovery loads go into a separate, small segment that does not compete with in-flight transactions.
+     */
+    SEGMENT,
+
+    /**
+     * Recovery loads share the cache with in-flight transactions.
+     */
+    SHARED
+}
@@ -0,0 +1,225 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.repository.helper.JedisCallback;
+import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Invalidation channel over Redis pub/sub. A daemon thread holds the subscription and reconnects after failures.
+ * <p/>
+ * Publishing only queues the invalidation, so the update that triggered it does not wait for Redis. Another daemon
+ * thread sends the queued invalidations in one pipeline per batch. When the queue is full the invalidation is
+ * dropped, the peers then find out through the optimistic lock as without a channel.
+ */
+public class RedisCacheInvalidationChannel implements CacheInvalidationChannel {
+
+    private static final Logger logger = Logger.getLogger(RedisCacheInvalidationChannel.class.getSimpleName());
+
+    private final CopyOnWriteArrayList<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<CacheInvalidationListener>();
+
+    private JedisPool jedisPool;
+
+    private String channel = "TCC:CACHE_INVALIDATION";
+
+    private long reconnectInterval = 5000;
+
+    private int maxPendingInvalidations = 10000;
+
+    private int publishBatchSize = 100;
+
+    private volatile BlockingQueue<CacheInvalidation> pendingInvalidations;
+
+    private volatile Thread publisher;
+
+    private volatile boolean running = false;
+
+    private volatile BinaryJedisPubSub pubSub;
+
+    public void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public void setReconnectInterval(long reconnectInterval) {
+        this.reconnectInterval = reconnectInterval;
+    }
+
+    public void setMaxPendingInvalidations(int maxPendingInvalidations) {
+        this.maxPendingInvalidations = maxPendingInvalidations;
+    }
+
+    public void setPublishBatchSize(int publishBatchSize) {
+        this.publishBatchSize = publishBatchSize;
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        if (!getPendingInvalidations().offer(invalidation)) {
+            logger.warn("cache invalidation queue full, invalidation dropped. xid:" + invalidation.getXid());
+        }
+    }
+
+    private BlockingQueue<CacheInvalidation> getPendingInvalidations() {
+
+        if (pendingInvalidations == null) {
+            synchronized (this) {
+                if (pendingInvalidations == null) {
+                    final BlockingQueue<CacheInvalidation> queue = new LinkedBlockingQueue<CacheInvalidation>(maxPendingInvalidations);
+
+                    publisher = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            publishPending(queue);
+                        }
+                    }, "tcc-cache-invalidation-publisher");
+                    publisher.setDaemon(true);
+                    publisher.start();
+
+                    pendingInvalidations = queue;
+                }
+            }
+        }
+
+        return pendingInvalidations;
+    }
+
+    private void publishPending(BlockingQueue<CacheInvalidation> queue) {
+
+        final List<CacheInvalidation> batch = new ArrayList<CacheInvalidation>(publishBatchSize);
+
+        while (!Thread.currentThread().isInterrupted()) {
+
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            queue.drainTo(batch, publishBatchSize - 1);
+
+            try {
+                RedisHelper.execute(jedisPool, new JedisCallback<Void>() {
+                    @Override
+                    public Void doInJedis(Jedis jedis) {
+                        Pipeline pipeline = jedis.pipelined();
+                        for (CacheInvalidation invalidation : batch) {
+                            pipeline.publish(channel.getBytes(), invalidation.encode());
+                        }
+                        pipeline.sync();
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                logger.warn(String.format("publish of %d cache invalidations failed", batch.size()), e);
+            }
+
+            batch.clear();
+        }
+    }
+
+    @Override
+    public void subscribe(CacheInvalidationListener listener) {
+        listeners.addIfAbsent(listener);
+        start();
+    }
+
+    @Override
+    public void unsubscribe(CacheInvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void start() {
+
+        if (running) {
+            return;
+        }
+
+        running = true;
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    Jedis jedis = null;
+                    try {
+                        jedis = jedisPool.getResource();
+                        pubSub = new BinaryJedisPubSub() {
+                            @Override
+                            public void onMessage(byte[] channel, byte[] message) {
+                                dispatch(message);
+                            }
+                        };
+                        jedis.subscribe(pubSub, channel.getBytes());
+                    } catch (Exception e) {
+                        if (running) {
+                            logger.warn("cache invalidation subscription lost, reconnecting", e);
+                            sleepQuietly(reconnectInterval);
+                        }
+                    } finally {
+                        if (jedis != null) {
+                            jedis.close();
+                        }
+                    }
+                }
+            }
+        }, "tcc-cache-invalidation");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void close() {
+
+        running = false;
+
+        if (publisher != null) {
+            publisher.interrupt();
+            publisher = null;
+            pendingInvalidations = null;
+        }
+
+        BinaryJedisPubSub current = pubSub;
+
+        if (current != null && current.isSubscribed()) {
+            current.unsubscribe();
+        }
+    }
+
+    private void dispatch(byte[] message) {
+
+        CacheInvalidation invalidation;
+
+        try {
+            invalidation = CacheInvalidation.decode(message);
+        } catch (RuntimeException e) {
+            logger.warn("malformed cache invalidation ignored", e);
+            return;
+        }
+
+        for (CacheInvalidationListener listener : listeners) {
+            listener.onInvalidation(invalidation);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
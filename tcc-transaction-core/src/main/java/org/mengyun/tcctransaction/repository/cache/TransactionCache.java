@@ -0,0 +1,33 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import org.mengyun.tcctransaction.Transaction;
+
+import javax.transaction.xa.Xid;
+
+/**
+ * Near cache of transactions kept in front of a transaction repository.
+ */
+public interface TransactionCache {
+
+    Transaction get(Xid xid);
+
+    /**
+     * Checks for an entry without touching the stats or the access order.
+     */
+    boolean contains(Xid xid);
+
+    /**
+     * Returns the entry without touching the stats.
+     */
+    Transaction peek(Xid xid);
+
+    void put(Transaction transaction);
+
+    void invalidate(Xid xid);
+
+    void invalidateAll();
+
+    long size();
+
+    TransactionCacheStats stats();
+}
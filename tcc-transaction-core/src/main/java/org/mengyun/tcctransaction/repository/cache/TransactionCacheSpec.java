@@ -0,0 +1,90 @@
+package org.mengyun.tcctransaction.repository.cache;
+
+import org.mengyun.tcctransaction.Transaction;
+
+/**
+ * Bounds, expiry and engine of a transaction near cache.
+ * <p/>
+ * When maximumWeight is positive the cache is bounded by weight, a transaction weighing one plus its participant count,
+ * otherwise by maximumSize entries. An expireDuration of zero or less disables expiry.
+ */
+public class TransactionCacheSpec {
+
+    private boolean enabled = true;
+
+    private CacheEngine engine = CacheEngine.GUAVA;
+
+    private long maximumSize = 1000;
+
+    private long maximumWeight = 0;
+
+    private int expireDuration = 120;
+
+    private boolean expireAfterAccess = true;
+
+    public TransactionCache build() {
+
+        if (!enabled || (maximumWeight <= 0 && maximumSize <= 0)) {
+            return NoopTransactionCache.INSTANCE;
+        }
+
+        switch (engine) {
+            case CAFFEINE:
+                return new CaffeineTransactionCache(this);
+            default:
+                return new GuavaTransactionCache(this);
+        }
+    }
+
+    static int weigh(Transaction transaction) {
+        return 1 + transaction.getParticipants().size();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public CacheEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(CacheEngine engine) {
+        this.engine = engine;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    public int getExpireDuration() {
+        return expireDuration;
+    }
+
+    public void setExpireDuration(int expireDuration) {
+        this.expireDuration = expireDuration;
+    }
+
+    public boolean isExpireAfterAccess() {
+        return expireAfterAccess;
+    }
+
+    public void setExpireAfterAccess(boolean expireAfterAccess) {
+        this.expireAfterAccess = expireAfterAccess;
+    }
+}
@@ -0,0 +1,147 @@
+package org.mengyun.tcctransaction.repository.dialect;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+
+/**
+ * Generates the SQL used by JdbcTransactionRepository for a particular database.
+ * <p/>
+ * The statements are built once per repository (see {@link TransactionStatements}), so the methods here
+ * only describe the pieces that differ between databases: how a duplicated xid is detected on insert and
+ * how a batch of xids is matched in a single query.
+ */
+public abstract class Dialect {
+
+    public static final String SELECT_COLUMNS = "GLOBAL_TX_ID,BRANCH_QUALIFIER,CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION";
+
+    public static final String INSERT_COLUMNS = "GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION";
+
+    /**
+     * Added after the columns above when the table has it, see JdbcTransactionRepository#setNextRetryTimeColumn.
+     */
+    public static final String NEXT_RETRY_TIME_COLUMN = "NEXT_RETRY_TIME";
+
+    /**
+     * Written after NEXT_RETRY_TIME when the table has it, see JdbcTransactionRepository#setXidHashColumn.
+     */
+    public static final String XID_HASH_COLUMN = "XID_HASH";
+
+    private static final String DUPLICATE_KEY_SQL_STATE = "23505";
+
+    private static final int DEFAULT_MAX_XIDS_PER_QUERY = 200;
+
+    /**
+     * Resolves the dialect from {@link java.sql.DatabaseMetaData#getDatabaseProductName()}, falling back to
+     * {@link StandardDialect} for databases without a dedicated dialect.
+     */
+    public static Dialect of(String databaseProductName) {
+
+        if (databaseProductName != null) {
+
+            String name = databaseProductName.toLowerCase();
+
+            if (name.contains("mysql") || name.contains("mariadb")) {
+                return new MySqlDialect();
+            } else if (name.contains("postgresql")) {
+                return new PostgreSqlDialect();
+            } else if (name.equals("h2")) {
+                return new H2Dialect();
+            }
+        }
+
+        return new StandardDialect();
+    }
+
+    /**
+     * Inserts the comma separated columns, binding one parameter per column.
+     */
+    public String getInsertSql(String tableName, String columns) {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(getInsertKeyword()).append(" INTO ").append(tableName).append("(").append(columns).append(") VALUES (?");
+
+        for (int i = columns.indexOf(','); i >= 0; i = columns.indexOf(',', i + 1)) {
+            builder.append(",?");
+        }
+        builder.append(")");
+
+        String suffix = getInsertIgnoreSuffix();
+        if (suffix != null) {
+            builder.append(" ").append(suffix);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Builds the condition matching {@code count} (GLOBAL_TX_ID, BRANCH_QUALIFIER) pairs, binding two parameters per xid.
+     */
+    public String getXidsCondition(int count) {
+
+        if (count == 1) {
+            return "GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?";
+        }
+
+        StringBuilder builder = new StringBuilder();
+
+        if (supportsRowValueIn()) {
+            builder.append("(GLOBAL_TX_ID,BRANCH_QUALIFIER) IN (");
+            for (int i = 0; i < count; i++) {
+                builder.append(i == 0 ? "(?,?)" : ",(?,?)");
+            }
+            builder.append(")");
+        } else {
+            builder.append("(");
+            for (int i = 0; i < count; i++) {
+                builder.append(i == 0 ? "" : " OR ").append("(GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?)");
+            }
+            builder.append(")");
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Builds the condition keeping the rows of {@code count} recover buckets, binding the bucket count then the buckets.
+     * The rows without a hash are kept, their bucket is checked once read.
+     */
+    public String getBucketsCondition(int count) {
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("(XID_HASH IS NULL OR MOD(XID_HASH, ?) IN (");
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        builder.append("))");
+
+        return builder.toString();
+    }
+
+    public boolean isDuplicateKeyException(SQLException e) {
+        return e instanceof SQLIntegrityConstraintViolationException
+                || DUPLICATE_KEY_SQL_STATE.equals(e.getSQLState());
+    }
+
+    /**
+     * The maximum number of xids matched by one select, larger lookups are split into several queries.
+     */
+    public int getMaxXidsPerQuery() {
+        return DEFAULT_MAX_XIDS_PER_QUERY;
+    }
+
+    /**
+     * Keeps the first rows of an ordered select, appended after its ORDER BY.
+     */
+    public String getLimitClause(int limit) {
+        return "FETCH FIRST " + limit + " ROWS ONLY";
+    }
+
+    protected String getInsertKeyword() {
+        return "INSERT";
+    }
+
+    protected String getInsertIgnoreSuffix() {
+        return null;
+    }
+
+    protected abstract boolean supportsRowValueIn();
+}
@@ -0,0 +1,12 @@
+package org.mengyun.tcctransaction.repository.dialect;
+
+/**
+ * H2, mainly used by tests and benchmarks.
+ */
+public class H2Dialect extends Dialect {
+
+    @Override
+    protected boolean supportsRowValueIn() {
+        return true;
+    }
+}
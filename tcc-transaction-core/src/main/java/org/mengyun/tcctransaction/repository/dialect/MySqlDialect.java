@@ -0,0 +1,25 @@
+package org.mengyun.tcctransaction.repository.dialect;
+
+/**
+ * MySQL and MariaDB, uses INSERT IGNORE so a duplicated xid costs no server error.
+ * <p/>
+ * Note IGNORE also downgrades data errors to warnings, make sure the CONTENT column is large enough
+ * for the serialized transactions.
+ */
+public class MySqlDialect extends Dialect {
+
+    @Override
+    protected String getInsertKeyword() {
+        return "INSERT IGNORE";
+    }
+
+    @Override
+    public String getLimitClause(int limit) {
+        return "LIMIT " + limit;
+    }
+
+    @Override
+    protected boolean supportsRowValueIn() {
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+package org.mengyun.tcctransaction.repository.dialect;
+
+/**
+ * PostgreSQL 9.5+, relies on the unique key of (GLOBAL_TX_ID, BRANCH_QUALIFIER) for ON CONFLICT.
+ */
+public class PostgreSqlDialect extends Dialect {
+
+    @Override
+    protected String getInsertIgnoreSuffix() {
+        return "ON CONFLICT (GLOBAL_TX_ID,BRANCH_QUALIFIER) DO NOTHING";
+    }
+
+    @Override
+    protected boolean supportsRowValueIn() {
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package org.mengyun.tcctransaction.repository.dialect;
+
+/**
+ * Plain ANSI SQL, used when the database has no dedicated dialect.
+ * Duplicated xids are detected by the integrity constraint violation raised on insert.
+ */
+public class StandardDialect extends Dialect {
+
+    @Override
+    protected boolean supportsRowValueIn() {
+        return false;
+    }
+}
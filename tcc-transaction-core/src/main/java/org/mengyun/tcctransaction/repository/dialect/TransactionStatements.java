@@ -0,0 +1,321 @@
+package org.mengyun.tcctransaction.repository.dialect;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The statements of one JdbcTransactionRepository, computed once for its table, domain and dialect.
+ */
+public class TransactionStatements {
+
+    private final Dialect dialect;
+
+    private final boolean withNextRetryTime;
+
+    private final boolean withXidHash;
+
+    private final String insertSql;
+
+    private final String updateSql;
+
+    private final String updateStateSql;
+
+    private final String updateNextRetryTimeSql;
+
+    private final String deleteSql;
+
+    private final String selectUnmodifiedSinceSql;
+
+    private final String selectDueForRetrySql;
+
+    private final String selectPrefix;
+
+    private final String selectDueForRetryPageWhere;
+
+    private final String selectUntimedDueForRetryPageWhere;
+
+    private final String domainCondition;
+
+    private final String renewLeaseSql;
+
+    private final String insertLeaseSql;
+
+    private final String releaseLeaseSql;
+
+    private final String selectLeaseOwnersSql;
+
+    private final String deleteExpiredLeasesSql;
+
+    private final String moveToDeadLetterSql;
+
+    private final String deleteVersionSql;
+
+    private final String selectDeadLettersSql;
+
+    private final String requeueSql;
+
+    private final String resetRequeuedSql;
+
+    private final String deleteDeadLetterSql;
+
+    private final ConcurrentMap<Integer, String> selectByXidsSqls = new ConcurrentHashMap<Integer, String>();
+
+    // keyed on the batch size in the high and the number of buckets in the low half
+    private final ConcurrentMap<Long, String> selectDueForRetryPageSqls = new ConcurrentHashMap<Long, String>();
+
+    private final ConcurrentMap<Long, String> selectUntimedDueForRetryPageSqls = new ConcurrentHashMap<Long, String>();
+
+    /**
+     * @param withNextRetryTime whether the transaction table has the NEXT_RETRY_TIME column, without it the
+     *                          transactions are due on their last update time only
+     * @param withXidHash       whether the transaction table has the XID_HASH column, without it the pages of the
+     *                          recovery scan are not narrowed to the recover buckets
+     */
+    public TransactionStatements(Dialect dialect, String tableName, String leaseTableName, String deadLetterTableName,
+                                 boolean withNextRetryTime, boolean withXidHash, boolean withDomain) {
+
+        this.dialect = dialect;
+        this.withNextRetryTime = withNextRetryTime;
+        this.withXidHash = withXidHash;
+        this.domainCondition = withDomain ? " AND DOMAIN = ?" : "";
+
+        String nextRetryTimeColumn = withNextRetryTime ? "," + Dialect.NEXT_RETRY_TIME_COLUMN : "";
+        String nextRetryTimeSet = withNextRetryTime ? "," + Dialect.NEXT_RETRY_TIME_COLUMN + " = ?" : "";
+        String xidHashColumn = withXidHash ? "," + Dialect.XID_HASH_COLUMN : "";
+        String xidHashSet = withXidHash ? "," + Dialect.XID_HASH_COLUMN + " = ?" : "";
+
+        this.insertSql = dialect.getInsertSql(tableName, Dialect.INSERT_COLUMNS + nextRetryTimeColumn + xidHashColumn + (withDomain ? ",DOMAIN" : ""));
+
+        this.updateSql = "UPDATE " + tableName + " SET " +
+                "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = ?" + nextRetryTimeSet + " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?" + domainCondition;
+
+        this.updateStateSql = "UPDATE " + tableName + " SET " +
+                "STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = ?" + nextRetryTimeSet + " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?" + domainCondition;
+
+        this.updateNextRetryTimeSql = withNextRetryTime ? "UPDATE " + tableName + " SET NEXT_RETRY_TIME = ?" +
+                " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?" + domainCondition : null;
+
+        this.deleteSql = "DELETE FROM " + tableName + " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?" + domainCondition;
+
+        String selectColumns = Dialect.SELECT_COLUMNS + nextRetryTimeColumn + (withDomain ? ",DOMAIN" : "");
+
+        this.selectPrefix = "SELECT " + selectColumns + " FROM " + tableName + " WHERE ";
+
+        this.selectUnmodifiedSinceSql = selectPrefix + "LAST_UPDATE_TIME < ? AND IS_DELETE = 0" + domainCondition;
+
+        // rows written before the column was added, or by nodes not writing it yet, have no next retry time and are
+        // due on their last update time as without the column
+        String dueCondition = withNextRetryTime ? "(NEXT_RETRY_TIME < ? OR (NEXT_RETRY_TIME IS NULL AND LAST_UPDATE_TIME < ?))" : "LAST_UPDATE_TIME < ?";
+
+        this.selectDueForRetrySql = selectPrefix + dueCondition + " AND IS_DELETE = 0" + domainCondition;
+
+        // the pages follow the (NEXT_RETRY_TIME, TRANSACTION_ID, XID_HASH) index, starting after the last row of the
+        // previous page, so each page is a range read of the index returning its rows in order, the rows of the
+        // buckets of other nodes being left out on the index entries
+        this.selectDueForRetryPageWhere = withNextRetryTime ? "SELECT " + selectColumns + ",TRANSACTION_ID FROM " + tableName +
+                " WHERE NEXT_RETRY_TIME < ? AND NEXT_RETRY_TIME >= ? AND (NEXT_RETRY_TIME > ? OR TRANSACTION_ID > ?) AND IS_DELETE = 0" : null;
+
+        // the rows without a next retry time are the NULL prefix of the same index, without the column the primary
+        // key is walked as the scans did before
+        this.selectUntimedDueForRetryPageWhere = "SELECT " + selectColumns + ",TRANSACTION_ID FROM " + tableName +
+                " WHERE " + (withNextRetryTime ? "NEXT_RETRY_TIME IS NULL AND " : "") + "LAST_UPDATE_TIME < ? AND IS_DELETE = 0 AND TRANSACTION_ID > ?";
+
+        this.renewLeaseSql = "UPDATE " + leaseTableName + " SET OWNER = ?,EXPIRE_TIME = ? WHERE DOMAIN = ? AND LEASE_KEY = ? AND (OWNER = ? OR EXPIRE_TIME < ?)";
+
+        this.insertLeaseSql = "INSERT INTO " + leaseTableName + "(DOMAIN,LEASE_KEY,OWNER,EXPIRE_TIME) VALUES (?,?,?,?)";
+
+        this.releaseLeaseSql = "DELETE FROM " + leaseTableName + " WHERE DOMAIN = ? AND LEASE_KEY = ? AND OWNER = ?";
+
+        this.selectLeaseOwnersSql = "SELECT OWNER FROM " + leaseTableName + " WHERE DOMAIN = ? AND LEASE_KEY LIKE ? AND EXPIRE_TIME >= ?";
+
+        this.deleteExpiredLeasesSql = "DELETE FROM " + leaseTableName + " WHERE DOMAIN = ? AND LEASE_KEY LIKE ? AND EXPIRE_TIME < ?";
+
+        String movedColumns = selectColumns;
+        String xidCondition = " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?";
+
+        this.moveToDeadLetterSql = "INSERT INTO " + deadLetterTableName + "(" + movedColumns + ") SELECT " + movedColumns +
+                " FROM " + tableName + xidCondition + " AND VERSION = ?" + domainCondition;
+
+        this.deleteVersionSql = "DELETE FROM " + tableName + xidCondition + " AND VERSION = ?" + domainCondition;
+
+        this.selectDeadLettersSql = "SELECT " + movedColumns + " FROM " + deadLetterTableName + (withDomain ? " WHERE DOMAIN = ?" : "");
+
+        this.requeueSql = "INSERT INTO " + tableName + "(" + movedColumns + ") SELECT " + movedColumns +
+                " FROM " + deadLetterTableName + xidCondition + domainCondition;
+
+        // the dead letter table has no XID_HASH, the requeued rows get it back here
+        this.resetRequeuedSql = "UPDATE " + tableName + " SET RETRIED_COUNT = 0" + nextRetryTimeSet + xidHashSet + xidCondition + domainCondition;
+
+        this.deleteDeadLetterSql = "DELETE FROM " + deadLetterTableName + xidCondition + domainCondition;
+
+        getSelectByXidsSql(1);
+        getSelectByXidsSql(dialect.getMaxXidsPerQuery());
+    }
+
+    public Dialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Whether the statements read and write NEXT_RETRY_TIME, which then takes a parameter after VERSION.
+     */
+    public boolean hasNextRetryTime() {
+        return withNextRetryTime;
+    }
+
+    /**
+     * Whether the insert writes XID_HASH, after NEXT_RETRY_TIME, and the pages of the recovery scan can be narrowed
+     * to the recover buckets.
+     */
+    public boolean hasXidHash() {
+        return withXidHash;
+    }
+
+    public String getInsertSql() {
+        return insertSql;
+    }
+
+    public String getUpdateSql() {
+        return updateSql;
+    }
+
+    /**
+     * Updates the status and retried count columns without rewriting CONTENT.
+     */
+    public String getUpdateStateSql() {
+        return updateStateSql;
+    }
+
+    /**
+     * Updates NEXT_RETRY_TIME alone, provided the version did not change. Only with the column.
+     */
+    public String getUpdateNextRetryTimeSql() {
+        return updateNextRetryTimeSql;
+    }
+
+    public String getDeleteSql() {
+        return deleteSql;
+    }
+
+    public String getSelectUnmodifiedSinceSql() {
+        return selectUnmodifiedSinceSql;
+    }
+
+    /**
+     * A range read on NEXT_RETRY_TIME, which is to be indexed, taking the time the transactions are due at and the
+     * time the transactions without a next retry time were last updated before. Only the latter without the column.
+     */
+    public String getSelectDueForRetrySql() {
+        return selectDueForRetrySql;
+    }
+
+    /**
+     * The next {@code batchSize} transactions due with a next retry time, after a (NEXT_RETRY_TIME, TRANSACTION_ID)
+     * pair bound as the time, the time again and the id, then the {@code bucketCount} buckets if any, see
+     * {@link Dialect#getBucketsCondition(int)}. Statements are cached per batch size and bucket count. Only with the
+     * column.
+     */
+    public String getSelectDueForRetryPageSql(int batchSize, int bucketCount) {
+        return getPageSql(selectDueForRetryPageSqls, selectDueForRetryPageWhere, " ORDER BY NEXT_RETRY_TIME,TRANSACTION_ID ", batchSize, bucketCount);
+    }
+
+    /**
+     * The next {@code batchSize} transactions due without a next retry time, after a TRANSACTION_ID, then the
+     * {@code bucketCount} buckets if any.
+     */
+    public String getSelectUntimedDueForRetryPageSql(int batchSize, int bucketCount) {
+        return getPageSql(selectUntimedDueForRetryPageSqls, selectUntimedDueForRetryPageWhere, " ORDER BY TRANSACTION_ID ", batchSize, bucketCount);
+    }
+
+    private String getPageSql(ConcurrentMap<Long, String> pageSqls, String where, String orderBy, int batchSize, int bucketCount) {
+
+        if (!withXidHash) {
+            bucketCount = 0;
+        }
+
+        Long key = ((long) batchSize << 32) | bucketCount;
+
+        String sql = pageSqls.get(key);
+
+        if (sql == null) {
+            sql = where + (bucketCount > 0 ? " AND " + dialect.getBucketsCondition(bucketCount) : "") + domainCondition +
+                    orderBy + dialect.getLimitClause(batchSize);
+            String existing = pageSqls.putIfAbsent(key, sql);
+            if (existing != null) {
+                sql = existing;
+            }
+        }
+
+        return sql;
+    }
+
+    /**
+     * Takes over a lease held by the same owner or expired, the lease table always has the DOMAIN column, empty
+     * when the repository has no domain.
+     */
+    public String getRenewLeaseSql() {
+        return renewLeaseSql;
+    }
+
+    public String getInsertLeaseSql() {
+        return insertLeaseSql;
+    }
+
+    public String getReleaseLeaseSql() {
+        return releaseLeaseSql;
+    }
+
+    public String getSelectLeaseOwnersSql() {
+        return selectLeaseOwnersSql;
+    }
+
+    public String getDeleteExpiredLeasesSql() {
+        return deleteExpiredLeasesSql;
+    }
+
+    /**
+     * Copies the row of a transaction into the dead letter table, provided its version did not change.
+     */
+    public String getMoveToDeadLetterSql() {
+        return moveToDeadLetterSql;
+    }
+
+    public String getDeleteVersionSql() {
+        return deleteVersionSql;
+    }
+
+    public String getSelectDeadLettersSql() {
+        return selectDeadLettersSql;
+    }
+
+    public String getRequeueSql() {
+        return requeueSql;
+    }
+
+    public String getResetRequeuedSql() {
+        return resetRequeuedSql;
+    }
+
+    public String getDeleteDeadLetterSql() {
+        return deleteDeadLetterSql;
+    }
+
+    /**
+     * The select matching {@code count} xids, statements are cached per count so a chunked lookup only
+     * builds the full-size and the trailing statement once.
+     */
+    public String getSelectByXidsSql(int count) {
+
+        String sql = selectByXidsSqls.get(count);
+
+        if (sql == null) {
+            sql = selectPrefix + dialect.getXidsCondition(count) + domainCondition;
+            String existing = selectByXidsSqls.putIfAbsent(count, sql);
+            if (existing != null) {
+                sql = existing;
+            }
+        }
+
+        return sql;
+    }
+}
@@ -6,10 +6,13 @@ import org.apache.commons.lang3.time.DateUtils;
 import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.utils.ByteUtils;
 
 import java.text.ParseException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,6 +21,11 @@ import java.util.Map;
  */
 public class ExpandTransactionSerializer {
 
+    /**
+     * The field holding the next retry time in milliseconds, written by the repository as it depends on its settings.
+     */
+    public static final byte[] NEXT_RETRY_TIME = "NEXT_RETRY_TIME".getBytes();
+
     public static Map<byte[], byte[]> serialize(ObjectSerializer serializer, Transaction transaction) {
 
         Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
@@ -30,18 +38,37 @@ public class ExpandTransactionSerializer {
         map.put("CREATE_TIME".getBytes(), DateFormatUtils.format(transaction.getCreateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
         map.put("LAST_UPDATE_TIME".getBytes(), DateFormatUtils.format(transaction.getLastUpdateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
         map.put("VERSION".getBytes(), ByteUtils.longToBytes(transaction.getVersion()));
-        map.put("CONTENT".getBytes(), serializer.serialize(transaction));
-        map.put("CONTENT_VIEW".getBytes(), JSON.toJSONString(transaction).getBytes());
+        map.put("CONTENT".getBytes(), LazyTransaction.contentOf(serializer, transaction));
+
+        if (transaction instanceof LazyTransaction) {
+            LazyTransaction lazyTransaction = (LazyTransaction) transaction;
+            // the stored view still shows the unchanged participants, keep it rather than decoding the content for it
+            if (lazyTransaction.isMaterialized()) {
+                map.put("CONTENT_VIEW".getBytes(), JSON.toJSONString(lazyTransaction.toTransaction()).getBytes());
+            }
+        } else {
+            map.put("CONTENT_VIEW".getBytes(), JSON.toJSONString(transaction).getBytes());
+        }
         return map;
     }
 
-    public static Transaction deserialize(ObjectSerializer serializer, Map<byte[], byte[]> map1) {
+    /**
+     * The fields changed by a status or retried count update, CONTENT and CONTENT_VIEW are left out.
+     */
+    public static Map<byte[], byte[]> serializeState(Transaction transaction) {
 
-        Map<String, byte[]> propertyMap = new HashMap<String, byte[]>();
+        Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
 
-        for (Map.Entry<byte[], byte[]> entry : map1.entrySet()) {
-            propertyMap.put(new String(entry.getKey()), entry.getValue());
-        }
+        map.put("STATUS".getBytes(), ByteUtils.intToBytes(transaction.getStatus().getId()));
+        map.put("RETRIED_COUNT".getBytes(), ByteUtils.intToBytes(transaction.getRetriedCount()));
+        map.put("LAST_UPDATE_TIME".getBytes(), DateFormatUtils.format(transaction.getLastUpdateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
+        map.put("VERSION".getBytes(), ByteUtils.longToBytes(transaction.getVersion()));
+        return map;
+    }
+
+    public static Transaction deserialize(ObjectSerializer serializer, Map<byte[], byte[]> map1) {
+
+        Map<String, byte[]> propertyMap = toPropertyMap(map1);
 
         byte[] content = propertyMap.get("CONTENT");
         Transaction transaction = (Transaction) serializer.deserialize(content);
@@ -55,6 +82,46 @@ public class ExpandTransactionSerializer {
         }
 
         transaction.setVersion(ByteUtils.bytesToLong(propertyMap.get("VERSION")));
+        transaction.setNextRetryTime(nextRetryTimeOf(propertyMap));
         return transaction;
     }
+
+    /**
+     * Decodes the metadata fields only, CONTENT is deserialized when the returned transaction first needs it.
+     */
+    public static Transaction deserializeLazily(ObjectSerializer serializer, Map<byte[], byte[]> map1) {
+
+        Map<String, byte[]> propertyMap = toPropertyMap(map1);
+
+        try {
+            Transaction transaction = new LazyTransaction(serializer, propertyMap.get("CONTENT"), 0,
+                    new TransactionXid(propertyMap.get("GLOBAL_TX_ID"), propertyMap.get("BRANCH_QUALIFIER")),
+                    TransactionStatus.valueOf(ByteUtils.bytesToInt(propertyMap.get("STATUS"))),
+                    TransactionType.valueOf(ByteUtils.bytesToInt(propertyMap.get("TRANSACTION_TYPE"))),
+                    ByteUtils.bytesToInt(propertyMap.get("RETRIED_COUNT")),
+                    DateUtils.parseDate(new String(propertyMap.get("CREATE_TIME")), "yyyy-MM-dd HH:mm:ss"),
+                    DateUtils.parseDate(new String(propertyMap.get("LAST_UPDATE_TIME")), "yyyy-MM-dd HH:mm:ss"),
+                    ByteUtils.bytesToLong(propertyMap.get("VERSION")));
+            transaction.setNextRetryTime(nextRetryTimeOf(propertyMap));
+            return transaction;
+        } catch (ParseException e) {
+            throw new SystemException(e);
+        }
+    }
+
+    private static Date nextRetryTimeOf(Map<String, byte[]> propertyMap) {
+        byte[] nextRetryTime = propertyMap.get("NEXT_RETRY_TIME");
+        return nextRetryTime != null ? new Date(ByteUtils.bytesToLong(nextRetryTime)) : null;
+    }
+
+    private static Map<String, byte[]> toPropertyMap(Map<byte[], byte[]> map1) {
+
+        Map<String, byte[]> propertyMap = new HashMap<String, byte[]>();
+
+        for (Map.Entry<byte[], byte[]> entry : map1.entrySet()) {
+            propertyMap.put(new String(entry.getKey()), entry.getValue());
+        }
+
+        return propertyMap;
+    }
 }
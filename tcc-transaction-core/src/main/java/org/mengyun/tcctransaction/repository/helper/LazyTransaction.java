@@ -0,0 +1,136 @@
+package org.mengyun.tcctransaction.repository.helper;
+
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A transaction read from its stored metadata only. The content, holding the participants, their invocation
+ * arguments and the attachments, is deserialized the first time one of them is needed, e.g. on commit or rollback.
+ * <p/>
+ * Until then, writing the transaction back reuses the stored content as is, see {@link #contentOf}.
+ */
+public class LazyTransaction extends Transaction {
+
+    private static final long serialVersionUID = -2436151758327214307L;
+
+    private transient ObjectSerializer serializer;
+
+    private transient volatile byte[] content;
+
+    private transient int contentOffset;
+
+    public LazyTransaction(ObjectSerializer serializer, byte[] content, int contentOffset,
+                           TransactionXid xid, TransactionStatus status, TransactionType transactionType, int retriedCount,
+                           Date createTime, Date lastUpdateTime, long version) {
+        super(xid, status, transactionType, retriedCount, createTime, lastUpdateTime, version,
+                Collections.<Participant>emptyList(), Collections.<String, Object>emptyMap());
+        this.serializer = serializer;
+        this.content = content;
+        this.contentOffset = contentOffset;
+    }
+
+    /**
+     * The content to store for a transaction: the stored content of a lazy transaction not materialized yet,
+     * otherwise the transaction serialized by the serializer.
+     */
+    public static byte[] contentOf(ObjectSerializer serializer, Transaction transaction) {
+
+        if (transaction instanceof LazyTransaction) {
+            LazyTransaction lazyTransaction = (LazyTransaction) transaction;
+            byte[] rawContent = lazyTransaction.rawContent(serializer);
+            return rawContent != null ? rawContent : serializer.serialize(lazyTransaction.toTransaction());
+        }
+
+        return serializer.serialize(transaction);
+    }
+
+    public boolean isMaterialized() {
+        return content == null;
+    }
+
+    @Override
+    public void enlistParticipant(Participant participant) {
+        materialize();
+        super.enlistParticipant(participant);
+    }
+
+    @Override
+    public List<Participant> getParticipants() {
+        materialize();
+        return super.getParticipants();
+    }
+
+    @Override
+    public Map<String, Object> getAttachments() {
+        materialize();
+        return super.getAttachments();
+    }
+
+    @Override
+    public void commit() {
+        materialize();
+        super.commit();
+    }
+
+    @Override
+    public void rollback() {
+        materialize();
+        super.rollback();
+    }
+
+    /**
+     * A plain transaction with the same state, for serializers that would otherwise write this class.
+     */
+    public Transaction toTransaction() {
+        return new Transaction((TransactionXid) getXid(), getStatus(), getTransactionType(), getRetriedCount(),
+                getCreateTime(), getLastUpdateTime(), getVersion(),
+                new ArrayList<Participant>(getParticipants()), getAttachments());
+    }
+
+    private synchronized byte[] rawContent(ObjectSerializer serializer) {
+
+        if (content == null || serializer != this.serializer) {
+            return null;
+        }
+
+        if (contentOffset == 0) {
+            return content;
+        }
+
+        byte[] bytes = new byte[content.length - contentOffset];
+        System.arraycopy(content, contentOffset, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private void materialize() {
+
+        if (content == null) {
+            return;
+        }
+
+        synchronized (this) {
+
+            if (content == null) {
+                return;
+            }
+
+            byte[] bytes = contentOffset == 0 ? content : rawContent(serializer);
+            Transaction transaction = (Transaction) serializer.deserialize(bytes);
+
+            super.getParticipants().addAll(transaction.getParticipants());
+            super.getAttachments().putAll(transaction.getAttachments());
+
+            content = null;
+        }
+    }
+}
@@ -17,6 +17,7 @@ public class RedisHelper {
     public static int    SCAN_COUNT = 30;
     public static String SCAN_TEST_PATTERN = "*";
     public static String SCAN_INIT_CURSOR  = "0";
+    public static final String DEAD_LETTER_KEY_PREFIX = "DEAD:";
 
     private static final Logger logger = LoggerFactory.getLogger(RedisHelper.class);
 
@@ -46,6 +47,20 @@ public class RedisHelper {
         return new StringBuilder().append("VER:").append(keyPrefix).append(globalTransactionId).append(":").append(branchQualifier).toString().getBytes();
     }
 
+    /**
+     * Key of a recover lease, outside keyPrefix so the scan for transactions does not see it.
+     */
+    public static String getLeaseKey(String keyPrefix, String name) {
+        return new StringBuilder().append("LEASE:").append(keyPrefix).append(name).toString();
+    }
+
+    /**
+     * Key a transaction is renamed to when moved to the dead letters, outside keyPrefix like the leases.
+     */
+    public static byte[] getDeadLetterKey(String keyPrefix, Xid xid) {
+        return new StringBuilder().append(DEAD_LETTER_KEY_PREFIX).append(keyPrefix).append(xid.toString()).toString().getBytes();
+    }
+
     public static <T> T execute(JedisPool jedisPool, JedisCallback<T> callback) {
         Jedis jedis = null;
         try {
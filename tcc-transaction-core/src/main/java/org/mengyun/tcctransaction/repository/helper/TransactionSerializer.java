@@ -1,35 +1,164 @@
 package org.mengyun.tcctransaction.repository.helper;
 
+import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 
+import java.nio.ByteBuffer;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Created by changming.xie on 9/15/16.
+ * <p/>
+ * Writes a transaction as a fixed layout envelope, the metadata at fixed offsets followed by the xid and the content:
+ * <pre>
+ * 0  magic(2) format(1)
+ * 3  status(1) type(1) retriedCount(4) version(8) createTime(8) lastUpdateTime(8)
+ * 33 globalTransactionIdLength(2) branchQualifierLength(2)
+ * 37 nextRetryTime(8)
+ * 45 globalTransactionId branchQualifier content
+ * </pre>
+ * nextRetryTime is 0 when not set. Format 1 envelopes, without nextRetryTime and with the xid at 37, and values
+ * written by earlier versions, a serialized map holding the metadata and the content, are still read.
  */
 public class TransactionSerializer {
 
+    static final byte MAGIC_0 = (byte) 0xC7;
+
+    static final byte MAGIC_1 = (byte) 0xE1;
+
+    static final byte FORMAT_VERSION = 2;
+
+    static final byte FORMAT_VERSION_1 = 1;
+
+    static final int STATUS_OFFSET = 3;
+
+    static final int TRANSACTION_TYPE_OFFSET = 4;
+
+    static final int RETRIED_COUNT_OFFSET = 5;
+
+    static final int VERSION_OFFSET = 9;
+
+    static final int CREATE_TIME_OFFSET = 17;
+
+    static final int LAST_UPDATE_TIME_OFFSET = 25;
+
+    static final int GLOBAL_TX_ID_LENGTH_OFFSET = 33;
+
+    static final int BRANCH_QUALIFIER_LENGTH_OFFSET = 35;
+
+    static final int NEXT_RETRY_TIME_OFFSET = 37;
+
+    static final int HEADER_LENGTH = 45;
+
+    static final int HEADER_LENGTH_1 = 37;
+
     public static byte[] serialize(ObjectSerializer serializer, Transaction transaction) {
-        Map<String, Object> map = new HashMap<String, Object>();
-
-        map.put("GLOBAL_TX_ID", transaction.getXid().getGlobalTransactionId());
-        map.put("BRANCH_QUALIFIER", transaction.getXid().getBranchQualifier());
-        map.put("STATUS", transaction.getStatus().getId());
-        map.put("TRANSACTION_TYPE", transaction.getTransactionType().getId());
-        map.put("RETRIED_COUNT", transaction.getRetriedCount());
-        map.put("CREATE_TIME", transaction.getCreateTime());
-        map.put("LAST_UPDATE_TIME", transaction.getLastUpdateTime());
-        map.put("VERSION", transaction.getVersion());
-        map.put("CONTENT", serializer.serialize(transaction));
-
-        return serializer.serialize(map);
+
+        byte[] globalTransactionId = transaction.getXid().getGlobalTransactionId();
+        byte[] branchQualifier = transaction.getXid().getBranchQualifier();
+        byte[] content = LazyTransaction.contentOf(serializer, transaction);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + globalTransactionId.length + branchQualifier.length + content.length);
+
+        buffer.put(MAGIC_0).put(MAGIC_1).put(FORMAT_VERSION);
+        buffer.put((byte) transaction.getStatus().getId());
+        buffer.put((byte) transaction.getTransactionType().getId());
+        buffer.putInt(transaction.getRetriedCount());
+        buffer.putLong(transaction.getVersion());
+        buffer.putLong(transaction.getCreateTime().getTime());
+        buffer.putLong(transaction.getLastUpdateTime().getTime());
+        buffer.putShort((short) globalTransactionId.length);
+        buffer.putShort((short) branchQualifier.length);
+        buffer.putLong(transaction.getNextRetryTime() != null ? transaction.getNextRetryTime().getTime() : 0L);
+        buffer.put(globalTransactionId).put(branchQualifier).put(content);
+
+        return buffer.array();
     }
 
     public static Transaction deserialize(ObjectSerializer serializer, byte[] value) {
 
+        if (!isEnvelope(value)) {
+            return deserializeMap(serializer, value);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+
+        int contentOffset = headerLength(value) + buffer.getShort(GLOBAL_TX_ID_LENGTH_OFFSET) + buffer.getShort(BRANCH_QUALIFIER_LENGTH_OFFSET);
+        byte[] content = new byte[value.length - contentOffset];
+        System.arraycopy(value, contentOffset, content, 0, content.length);
+
+        Transaction transaction = (Transaction) serializer.deserialize(content);
+        transaction.changeStatus(TransactionStatus.valueOf(buffer.get(STATUS_OFFSET)));
+        transaction.resetRetriedCount(buffer.getInt(RETRIED_COUNT_OFFSET));
+        transaction.setLastUpdateTime(new Date(buffer.getLong(LAST_UPDATE_TIME_OFFSET)));
+        transaction.setVersion(buffer.getLong(VERSION_OFFSET));
+        transaction.setNextRetryTime(nextRetryTimeOf(value));
+        return transaction;
+    }
+
+    /**
+     * Decodes the header only, the content is deserialized when the returned transaction first needs it.
+     * Values in the old map format are fully deserialized.
+     */
+    public static Transaction deserializeLazily(ObjectSerializer serializer, byte[] value) {
+
+        if (!isEnvelope(value)) {
+            return deserializeMap(serializer, value);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+
+        byte[] globalTransactionId = new byte[buffer.getShort(GLOBAL_TX_ID_LENGTH_OFFSET)];
+        byte[] branchQualifier = new byte[buffer.getShort(BRANCH_QUALIFIER_LENGTH_OFFSET)];
+        buffer.position(headerLength(value));
+        buffer.get(globalTransactionId).get(branchQualifier);
+
+        Transaction transaction = new LazyTransaction(serializer, value, buffer.position(),
+                new TransactionXid(globalTransactionId, branchQualifier),
+                TransactionStatus.valueOf(buffer.get(STATUS_OFFSET)),
+                TransactionType.valueOf(buffer.get(TRANSACTION_TYPE_OFFSET)),
+                buffer.getInt(RETRIED_COUNT_OFFSET),
+                new Date(buffer.getLong(CREATE_TIME_OFFSET)),
+                new Date(buffer.getLong(LAST_UPDATE_TIME_OFFSET)),
+                buffer.getLong(VERSION_OFFSET));
+        transaction.setNextRetryTime(nextRetryTimeOf(value));
+        return transaction;
+    }
+
+    public static boolean isEnvelope(byte[] value) {
+
+        if (value == null || value.length < HEADER_LENGTH_1 || value[0] != MAGIC_0 || value[1] != MAGIC_1) {
+            return false;
+        }
+
+        if (value[2] != FORMAT_VERSION && value[2] != FORMAT_VERSION_1) {
+            throw new SystemException("unsupported transaction envelope format version:" + value[2]);
+        }
+
+        return true;
+    }
+
+    private static int headerLength(byte[] value) {
+        return value[2] == FORMAT_VERSION_1 ? HEADER_LENGTH_1 : HEADER_LENGTH;
+    }
+
+    private static Date nextRetryTimeOf(byte[] value) {
+
+        if (value[2] == FORMAT_VERSION_1) {
+            return null;
+        }
+
+        long nextRetryTime = ByteBuffer.wrap(value).getLong(NEXT_RETRY_TIME_OFFSET);
+        return nextRetryTime != 0L ? new Date(nextRetryTime) : null;
+    }
+
+    private static Transaction deserializeMap(ObjectSerializer serializer, byte[] value) {
+
         Map<String, Object> map = (Map<String, Object>) serializer.deserialize(value);
 
         byte[] content = (byte[]) map.get("CONTENT");
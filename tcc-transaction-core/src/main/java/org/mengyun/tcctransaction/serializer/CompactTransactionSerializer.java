@@ -0,0 +1,295 @@
+package org.mengyun.tcctransaction.serializer;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes Transaction, Participant and InvocationContext field by field in a versioned binary format, so the stored
+ * content no longer carries class names of the tcc classes nor reference tracking. Only the method arguments and the
+ * attachments, whose types are unknown, go through the delegate serializer.
+ * <p/>
+ * The format starts with two magic bytes and a format version. Content without the magic bytes, such as rows written
+ * by the previous serializers, and any object other than a Transaction are handed to the delegate, so the delegate
+ * must be the serializer used so far.
+ * <p/>
+ * Format version 1:
+ * <pre>
+ * magic(2) version(1)
+ * globalTransactionId branchQualifier status type retriedCount createTime lastUpdateTime version
+ * participantCount { xid? confirmContext cancelContext transactionContextEditorClass }
+ * attachments?
+ * </pre>
+ * Class names are written once per content and referred to by index afterwards.
+ */
+public class CompactTransactionSerializer implements ObjectSerializer<Object> {
+
+    static final byte MAGIC_0 = (byte) 0xC7;
+
+    static final byte MAGIC_1 = (byte) 0xCB;
+
+    static final byte FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 3;
+
+    private static final Map<String, Class> PRIMITIVE_CLASSES = new HashMap<String, Class>();
+
+    static {
+        for (Class clazz : new Class[]{boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class}) {
+            PRIMITIVE_CLASSES.put(clazz.getName(), clazz);
+        }
+    }
+
+    private final ObjectSerializer delegate;
+
+    private final Map<String, Class> classCache = new ConcurrentHashMap<String, Class>();
+
+    public CompactTransactionSerializer() {
+        this(new KryoPoolSerializer());
+    }
+
+    public CompactTransactionSerializer(ObjectSerializer delegate) {
+        this.delegate = delegate;
+    }
+
+    public static boolean isCompact(byte[] bytes) {
+        return bytes != null && bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    @Override
+    public byte[] serialize(Object object) {
+
+        if (!(object instanceof Transaction)) {
+            return delegate.serialize(object);
+        }
+
+        Transaction transaction = (Transaction) object;
+
+        Output output = new Output(256, -1);
+        output.writeByte(MAGIC_0);
+        output.writeByte(MAGIC_1);
+        output.writeByte(FORMAT_VERSION);
+
+        TransactionXid xid = (TransactionXid) transaction.getXid();
+        writeBytes(output, xid.getGlobalTransactionId());
+        writeBytes(output, xid.getBranchQualifier());
+        output.writeVarInt(transaction.getStatus().getId(), true);
+        output.writeVarInt(transaction.getTransactionType().getId(), true);
+        output.writeVarInt(transaction.getRetriedCount(), true);
+        output.writeLong(transaction.getCreateTime().getTime());
+        output.writeLong(transaction.getLastUpdateTime().getTime());
+        output.writeVarLong(transaction.getVersion(), true);
+
+        List<String> classNames = new ArrayList<String>();
+
+        List<Participant> participants = transaction.getParticipants();
+        output.writeVarInt(participants.size(), true);
+
+        for (Participant participant : participants) {
+            TransactionXid participantXid = participant.getXid();
+            output.writeBoolean(participantXid != null);
+            if (participantXid != null) {
+                writeBytes(output, participantXid.getGlobalTransactionId());
+                writeBytes(output, participantXid.getBranchQualifier());
+            }
+            writeInvocationContext(output, participant.getConfirmInvocationContext(), classNames);
+            writeInvocationContext(output, participant.getCancelInvocationContext(), classNames);
+            writeClass(output, participant.getTransactionContextEditorClass(), classNames);
+        }
+
+        Map<String, Object> attachments = transaction.getAttachments();
+        output.writeBoolean(!attachments.isEmpty());
+        if (!attachments.isEmpty()) {
+            writeBytes(output, delegate.serialize(new HashMap<String, Object>(attachments)));
+        }
+
+        return output.toBytes();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+
+        if (!isCompact(bytes)) {
+            return delegate.deserialize(bytes);
+        }
+
+        if (bytes[2] != FORMAT_VERSION) {
+            throw new SystemException("unsupported compact transaction format version:" + bytes[2]);
+        }
+
+        Input input = new Input(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+
+        TransactionXid xid = new TransactionXid(readBytes(input), readBytes(input));
+        TransactionStatus status = TransactionStatus.valueOf(input.readVarInt(true));
+        TransactionType transactionType = TransactionType.valueOf(input.readVarInt(true));
+        int retriedCount = input.readVarInt(true);
+        Date createTime = new Date(input.readLong());
+        Date lastUpdateTime = new Date(input.readLong());
+        long version = input.readVarLong(true);
+
+        List<Class> classes = new ArrayList<Class>();
+
+        int participantCount = input.readVarInt(true);
+        List<Participant> participants = new ArrayList<Participant>(participantCount);
+
+        for (int i = 0; i < participantCount; i++) {
+            TransactionXid participantXid = input.readBoolean() ? new TransactionXid(readBytes(input), readBytes(input)) : null;
+            InvocationContext confirmInvocationContext = readInvocationContext(input, classes);
+            InvocationContext cancelInvocationContext = readInvocationContext(input, classes);
+            Class<? extends TransactionContextEditor> transactionContextEditorClass = readClass(input, classes);
+            participants.add(new Participant(participantXid, confirmInvocationContext, cancelInvocationContext, transactionContextEditorClass));
+        }
+
+        Map<String, Object> attachments = Collections.emptyMap();
+        if (input.readBoolean()) {
+            attachments = (Map<String, Object>) delegate.deserialize(readBytes(input));
+        }
+
+        return new Transaction(xid, status, transactionType, retriedCount, createTime, lastUpdateTime, version, participants, attachments);
+    }
+
+    @Override
+    public Object clone(Object object) {
+
+        if (!(object instanceof Transaction)) {
+            return delegate.clone(object);
+        }
+
+        return deserialize(serialize(object));
+    }
+
+    private void writeInvocationContext(Output output, InvocationContext invocationContext, List<String> classNames) {
+
+        output.writeBoolean(invocationContext != null);
+
+        if (invocationContext == null) {
+            return;
+        }
+
+        writeClass(output, invocationContext.getTargetClass(), classNames);
+        output.writeString(invocationContext.getMethodName());
+
+        Class[] parameterTypes = invocationContext.getParameterTypes();
+        output.writeVarInt(parameterTypes == null ? 0 : parameterTypes.length + 1, true);
+        if (parameterTypes != null) {
+            for (Class parameterType : parameterTypes) {
+                writeClass(output, parameterType, classNames);
+            }
+        }
+
+        Object[] args = invocationContext.getArgs();
+        output.writeBoolean(args != null);
+        if (args != null) {
+            writeBytes(output, delegate.serialize(args));
+        }
+    }
+
+    private InvocationContext readInvocationContext(Input input, List<Class> classes) {
+
+        if (!input.readBoolean()) {
+            return null;
+        }
+
+        Class targetClass = readClass(input, classes);
+        String methodName = input.readString();
+
+        Class[] parameterTypes = null;
+        int parameterCount = input.readVarInt(true);
+        if (parameterCount > 0) {
+            parameterTypes = new Class[parameterCount - 1];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                parameterTypes[i] = readClass(input, classes);
+            }
+        }
+
+        Object[] args = null;
+        if (input.readBoolean()) {
+            args = (Object[]) delegate.deserialize(readBytes(input));
+        }
+
+        return new InvocationContext(targetClass, methodName, parameterTypes, args);
+    }
+
+    /**
+     * 0 is null, n > 0 refers to the n-th class name already written, -1 is followed by a new class name.
+     */
+    private void writeClass(Output output, Class clazz, List<String> classNames) {
+
+        if (clazz == null) {
+            output.writeVarInt(0, false);
+            return;
+        }
+
+        int index = classNames.indexOf(clazz.getName());
+
+        if (index >= 0) {
+            output.writeVarInt(index + 1, false);
+        } else {
+            output.writeVarInt(-1, false);
+            output.writeString(clazz.getName());
+            classNames.add(clazz.getName());
+        }
+    }
+
+    private Class readClass(Input input, List<Class> classes) {
+
+        int index = input.readVarInt(false);
+
+        if (index == 0) {
+            return null;
+        }
+
+        if (index > 0) {
+            return classes.get(index - 1);
+        }
+
+        Class clazz = loadClass(input.readString());
+        classes.add(clazz);
+        return clazz;
+    }
+
+    private Class loadClass(String className) {
+
+        Class clazz = classCache.get(className);
+
+        if (clazz == null) {
+            clazz = PRIMITIVE_CLASSES.get(className);
+        }
+
+        if (clazz == null) {
+            try {
+                ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+                clazz = Class.forName(className, false, classLoader != null ? classLoader : CompactTransactionSerializer.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new SystemException(e);
+            }
+            classCache.put(className, clazz);
+        }
+
+        return clazz;
+    }
+
+    private static void writeBytes(Output output, byte[] bytes) {
+        output.writeVarInt(bytes.length, true);
+        output.writeBytes(bytes);
+    }
+
+    private static byte[] readBytes(Input input) {
+        return input.readBytes(input.readVarInt(true));
+    }
+}
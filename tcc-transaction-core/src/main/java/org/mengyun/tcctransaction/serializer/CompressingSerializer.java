@@ -0,0 +1,145 @@
+package org.mengyun.tcctransaction.serializer;
+
+import org.mengyun.tcctransaction.SystemException;
+
+/**
+ * Compresses the content of the delegate serializer when it is larger than the threshold.
+ * <p/>
+ * Compressed content starts with a 7 bytes header: two magic bytes, the codec id and the raw length, so content is
+ * decompressed with the codec it was written with, and content written without compression, including existing rows,
+ * is passed to the delegate unchanged. Content that does not shrink is stored raw.
+ * <p/>
+ * LZ4 is used when org.lz4:lz4-java is on the classpath, deflate otherwise.
+ */
+public class CompressingSerializer<T> implements ObjectSerializer<T> {
+
+    static final byte MAGIC_0 = (byte) 0xC7;
+
+    static final byte MAGIC_1 = (byte) 0xC0;
+
+    private static final int HEADER_LENGTH = 7;
+
+    private final ObjectSerializer<T> delegate;
+
+    private final CompressionCodec codec;
+
+    private volatile CompressionCodec lz4Codec;
+
+    private final DeflateCompressionCodec deflateCodec = new DeflateCompressionCodec();
+
+    private int threshold = 1024;
+
+    private final CompressionStats stats = new CompressionStats();
+
+    public CompressingSerializer(ObjectSerializer<T> delegate) {
+        this(delegate, null);
+    }
+
+    public CompressingSerializer(ObjectSerializer<T> delegate, CompressionCodec codec) {
+        this.delegate = delegate;
+
+        if (codec == null) {
+            codec = Lz4CompressionCodec.isAvailable() ? getLz4Codec() : deflateCodec;
+        }
+
+        this.codec = codec;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public CompressionStats getStats() {
+        return stats;
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    public ObjectSerializer<T> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public byte[] serialize(T object) {
+
+        byte[] bytes = delegate.serialize(object);
+
+        if (bytes == null || bytes.length < threshold) {
+            stats.recordUncompressed();
+            return bytes;
+        }
+
+        long start = System.nanoTime();
+        byte[] compressed = codec.compress(bytes);
+
+        if (compressed.length + HEADER_LENGTH >= bytes.length) {
+            stats.recordUncompressed();
+            return bytes;
+        }
+
+        byte[] result = new byte[HEADER_LENGTH + compressed.length];
+        result[0] = MAGIC_0;
+        result[1] = MAGIC_1;
+        result[2] = codec.getId();
+        result[3] = (byte) (bytes.length >>> 24);
+        result[4] = (byte) (bytes.length >>> 16);
+        result[5] = (byte) (bytes.length >>> 8);
+        result[6] = (byte) bytes.length;
+        System.arraycopy(compressed, 0, result, HEADER_LENGTH, compressed.length);
+
+        stats.recordCompression(bytes.length, result.length, System.nanoTime() - start);
+
+        return result;
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+
+        if (!isCompressed(bytes)) {
+            return delegate.deserialize(bytes);
+        }
+
+        long start = System.nanoTime();
+
+        int originalLength = ((bytes[3] & 0xFF) << 24) | ((bytes[4] & 0xFF) << 16) | ((bytes[5] & 0xFF) << 8) | (bytes[6] & 0xFF);
+        byte[] raw = codecOf(bytes[2]).decompress(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, originalLength);
+
+        stats.recordDecompression(System.nanoTime() - start);
+
+        return delegate.deserialize(raw);
+    }
+
+    @Override
+    public T clone(T object) {
+        return delegate.clone(object);
+    }
+
+    public static boolean isCompressed(byte[] bytes) {
+        return bytes != null && bytes.length > HEADER_LENGTH && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    private CompressionCodec codecOf(byte id) {
+
+        if (id == codec.getId()) {
+            return codec;
+        }
+
+        switch (id) {
+            case Lz4CompressionCodec.ID:
+                return getLz4Codec();
+            case DeflateCompressionCodec.ID:
+                return deflateCodec;
+            default:
+                throw new SystemException("unknown compression codec id:" + id);
+        }
+    }
+
+    private CompressionCodec getLz4Codec() {
+        if (lz4Codec == null) {
+            lz4Codec = new Lz4CompressionCodec();
+        }
+        return lz4Codec;
+    }
+}
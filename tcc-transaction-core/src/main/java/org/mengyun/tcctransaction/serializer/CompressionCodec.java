@@ -0,0 +1,13 @@
+package org.mengyun.tcctransaction.serializer;
+
+/**
+ * Compression algorithm used by {@link CompressingSerializer}. The id is stored in the content header.
+ */
+public interface CompressionCodec {
+
+    byte getId();
+
+    byte[] compress(byte[] bytes);
+
+    byte[] decompress(byte[] bytes, int offset, int length, int originalLength);
+}
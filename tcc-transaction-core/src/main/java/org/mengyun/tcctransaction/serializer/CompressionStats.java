@@ -0,0 +1,85 @@
+package org.mengyun.tcctransaction.serializer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a {@link CompressingSerializer}. Raw and compressed byte counts only cover the compressed payloads.
+ */
+public class CompressionStats {
+
+    private final AtomicLong compressedCount = new AtomicLong();
+
+    private final AtomicLong uncompressedCount = new AtomicLong();
+
+    private final AtomicLong rawBytes = new AtomicLong();
+
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    private final AtomicLong decompressedCount = new AtomicLong();
+
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    void recordCompression(int rawLength, int compressedLength, long nanos) {
+        compressedCount.incrementAndGet();
+        rawBytes.addAndGet(rawLength);
+        compressedBytes.addAndGet(compressedLength);
+        compressNanos.addAndGet(nanos);
+    }
+
+    void recordUncompressed() {
+        uncompressedCount.incrementAndGet();
+    }
+
+    void recordDecompression(long nanos) {
+        decompressedCount.incrementAndGet();
+        decompressNanos.addAndGet(nanos);
+    }
+
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    public long getUncompressedCount() {
+        return uncompressedCount.get();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Compressed size divided by raw size, 1.0 when nothing was compressed yet.
+     */
+    public double getCompressionRatio() {
+        long raw = rawBytes.get();
+        return raw == 0 ? 1.0 : (double) compressedBytes.get() / raw;
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    public long getDecompressedCount() {
+        return decompressedCount.get();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats{compressedCount=" + getCompressedCount()
+                + ", uncompressedCount=" + getUncompressedCount()
+                + ", compressionRatio=" + getCompressionRatio()
+                + ", compressNanos=" + getCompressNanos()
+                + ", decompressedCount=" + getDecompressedCount()
+                + ", decompressNanos=" + getDecompressNanos() + "}";
+    }
+}
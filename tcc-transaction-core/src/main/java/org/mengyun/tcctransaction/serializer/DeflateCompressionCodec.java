@@ -0,0 +1,81 @@
+package org.mengyun.tcctransaction.serializer;
+
+import org.mengyun.tcctransaction.SystemException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression from the JDK, used when LZ4 is not on the classpath.
+ */
+public class DeflateCompressionCodec implements CompressionCodec {
+
+    public static final byte ID = 2;
+
+    private int level = Deflater.BEST_SPEED;
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+
+        Deflater deflater = new Deflater(level);
+
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, count);
+            }
+
+            return outputStream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes, int offset, int length, int originalLength) {
+
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(bytes, offset, length);
+
+            byte[] result = new byte[originalLength];
+            int count = 0;
+
+            while (count < originalLength && !inflater.finished()) {
+                int inflated = inflater.inflate(result, count, originalLength - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += inflated;
+            }
+
+            if (count != originalLength) {
+                throw new SystemException("corrupted compressed content, expected " + originalLength + " bytes but inflated " + count);
+            }
+
+            return result;
+        } catch (DataFormatException e) {
+            throw new SystemException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
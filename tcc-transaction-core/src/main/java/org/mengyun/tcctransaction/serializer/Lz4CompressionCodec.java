@@ -0,0 +1,49 @@
+package org.mengyun.tcctransaction.serializer;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * LZ4 block compression, requires org.lz4:lz4-java on the classpath.
+ */
+public class Lz4CompressionCodec implements CompressionCodec {
+
+    public static final byte ID = 1;
+
+    private final LZ4Compressor compressor;
+
+    private final LZ4FastDecompressor decompressor;
+
+    public Lz4CompressionCodec() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.fastDecompressor();
+    }
+
+    public static boolean isAvailable() {
+        try {
+            Class.forName("net.jpountz.lz4.LZ4Factory", false, Lz4CompressionCodec.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        return compressor.compress(bytes);
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes, int offset, int length, int originalLength) {
+        byte[] result = new byte[originalLength];
+        decompressor.decompress(bytes, offset, result, 0, originalLength);
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package org.mengyun.tcctransaction.serializer;
+
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+
+/**
+ * Protostuff serializer, requires io.protostuff:protostuff-core and protostuff-runtime on the classpath.
+ * <p/>
+ * Objects are written inside a wrapper so a single cached runtime schema serves every type, and values held in
+ * fields of type Object, such as the arguments of an InvocationContext, are written with their concrete type.
+ * Each thread reuses its own LinkedBuffer.
+ */
+public class ProtostuffSerializer<T> implements ObjectSerializer<T> {
+
+    private static final Schema<Wrapper> WRAPPER_SCHEMA = RuntimeSchema.getSchema(Wrapper.class);
+
+    private static final ThreadLocal<LinkedBuffer> BUFFERS = new ThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+
+    @Override
+    public byte[] serialize(T object) {
+
+        LinkedBuffer buffer = BUFFERS.get();
+
+        try {
+            return ProtostuffIOUtil.toByteArray(new Wrapper(object), WRAPPER_SCHEMA, buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+
+        if (bytes == null) {
+            return null;
+        }
+
+        Wrapper wrapper = WRAPPER_SCHEMA.newMessage();
+        ProtostuffIOUtil.mergeFrom(bytes, wrapper, WRAPPER_SCHEMA);
+        return (T) wrapper.value;
+    }
+
+    @Override
+    public T clone(T object) {
+        return deserialize(serialize(object));
+    }
+
+    static class Wrapper {
+
+        private Object value;
+
+        Wrapper() {
+
+        }
+
+        Wrapper(Object value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.mengyun.tcctransaction.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Terminator;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kryo serializer that keeps one Kryo, Output and Input per thread, created on first use, and registers the core
+ * tcc classes so they are written as small ids instead of class names.
+ * <p/>
+ * Content written by KryoPoolSerializer is still readable, content written by this serializer is not readable by
+ * KryoPoolSerializer. Registration ids are part of the stored format: extra classes must always be given in the
+ * same order, and only appended.
+ */
+public class RegisterableKryoSerializer<T> implements ObjectSerializer<T> {
+
+    private static final int FIRST_REGISTRATION_ID = 100;
+
+    private static final Class[] CORE_CLASSES = new Class[]{
+            Transaction.class,
+            Participant.class,
+            InvocationContext.class,
+            Terminator.class,
+            TransactionXid.class,
+            TransactionStatus.class,
+            TransactionType.class,
+            Date.class,
+            ArrayList.class,
+            HashMap.class,
+            ConcurrentHashMap.class,
+            Class.class,
+            Class[].class,
+            Object[].class,
+            byte[].class,
+            BigDecimal.class
+    };
+
+    private final List<Class> registeredClasses;
+
+    private int initialBufferSize = 1024;
+
+    private int maxRetainedBufferSize = 64 * 1024;
+
+    private final ThreadLocal<KryoHolder> holders = new ThreadLocal<KryoHolder>() {
+        @Override
+        protected KryoHolder initialValue() {
+            return new KryoHolder(createKryo(), initialBufferSize);
+        }
+    };
+
+    public RegisterableKryoSerializer() {
+        this(new Class[0]);
+    }
+
+    public RegisterableKryoSerializer(Class... classes) {
+        this.registeredClasses = new ArrayList<Class>(Arrays.asList(CORE_CLASSES));
+        this.registeredClasses.addAll(Arrays.asList(classes));
+    }
+
+    public void setInitialBufferSize(int initialBufferSize) {
+        this.initialBufferSize = initialBufferSize;
+    }
+
+    /**
+     * A per-thread output buffer that grew beyond this size for a large payload is dropped after use.
+     */
+    public void setMaxRetainedBufferSize(int maxRetainedBufferSize) {
+        this.maxRetainedBufferSize = maxRetainedBufferSize;
+    }
+
+    protected Kryo createKryo() {
+
+        Kryo kryo = new Kryo();
+        kryo.setReferences(true);
+        kryo.setRegistrationRequired(false);
+        //Fix the NPE bug when deserializing Collections.
+        ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
+                .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+
+        int id = FIRST_REGISTRATION_ID;
+        for (Class clazz : registeredClasses) {
+            kryo.register(clazz, id++);
+        }
+
+        return kryo;
+    }
+
+    @Override
+    public byte[] serialize(T object) {
+
+        KryoHolder holder = holders.get();
+        Output output = holder.output;
+
+        try {
+            holder.kryo.writeClassAndObject(output, object);
+            return output.toBytes();
+        } finally {
+            if (output.getBuffer().length > maxRetainedBufferSize) {
+                holder.output = new Output(initialBufferSize, -1);
+            } else {
+                output.clear();
+            }
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        return deserialize(bytes, 0, bytes.length);
+    }
+
+    public T deserialize(byte[] bytes, int offset, int length) {
+
+        KryoHolder holder = holders.get();
+        Input input = holder.input;
+
+        input.setBuffer(bytes, offset, length);
+
+        try {
+            return (T) holder.kryo.readClassAndObject(input);
+        } finally {
+            input.setBuffer(KryoHolder.EMPTY);
+        }
+    }
+
+    /**
+     * Reads from the remaining bytes of the buffer without changing its position.
+     */
+    public T deserialize(ByteBuffer buffer) {
+
+        if (buffer.hasArray()) {
+            return deserialize(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return deserialize(bytes);
+    }
+
+    @Override
+    public T clone(T object) {
+        return holders.get().kryo.copy(object);
+    }
+
+    private static class KryoHolder {
+
+        private static final byte[] EMPTY = new byte[0];
+
+        private final Kryo kryo;
+
+        private Output output;
+
+        private final Input input = new Input(EMPTY);
+
+        KryoHolder(Kryo kryo, int bufferSize) {
+            this.kryo = kryo;
+            this.output = new Output(bufferSize, -1);
+        }
+    }
+}
@@ -58,6 +58,8 @@ public class TransactionController {
         PageDto<TransactionVo> pageDto;
         if (isDelete.intValue() == 0) {
             pageDto = daoRepository.getDao(domain).findTransactions(pageNum, DEFAULT_PAGE_SIZE);
+        } else if (isDelete.intValue() == 2) {
+            pageDto = daoRepository.getDao(domain).findDeadLetterTransactions(pageNum, DEFAULT_PAGE_SIZE);
         } else {
             pageDto = daoRepository.getDao(domain).findDeletedTransactions(pageNum, DEFAULT_PAGE_SIZE);
         }
@@ -152,6 +154,20 @@ public class TransactionController {
         return new CommonResponse<Void>();
     }
 
+    @RequestMapping(value = "/retry/requeue", method = RequestMethod.PUT)
+    @ResponseBody
+    public CommonResponse<Void> requeue(String domain, String globalTxId, String branchQualifier) {
+
+        logger.info("request /retry/requeue with domain: {} globalTxId: {} branchQualifier: {} ",
+                new Object[]{domain, globalTxId, branchQualifier});
+
+        daoRepository.getDao(domain).requeue(
+                globalTxId,
+                branchQualifier);
+
+        return new CommonResponse<Void>();
+    }
+
     @RequestMapping(value = "/retry/confirm", method = RequestMethod.PUT)
     @ResponseBody
     public CommonResponse<Void> confirm(String domain, String globalTxId, String branchQualifier) {
@@ -1,6 +1,8 @@
 package org.mengyun.tcctransaction.server.dao;
 
 
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.recover.RecoverPartitioner;
 import org.mengyun.tcctransaction.server.dto.PageDto;
 import org.mengyun.tcctransaction.server.vo.PageVo;
 import org.mengyun.tcctransaction.server.vo.TransactionVo;
@@ -8,9 +10,11 @@ import org.mengyun.tcctransaction.server.vo.TransactionVo;
 import javax.sql.DataSource;
 import javax.xml.bind.DatatypeConverter;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,12 +29,18 @@ public class JdbcTransactionDao implements TransactionDao {
 
     private static String KEY_NAME_SPACE = "TCC_TRANSACTION";
 
+    private static String DEAD_LETTER_KEY_NAME_SPACE = "TCC_DEAD_TRANSACTION";
+
     private DataSource dataSource;
 
     private String tableSuffix;
 
     private String domain;
 
+    private volatile Boolean nextRetryTimeColumn;
+
+    private volatile Boolean xidHashColumn;
+
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
     }
@@ -48,6 +58,10 @@ public class JdbcTransactionDao implements TransactionDao {
         return KEY_NAME_SPACE + "_" + tableSuffix;
     }
 
+    private String getDeadLetterTableName() {
+        return DEAD_LETTER_KEY_NAME_SPACE + "_" + tableSuffix;
+    }
+
     public String getTableSuffix() {
         return tableSuffix;
     }
@@ -165,12 +179,19 @@ public class JdbcTransactionDao implements TransactionDao {
         try {
             String tableName = getTableName();
 
+            // 未升级的表没有NEXT_RETRY_TIME列，只重置重试次数
+            boolean withNextRetryTime = hasNextRetryTime(connection);
+
             String sql = "UPDATE " + tableName +
-                    " SET RETRIED_COUNT=0" +
+                    " SET RETRIED_COUNT=0" + (withNextRetryTime ? ", NEXT_RETRY_TIME=?" : "") +
                     " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?";
             preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setBytes(1, DatatypeConverter.parseHexBinary(globalTxId));
-            preparedStatement.setBytes(2, DatatypeConverter.parseHexBinary(branchQualifier));
+            int i = 0;
+            if (withNextRetryTime) {
+                preparedStatement.setTimestamp(++i, new Timestamp(System.currentTimeMillis()));
+            }
+            preparedStatement.setBytes(++i, DatatypeConverter.parseHexBinary(globalTxId));
+            preparedStatement.setBytes(++i, DatatypeConverter.parseHexBinary(branchQualifier));
             int result = preparedStatement.executeUpdate();
         } catch (Exception e) {
             throw new RuntimeException("resetRetryCount error", e);
@@ -180,6 +201,58 @@ public class JdbcTransactionDao implements TransactionDao {
         }
     }
 
+    @Override
+    public void requeue(String globalTxId, String branchQualifier) {
+
+        Connection connection = getConnection();
+        PreparedStatement preparedStatement = null;
+        try {
+            connection.setAutoCommit(false);
+
+            boolean withNextRetryTime = hasNextRetryTime(connection);
+            boolean withXidHash = hasXidHash(connection);
+
+            String columns = "DOMAIN,GLOBAL_TX_ID,BRANCH_QUALIFIER,CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,VERSION";
+
+            // 重新入队时重置重试次数，下次恢复任务立即重试；死信表没有XID_HASH，按恢复分桶的哈希补上
+            String sql = "INSERT INTO " + getTableName() + "(" + columns + ",RETRIED_COUNT" +
+                    (withNextRetryTime ? ",NEXT_RETRY_TIME" : "") + (withXidHash ? ",XID_HASH" : "") + ")" +
+                    " SELECT " + columns + ",0" + (withNextRetryTime ? ",?" : "") + (withXidHash ? ",?" : "") +
+                    " FROM " + getDeadLetterTableName() +
+                    " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?";
+            preparedStatement = connection.prepareStatement(sql);
+            byte[] globalTransactionId = DatatypeConverter.parseHexBinary(globalTxId);
+            byte[] branchQualifierBytes = DatatypeConverter.parseHexBinary(branchQualifier);
+            int i = 0;
+            if (withNextRetryTime) {
+                preparedStatement.setTimestamp(++i, new Timestamp(System.currentTimeMillis()));
+            }
+            if (withXidHash) {
+                preparedStatement.setInt(++i, RecoverPartitioner.hashOf(new TransactionXid(globalTransactionId, branchQualifierBytes)));
+            }
+            preparedStatement.setBytes(++i, globalTransactionId);
+            preparedStatement.setBytes(++i, branchQualifierBytes);
+            preparedStatement.executeUpdate();
+            closeStatement(preparedStatement);
+
+            sql = "DELETE FROM " + getDeadLetterTableName() +
+                    " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?";
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setBytes(1, DatatypeConverter.parseHexBinary(globalTxId));
+            preparedStatement.setBytes(2, DatatypeConverter.parseHexBinary(branchQualifier));
+            preparedStatement.executeUpdate();
+
+            connection.commit();
+        } catch (Exception e) {
+            rollback(connection);
+            throw new RuntimeException("requeue error", e);
+        } finally {
+            closeStatement(preparedStatement);
+            resetAutoCommit(connection);
+            releaseConnection(connection);
+        }
+    }
+
     @Override
     public PageDto<TransactionVo> findTransactions(Integer pageNum, int pageSize) {
 
@@ -255,6 +328,41 @@ public class JdbcTransactionDao implements TransactionDao {
 
     }
 
+    @Override
+    public PageDto<TransactionVo> findDeadLetterTransactions(Integer pageNum, int pageSize) {
+
+        Connection connection = getConnection();
+        List<TransactionVo> transactionVos = new ArrayList<TransactionVo>();
+        PreparedStatement preparedStatement = null;
+        try {
+            String sql = "select DOMAIN," +
+                    "GLOBAL_TX_ID," +
+                    "BRANCH_QUALIFIER," +
+                    "STATUS," +
+                    "TRANSACTION_TYPE," +
+                    "RETRIED_COUNT," +
+                    "CREATE_TIME," +
+                    "LAST_UPDATE_TIME from " + getDeadLetterTableName() + " limit ?,?";
+
+            preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, (pageNum - 1) * pageSize);
+            preparedStatement.setInt(2, pageSize);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+
+            buildTransactionVoList(transactionVos, resultSet);
+        } catch (Exception e) {
+            throw new RuntimeException("findDeadLetterTransactions error", e);
+        } finally {
+            closeStatement(preparedStatement);
+            releaseConnection(connection);
+        }
+
+        Integer countOfFindTransactions = count("select COUNT(*) as count from " + getDeadLetterTableName());
+
+        return new PageDto<TransactionVo>(transactionVos, pageNum, pageSize, countOfFindTransactions);
+    }
+
     private Integer countOfDeletedTransactions() {
         return count(IS_DELETE);
     }
@@ -264,6 +372,10 @@ public class JdbcTransactionDao implements TransactionDao {
     }
 
     private Integer count(int isDelete) {
+        return count("select COUNT(*) as count from " + getTableName() + " where IS_DELETE = " + isDelete);
+    }
+
+    private Integer count(String sql) {
         Connection connection = getConnection();
         PageVo<TransactionVo> pageVo = new PageVo<TransactionVo>();
         List<TransactionVo> transactionVos = new ArrayList<TransactionVo>();
@@ -271,9 +383,7 @@ public class JdbcTransactionDao implements TransactionDao {
         PreparedStatement preparedStatement = null;
 
         try {
-            String tableName = getTableName();
-
-            preparedStatement = connection.prepareStatement("select COUNT(*) as count from " + tableName + " where IS_DELETE = " + isDelete);
+            preparedStatement = connection.prepareStatement(sql);
             ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
                 return resultSet.getInt("count");
@@ -302,6 +412,53 @@ public class JdbcTransactionDao implements TransactionDao {
         }
     }
 
+    private boolean hasNextRetryTime(Connection connection) throws SQLException {
+        if (nextRetryTimeColumn == null) {
+            nextRetryTimeColumn = hasColumn(connection, getTableName(), "NEXT_RETRY_TIME");
+        }
+        return nextRetryTimeColumn;
+    }
+
+    private boolean hasXidHash(Connection connection) throws SQLException {
+        if (xidHashColumn == null) {
+            xidHashColumn = hasColumn(connection, getTableName(), "XID_HASH");
+        }
+        return xidHashColumn;
+    }
+
+    /**
+     * Looks the column up in the table metadata, like JdbcTransactionRepository does, trying the table name as given
+     * then upper and lower cased for databases folding unquoted names.
+     */
+    private boolean hasColumn(Connection connection, String tableName, String columnName) throws SQLException {
+
+        DatabaseMetaData metaData = connection.getMetaData();
+
+        for (String table : new String[]{tableName, tableName.toUpperCase(), tableName.toLowerCase()}) {
+
+            ResultSet resultSet = metaData.getColumns(connection.getCatalog(), null, table, null);
+
+            try {
+                boolean tableFound = false;
+
+                while (resultSet.next()) {
+                    tableFound = true;
+                    if (columnName.equalsIgnoreCase(resultSet.getString("COLUMN_NAME"))) {
+                        return true;
+                    }
+                }
+
+                if (tableFound) {
+                    return false;
+                }
+            } finally {
+                resultSet.close();
+            }
+        }
+
+        return false;
+    }
+
     private void releaseConnection(Connection connection) {
         try {
             if (connection != null && !connection.isClosed()) {
@@ -322,6 +479,24 @@ public class JdbcTransactionDao implements TransactionDao {
         }
     }
 
+    private void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void resetAutoCommit(Connection connection) {
+        try {
+            if (!connection.isClosed()) {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private Connection getConnection() {
         Connection connection;
         try {
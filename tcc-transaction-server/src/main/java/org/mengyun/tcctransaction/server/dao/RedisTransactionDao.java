@@ -135,6 +135,25 @@ public class RedisTransactionDao implements TransactionDao {
     }
 
 
+    @Override
+    public void requeue(final String globalTxId, final String branchQualifier) {
+
+        RedisHelper.execute(jedisPool, new JedisCallback<Boolean>() {
+            @Override
+            public Boolean doInJedis(Jedis jedis) {
+
+                String key = new String(RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier));
+                String deadLetterKey = RedisHelper.DEAD_LETTER_KEY_PREFIX + key;
+
+                Long result = (Long) jedis.eval(LuaScriptConstant.REQUEUE_KEY1_TO_KEY2.getBytes(),
+                        2, deadLetterKey.getBytes(), key.getBytes(),
+                        ByteUtils.intToBytes(0), ByteUtils.longToBytes(System.currentTimeMillis()));
+
+                return result > 0;
+            }
+        });
+    }
+
     public PageDto<TransactionVo> findTransactions(Integer pageNum, int pageSize) {
         return findTransactionByKey(pageNum, pageSize, getKeyPrefix() + "*");
     }
@@ -143,6 +162,10 @@ public class RedisTransactionDao implements TransactionDao {
         return findTransactionByKey(pageNum, pageSize, DELETE_KEY_PREIFX + getKeyPrefix() + "*");
     }
 
+    public PageDto<TransactionVo> findDeadLetterTransactions(Integer pageNum, int pageSize) {
+        return findTransactionByKey(pageNum, pageSize, RedisHelper.DEAD_LETTER_KEY_PREFIX + getKeyPrefix() + "*");
+    }
+
     private PageDto<TransactionVo> findTransactionByKey(Integer pageNum, int pageSize, final String keyPattern) {
 
         PageDto<TransactionVo> pageDto = new PageDto<TransactionVo>();
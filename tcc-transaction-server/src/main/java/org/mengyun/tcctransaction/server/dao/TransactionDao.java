@@ -20,10 +20,14 @@ public interface TransactionDao {
 
     void resetRetryCount(String globalTxId, String branchQualifier);
 
+    void requeue(String globalTxId, String branchQualifier);
+
     String getDomain();
 
     PageDto<TransactionVo> findTransactions(Integer pageNum, int pageSize);
 
     PageDto<TransactionVo> findDeletedTransactions(Integer pageNum, int pageSize);
+
+    PageDto<TransactionVo> findDeadLetterTransactions(Integer pageNum, int pageSize);
 }
 
@@ -46,9 +46,15 @@
             [#if isdelete==0]
                 <li class="active"><a href="#">Normal</a></li>
                 <li><a href="management?domain=${currentDomain}&isdelete=1">Deleted Key</a></li>
-            [#else]
+                <li><a href="management?domain=${currentDomain}&isdelete=2">Dead Letter</a></li>
+            [#elseif isdelete==1]
                 <li><a href="management?domain=${currentDomain}&isdelete=0">Normal</a></li>
                 <li class="active"><a href="#">Deleted Key</a></li>
+                <li><a href="management?domain=${currentDomain}&isdelete=2">Dead Letter</a></li>
+            [#else]
+                <li><a href="management?domain=${currentDomain}&isdelete=0">Normal</a></li>
+                <li><a href="management?domain=${currentDomain}&isdelete=1">Deleted Key</a></li>
+                <li class="active"><a href="#">Dead Letter</a></li>
             [/#if]
         </ul>
 
@@ -127,10 +133,14 @@
                         [/#if]
                     </td>
                     <td>
+                        [#if isdelete==2]
+                        <button class="btn btn-info btn-xs j-requeue" data-url="" data-echo="">重新入队</button>
+                        [#else]
                         <button class="btn btn-info btn-xs j-edit" data-url="" data-echo="">重置</button>
                         <button class="btn btn-info btn-xs j-delete" data-url="" data-echo="">删除</button>
                         <button class="btn btn-info btn-xs j-cancel" data-url="" data-echo="">取消</button>
                         <button class="btn btn-info btn-xs j-confirm" data-url="" data-echo="">确认</button>
+                        [/#if]
                     </td>
                 </tr>
                 [/#list]
@@ -169,4 +169,41 @@ jQuery(document).ready(function($) {
 
     });
 
+    $('.table > tbody').on('click', '.j-requeue', function () {
+        var $this = $(this),
+            globalTxId,
+            branchQualifier,
+            domain,
+            url;
+
+        globalTxId = $this.parent().siblings().eq(1).text();
+        branchQualifier = $this.parent().siblings().eq(2).text();
+        domain = (location.href.match(/domain=([^&]+)/) || [,''])[1];
+        if(!domain) {
+            return;
+        }
+
+        url = 'management/retry/requeue';
+        $.ajax({
+            url: url,
+            type: 'PUT',
+            dataType: 'json',
+            data: {
+                domain:domain,
+                globalTxId: globalTxId,
+                branchQualifier: branchQualifier
+            }
+        })
+            .done(function(result) {
+                if(result.code === 200) {
+                    location.reload();
+                }
+                console.log(result.msg);
+            })
+            .fail(function() {
+                console.log(arguments);
+            });
+
+    });
+
 });
\ No newline at end of file
@@ -15,3 +15,38 @@ CREATE TABLE `TCC_TRANSACTION` (
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+
+ALTER TABLE `TCC_TRANSACTION` ADD `NEXT_RETRY_TIME` datetime DEFAULT NULL;
+-- Optional: rows without NEXT_RETRY_TIME are recovered on LAST_UPDATE_TIME, the backfill only lets the scan read them
+-- through the index. Set the recoverDuration of the repository, in seconds, 120 by default.
+SET @RECOVER_DURATION = 120;
+UPDATE `TCC_TRANSACTION` SET `NEXT_RETRY_TIME` = DATE_ADD(`LAST_UPDATE_TIME`, INTERVAL @RECOVER_DURATION SECOND) WHERE `NEXT_RETRY_TIME` IS NULL;
+-- The hash of the xid the recover buckets are taken on, written by the nodes once the column exists. Optional: the
+-- rows without it are read by every node and filtered once read.
+ALTER TABLE `TCC_TRANSACTION` ADD `XID_HASH` int(11) DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION` ADD INDEX `IDX_NEXT_RETRY_TIME` (`NEXT_RETRY_TIME`,`TRANSACTION_ID`,`XID_HASH`);
+
+CREATE TABLE `TCC_RECOVER_LEASE` (
+  `DOMAIN` varchar(100) NOT NULL DEFAULT '',
+  `LEASE_KEY` varchar(200) NOT NULL,
+  `OWNER` varchar(200) NOT NULL,
+  `EXPIRE_TIME` bigint(20) NOT NULL,
+  PRIMARY KEY (`DOMAIN`,`LEASE_KEY`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_DEAD_TRANSACTION` (
+  `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  `STATUS` int(11) DEFAULT NULL,
+  `TRANSACTION_TYPE` int(11) DEFAULT NULL,
+  `RETRIED_COUNT` int(11) DEFAULT NULL,
+  `CREATE_TIME` datetime DEFAULT NULL,
+  `LAST_UPDATE_TIME` datetime DEFAULT NULL,
+  `VERSION` int(11) DEFAULT NULL,
+  `NEXT_RETRY_TIME` datetime DEFAULT NULL,
+  PRIMARY KEY (`TRANSACTION_ID`),
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=utf8;
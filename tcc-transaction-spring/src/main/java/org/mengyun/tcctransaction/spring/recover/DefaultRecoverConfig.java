@@ -3,9 +3,11 @@ package org.mengyun.tcctransaction.spring.recover;
 import org.mengyun.tcctransaction.OptimisticLockException;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
 
+import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by changming.xie on 6/1/16.
@@ -22,11 +24,47 @@ public class DefaultRecoverConfig implements RecoverConfig {
 
     private int asyncTerminateThreadPoolSize = 1024;
 
+    private int recoverThreadPoolSize = 1;
+
+    private int maxInFlightRecoveries = 256;
+
+    private int recoverTimeoutInSeconds = 50;
+
+    private int recoverBucketCount = 0;
+
+    private int recoverLeaseInSeconds = 180;
+
+    private int recoverBackoffInSeconds = 60;
+
+    private int maxRecoverBackoffInSeconds = 3600;
+
+    private double recoverBackoffJitter = 0.2;
+
+    private int recoverTickInMillis = 0;
+
+    private int recoverWheelSize = 512;
+
+    private int recoverBatchSize = 100;
+
+    private int recoverRatePerTarget = 0;
+
+    private int recoverSlowCallInMillis = 1000;
+
+    private int circuitBreakerFailureThreshold = 0;
+
+    private int circuitBreakerOpenInSeconds = 30;
+
+    private int recoverTerminateBatchSize = 0;
+
     private Set<Class<? extends Exception>> delayCancelExceptions = new HashSet<Class<? extends Exception>>();
 
+    private Set<Class<? extends Exception>> circuitBreakerFailureExceptions = new HashSet<Class<? extends Exception>>();
+
     public DefaultRecoverConfig() {
         delayCancelExceptions.add(OptimisticLockException.class);
         delayCancelExceptions.add(SocketTimeoutException.class);
+        circuitBreakerFailureExceptions.add(IOException.class);
+        circuitBreakerFailureExceptions.add(TimeoutException.class);
     }
 
     @Override
@@ -74,4 +112,157 @@ public class DefaultRecoverConfig implements RecoverConfig {
     public void setAsyncTerminateThreadPoolSize(int asyncTerminateThreadPoolSize) {
         this.asyncTerminateThreadPoolSize = asyncTerminateThreadPoolSize;
     }
+
+    @Override
+    public int getRecoverThreadPoolSize() {
+        return recoverThreadPoolSize;
+    }
+
+    public void setRecoverThreadPoolSize(int recoverThreadPoolSize) {
+        this.recoverThreadPoolSize = recoverThreadPoolSize;
+    }
+
+    @Override
+    public int getMaxInFlightRecoveries() {
+        return maxInFlightRecoveries;
+    }
+
+    public void setMaxInFlightRecoveries(int maxInFlightRecoveries) {
+        this.maxInFlightRecoveries = maxInFlightRecoveries;
+    }
+
+    @Override
+    public int getRecoverTimeoutInSeconds() {
+        return recoverTimeoutInSeconds;
+    }
+
+    public void setRecoverTimeoutInSeconds(int recoverTimeoutInSeconds) {
+        this.recoverTimeoutInSeconds = recoverTimeoutInSeconds;
+    }
+
+    @Override
+    public int getRecoverBucketCount() {
+        return recoverBucketCount;
+    }
+
+    public void setRecoverBucketCount(int recoverBucketCount) {
+        this.recoverBucketCount = recoverBucketCount;
+    }
+
+    @Override
+    public int getRecoverLeaseInSeconds() {
+        return recoverLeaseInSeconds;
+    }
+
+    public void setRecoverLeaseInSeconds(int recoverLeaseInSeconds) {
+        this.recoverLeaseInSeconds = recoverLeaseInSeconds;
+    }
+
+    @Override
+    public int getRecoverBackoffInSeconds() {
+        return recoverBackoffInSeconds;
+    }
+
+    public void setRecoverBackoffInSeconds(int recoverBackoffInSeconds) {
+        this.recoverBackoffInSeconds = recoverBackoffInSeconds;
+    }
+
+    @Override
+    public int getMaxRecoverBackoffInSeconds() {
+        return maxRecoverBackoffInSeconds;
+    }
+
+    public void setMaxRecoverBackoffInSeconds(int maxRecoverBackoffInSeconds) {
+        this.maxRecoverBackoffInSeconds = maxRecoverBackoffInSeconds;
+    }
+
+    @Override
+    public double getRecoverBackoffJitter() {
+        return recoverBackoffJitter;
+    }
+
+    public void setRecoverBackoffJitter(double recoverBackoffJitter) {
+        this.recoverBackoffJitter = recoverBackoffJitter;
+    }
+
+    @Override
+    public int getRecoverTickInMillis() {
+        return recoverTickInMillis;
+    }
+
+    public void setRecoverTickInMillis(int recoverTickInMillis) {
+        this.recoverTickInMillis = recoverTickInMillis;
+    }
+
+    @Override
+    public int getRecoverWheelSize() {
+        return recoverWheelSize;
+    }
+
+    public void setRecoverWheelSize(int recoverWheelSize) {
+        this.recoverWheelSize = recoverWheelSize;
+    }
+
+    @Override
+    public int getRecoverBatchSize() {
+        return recoverBatchSize;
+    }
+
+    public void setRecoverBatchSize(int recoverBatchSize) {
+        this.recoverBatchSize = recoverBatchSize;
+    }
+
+    @Override
+    public int getRecoverRatePerTarget() {
+        return recoverRatePerTarget;
+    }
+
+    public void setRecoverRatePerTarget(int recoverRatePerTarget) {
+        this.recoverRatePerTarget = recoverRatePerTarget;
+    }
+
+    @Override
+    public int getRecoverSlowCallInMillis() {
+        return recoverSlowCallInMillis;
+    }
+
+    public void setRecoverSlowCallInMillis(int recoverSlowCallInMillis) {
+        this.recoverSlowCallInMillis = recoverSlowCallInMillis;
+    }
+
+    @Override
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    @Override
+    public int getCircuitBreakerOpenInSeconds() {
+        return circuitBreakerOpenInSeconds;
+    }
+
+    public void setCircuitBreakerOpenInSeconds(int circuitBreakerOpenInSeconds) {
+        this.circuitBreakerOpenInSeconds = circuitBreakerOpenInSeconds;
+    }
+
+    @Override
+    public Set<Class<? extends Exception>> getCircuitBreakerFailureExceptions() {
+        return circuitBreakerFailureExceptions;
+    }
+
+    public void setCircuitBreakerFailureExceptions(Set<Class<? extends Exception>> circuitBreakerFailureExceptions) {
+        this.circuitBreakerFailureExceptions = circuitBreakerFailureExceptions;
+    }
+
+    @Override
+    public int getRecoverTerminateBatchSize() {
+        return recoverTerminateBatchSize;
+    }
+
+    public void setRecoverTerminateBatchSize(int recoverTerminateBatchSize) {
+        this.recoverTerminateBatchSize = recoverTerminateBatchSize;
+    }
 }
@@ -20,7 +20,13 @@ public class RecoverScheduledJob {
 
     public void init() {
 
+        if (transactionConfigurator.getRecoverConfig().getRecoverTickInMillis() > 0) {
+            transactionConfigurator.getTransactionManager().setTransactionRecovery(transactionRecovery);
+        }
+
         try {
+            transactionRecovery.registerMBean();
+
             MethodInvokingJobDetailFactoryBean jobDetail = new MethodInvokingJobDetailFactoryBean();
             jobDetail.setTargetObject(transactionRecovery);
             jobDetail.setTargetMethod("startRecover");
@@ -1,16 +1,41 @@
 package org.mengyun.tcctransaction.spring.repository;
 
 
+import org.mengyun.tcctransaction.ConcurrentTransactionException;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.common.TransactionType;
 import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
 import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.transaction.xa.Xid;
 import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Created by changmingxie on 10/30/15.
+ * <p/>
+ * When the tcc table lives in the same database as the business data, set colocated to true: the create and
+ * update of a branch transaction made inside an active Spring transaction on the same DataSource are then
+ * deferred and flushed right before that transaction commits, so the try record and the business write
+ * commit atomically in one local transaction. The Spring transaction has to wrap the compensable method,
+ * i.e. its advice must be ordered before the tcc aspects.
  */
 public class SpringJdbcTransactionRepository extends JdbcTransactionRepository {
 
+    private boolean colocated = false;
+
+    public boolean isColocated() {
+        return colocated;
+    }
+
+    public void setColocated(boolean colocated) {
+        this.colocated = colocated;
+    }
+
     protected Connection getConnection() {
         return DataSourceUtils.getConnection(this.getDataSource());
     }
@@ -18,4 +43,156 @@ public class SpringJdbcTransactionRepository extends JdbcTransactionRepository {
     protected void releaseConnection(Connection con) {
         DataSourceUtils.releaseConnection(con, this.getDataSource());
     }
+
+    @Override
+    protected int doCreate(Transaction transaction) {
+
+        if (isColocatedWrite(transaction)) {
+            getColocatedWrites().create(transaction);
+            return 1;
+        }
+
+        return super.doCreate(transaction);
+    }
+
+    @Override
+    protected int doUpdate(Transaction transaction) {
+
+        if (isColocatedWrite(transaction)) {
+            getColocatedWrites().update(transaction);
+            return 1;
+        }
+
+        return super.doUpdate(transaction);
+    }
+
+    @Override
+    protected int doUpdateStatus(Transaction transaction) {
+
+        if (isColocatedWrite(transaction)) {
+            getColocatedWrites().update(transaction);
+            return 1;
+        }
+
+        return super.doUpdateStatus(transaction);
+    }
+
+    @Override
+    protected int doUpdateRetriedCount(Transaction transaction) {
+
+        if (isColocatedWrite(transaction)) {
+            getColocatedWrites().update(transaction);
+            return 1;
+        }
+
+        return super.doUpdateRetriedCount(transaction);
+    }
+
+    @Override
+    protected int doDelete(Transaction transaction) {
+
+        ColocatedWrites colocatedWrites = (ColocatedWrites) TransactionSynchronizationManager.getResource(this);
+
+        if (colocatedWrites != null && colocatedWrites.remove(transaction) && colocatedWrites.isCreated(transaction)) {
+            return 1;
+        }
+
+        return super.doDelete(transaction);
+    }
+
+    private boolean isColocatedWrite(Transaction transaction) {
+        return colocated
+                && transaction.getTransactionType().equals(TransactionType.BRANCH)
+                && TransactionSynchronizationManager.isSynchronizationActive()
+                && TransactionSynchronizationManager.isActualTransactionActive()
+                && TransactionSynchronizationManager.hasResource(getDataSource());
+    }
+
+    private ColocatedWrites getColocatedWrites() {
+
+        ColocatedWrites colocatedWrites = (ColocatedWrites) TransactionSynchronizationManager.getResource(this);
+
+        if (colocatedWrites == null) {
+            colocatedWrites = new ColocatedWrites();
+            TransactionSynchronizationManager.bindResource(this, colocatedWrites);
+            TransactionSynchronizationManager.registerSynchronization(colocatedWrites);
+        }
+
+        return colocatedWrites;
+    }
+
+    /**
+     * The branch transactions written in the current Spring transaction, keyed by xid. A pending write without
+     * an expected version is an insert, otherwise it is an update guarded by the version read before the first change.
+     */
+    private class ColocatedWrites extends TransactionSynchronizationAdapter {
+
+        private final Map<Xid, PendingWrite> pendingWrites = new LinkedHashMap<Xid, PendingWrite>();
+
+        private final Map<Xid, Boolean> createdXids = new LinkedHashMap<Xid, Boolean>();
+
+        void create(Transaction transaction) {
+            pendingWrites.put(transaction.getXid(), new PendingWrite(transaction, null));
+            createdXids.put(transaction.getXid(), Boolean.TRUE);
+        }
+
+        void update(Transaction transaction) {
+
+            if (!pendingWrites.containsKey(transaction.getXid())) {
+                pendingWrites.put(transaction.getXid(), new PendingWrite(transaction, transaction.getVersion()));
+            }
+
+            transaction.updateTime();
+            transaction.updateVersion();
+        }
+
+        boolean remove(Transaction transaction) {
+            return pendingWrites.remove(transaction.getXid()) != null;
+        }
+
+        boolean isCreated(Transaction transaction) {
+            return createdXids.containsKey(transaction.getXid());
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+
+            for (PendingWrite pendingWrite : pendingWrites.values()) {
+
+                Transaction transaction = pendingWrite.transaction;
+
+                if (pendingWrite.expectedVersion == null) {
+                    if (SpringJdbcTransactionRepository.super.doCreate(transaction) <= 0) {
+                        throw new ConcurrentTransactionException("transaction xid duplicated. xid:" + transaction.getXid().toString());
+                    }
+                } else if (SpringJdbcTransactionRepository.super.doUpdate(transaction, pendingWrite.expectedVersion) <= 0) {
+                    throw new OptimisticLockException();
+                }
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+
+            TransactionSynchronizationManager.unbindResourceIfPossible(SpringJdbcTransactionRepository.this);
+
+            if (status != STATUS_COMMITTED) {
+                for (PendingWrite pendingWrite : pendingWrites.values()) {
+                    removeFromCache(pendingWrite.transaction);
+                }
+            }
+        }
+    }
+
+    private static class PendingWrite {
+
+        private final Transaction transaction;
+
+        private final Long expectedVersion;
+
+        PendingWrite(Transaction transaction, Long expectedVersion) {
+            this.transaction = transaction;
+            this.expectedVersion = expectedVersion;
+        }
+    }
 }
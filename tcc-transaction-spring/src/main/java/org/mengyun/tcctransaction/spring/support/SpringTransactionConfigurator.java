@@ -1,5 +1,6 @@
 package org.mengyun.tcctransaction.spring.support;
 
+import org.mengyun.tcctransaction.CircuitBreaker;
 import org.mengyun.tcctransaction.TransactionManager;
 import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
@@ -47,8 +48,12 @@ public class SpringTransactionConfigurator implements TransactionConfigurator {
 
         transactionManager.setExecutorService(executorService);
 
+        CircuitBreaker.configure(recoverConfig.getCircuitBreakerFailureThreshold(), recoverConfig.getCircuitBreakerOpenInSeconds() * 1000L,
+                recoverConfig.getCircuitBreakerFailureExceptions());
+
         if (transactionRepository instanceof CachableTransactionRepository) {
             ((CachableTransactionRepository) transactionRepository).setExpireDuration(recoverConfig.getRecoverDuration());
+            ((CachableTransactionRepository) transactionRepository).setRecoverDuration(recoverConfig.getRecoverDuration());
         }
     }
 
@@ -17,6 +17,26 @@ CREATE TABLE `TCC_TRANSACTION_CAP` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION_CAP` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD `NEXT_RETRY_TIME` datetime DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD `XID_HASH` int(11) DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD INDEX `IDX_NEXT_RETRY_TIME` (`NEXT_RETRY_TIME`,`TRANSACTION_ID`,`XID_HASH`);
+
+CREATE TABLE `TCC_DEAD_TRANSACTION_CAP` (
+  `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  `STATUS` int(11) DEFAULT NULL,
+  `TRANSACTION_TYPE` int(11) DEFAULT NULL,
+  `RETRIED_COUNT` int(11) DEFAULT NULL,
+  `CREATE_TIME` datetime DEFAULT NULL,
+  `LAST_UPDATE_TIME` datetime DEFAULT NULL,
+  `VERSION` int(11) DEFAULT NULL,
+  `NEXT_RETRY_TIME` datetime DEFAULT NULL,
+  PRIMARY KEY (`TRANSACTION_ID`),
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE `TCC_TRANSACTION_ORD` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
@@ -35,6 +55,26 @@ CREATE TABLE `TCC_TRANSACTION_ORD` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION_ORD` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD `NEXT_RETRY_TIME` datetime DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD `XID_HASH` int(11) DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD INDEX `IDX_NEXT_RETRY_TIME` (`NEXT_RETRY_TIME`,`TRANSACTION_ID`,`XID_HASH`);
+
+CREATE TABLE `TCC_DEAD_TRANSACTION_ORD` (
+  `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  `STATUS` int(11) DEFAULT NULL,
+  `TRANSACTION_TYPE` int(11) DEFAULT NULL,
+  `RETRIED_COUNT` int(11) DEFAULT NULL,
+  `CREATE_TIME` datetime DEFAULT NULL,
+  `LAST_UPDATE_TIME` datetime DEFAULT NULL,
+  `VERSION` int(11) DEFAULT NULL,
+  `NEXT_RETRY_TIME` datetime DEFAULT NULL,
+  PRIMARY KEY (`TRANSACTION_ID`),
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE `TCC_TRANSACTION_RED` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
@@ -53,6 +93,26 @@ CREATE TABLE `TCC_TRANSACTION_RED` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION_RED` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_RED` ADD `NEXT_RETRY_TIME` datetime DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION_RED` ADD `XID_HASH` int(11) DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION_RED` ADD INDEX `IDX_NEXT_RETRY_TIME` (`NEXT_RETRY_TIME`,`TRANSACTION_ID`,`XID_HASH`);
+
+CREATE TABLE `TCC_DEAD_TRANSACTION_RED` (
+  `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  `STATUS` int(11) DEFAULT NULL,
+  `TRANSACTION_TYPE` int(11) DEFAULT NULL,
+  `RETRIED_COUNT` int(11) DEFAULT NULL,
+  `CREATE_TIME` datetime DEFAULT NULL,
+  `LAST_UPDATE_TIME` datetime DEFAULT NULL,
+  `VERSION` int(11) DEFAULT NULL,
+  `NEXT_RETRY_TIME` datetime DEFAULT NULL,
+  PRIMARY KEY (`TRANSACTION_ID`),
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE `TCC_TRANSACTION_UT` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
@@ -70,4 +130,24 @@ CREATE TABLE `TCC_TRANSACTION_UT` (
   UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
-ALTER TABLE `TCC_TRANSACTION_UT` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
\ No newline at end of file
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `NEXT_RETRY_TIME` datetime DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `XID_HASH` int(11) DEFAULT NULL;
+ALTER TABLE `TCC_TRANSACTION_UT` ADD INDEX `IDX_NEXT_RETRY_TIME` (`NEXT_RETRY_TIME`,`TRANSACTION_ID`,`XID_HASH`);
+
+CREATE TABLE `TCC_DEAD_TRANSACTION_UT` (
+  `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  `STATUS` int(11) DEFAULT NULL,
+  `TRANSACTION_TYPE` int(11) DEFAULT NULL,
+  `RETRIED_COUNT` int(11) DEFAULT NULL,
+  `CREATE_TIME` datetime DEFAULT NULL,
+  `LAST_UPDATE_TIME` datetime DEFAULT NULL,
+  `VERSION` int(11) DEFAULT NULL,
+  `NEXT_RETRY_TIME` datetime DEFAULT NULL,
+  PRIMARY KEY (`TRANSACTION_ID`),
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
\ No newline at end of file
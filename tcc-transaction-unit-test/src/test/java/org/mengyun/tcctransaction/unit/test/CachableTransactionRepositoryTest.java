@@ -0,0 +1,203 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.mengyun.tcctransaction.repository.cache.CacheEngine;
+import org.mengyun.tcctransaction.repository.cache.CacheInvalidation;
+import org.mengyun.tcctransaction.repository.cache.LocalCacheInvalidationChannel;
+import org.mengyun.tcctransaction.repository.cache.RecoveryCacheMode;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exercises the near cache of CachableTransactionRepository over a map backed store.
+ */
+public class CachableTransactionRepositoryTest {
+
+    @Test
+    public void testCacheHitAndStats() {
+
+        for (CacheEngine engine : CacheEngine.values()) {
+
+            MapTransactionRepository repository = new MapTransactionRepository();
+            repository.setCacheEngine(engine);
+
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+
+            Assert.assertSame(transaction, repository.findByXid((TransactionXid) transaction.getXid()));
+            Assert.assertEquals(0, repository.findCount);
+            Assert.assertEquals(1, repository.getCacheStats().getHitCount());
+        }
+    }
+
+    @Test
+    public void testCacheDisabled() {
+
+        MapTransactionRepository repository = new MapTransactionRepository();
+        repository.setCacheEnabled(false);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        repository.findByXid((TransactionXid) transaction.getXid());
+        repository.findByXid((TransactionXid) transaction.getXid());
+
+        Assert.assertEquals(2, repository.findCount);
+    }
+
+    @Test
+    public void testExpireDurationSetAfterConstruction() throws InterruptedException {
+
+        MapTransactionRepository repository = new MapTransactionRepository();
+        repository.setExpireDuration(1);
+        repository.setExpireAfterAccess(false);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        Thread.sleep(1100);
+
+        repository.findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(1, repository.findCount);
+    }
+
+    @Test
+    public void testMaximumWeight() {
+
+        MapTransactionRepository repository = new MapTransactionRepository();
+        repository.setCacheEngine(CacheEngine.GUAVA);
+        repository.setCacheMaximumWeight(10);
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        for (int i = 0; i < 100; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            transactions.add(transaction);
+        }
+
+        for (Transaction transaction : transactions) {
+            repository.findByXid((TransactionXid) transaction.getXid());
+        }
+
+        Assert.assertTrue(repository.findCount >= 90);
+        Assert.assertTrue(repository.getCacheStats().getEvictionCount() >= 90);
+    }
+
+    @Test
+    public void testRecoveryScanKeepsInFlightTransactions() {
+
+        for (RecoveryCacheMode mode : new RecoveryCacheMode[]{RecoveryCacheMode.BYPASS, RecoveryCacheMode.SEGMENT}) {
+
+            MapTransactionRepository repository = new MapTransactionRepository();
+            repository.setCacheMaximumSize(10);
+            repository.setRecoveryCacheMode(mode);
+
+            for (int i = 0; i < 100; i++) {
+                Transaction stale = new Transaction(TransactionType.ROOT);
+                repository.doCreate(stale);
+            }
+
+            Transaction inFlight = new Transaction(TransactionType.ROOT);
+            repository.create(inFlight);
+
+            for (Transaction transaction : repository.findAllUnmodifiedSince(new Date())) {
+                repository.update(transaction);
+            }
+
+            Assert.assertSame(inFlight, repository.findByXid((TransactionXid) inFlight.getXid()));
+            Assert.assertEquals(0, repository.findCount);
+        }
+    }
+
+    @Test
+    public void testPeerInvalidation() {
+
+        LocalCacheInvalidationChannel channel = new LocalCacheInvalidationChannel();
+
+        MapTransactionRepository nodeA = new MapTransactionRepository();
+        MapTransactionRepository nodeB = new MapTransactionRepository();
+        nodeB.store = nodeA.store;
+        nodeB.copyOnRead = true;
+        nodeA.setCacheInvalidationChannel(channel);
+        nodeB.setCacheInvalidationChannel(channel);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        nodeA.create(transaction);
+        nodeB.findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(1, nodeB.findCount);
+
+        // a late invalidation of a version older than the cached one leaves it in place
+        channel.publish(new CacheInvalidation("late", (TransactionXid) transaction.getXid(), transaction.getVersion() - 1));
+        nodeB.findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(1, nodeB.findCount);
+
+        nodeA.update(transaction);
+        nodeA.findByXid((TransactionXid) transaction.getXid());
+        nodeB.findByXid((TransactionXid) transaction.getXid());
+
+        Assert.assertEquals(0, nodeA.findCount);
+        Assert.assertEquals(2, nodeB.findCount);
+    }
+
+    @Test
+    public void testCacheInvalidationEncoding() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        CacheInvalidation invalidation = new CacheInvalidation("node", (TransactionXid) transaction.getXid(), 3L);
+
+        CacheInvalidation decoded = CacheInvalidation.decode(invalidation.encode());
+
+        Assert.assertEquals("node", decoded.getNodeId());
+        Assert.assertEquals(transaction.getXid(), decoded.getXid());
+        Assert.assertEquals(3L, decoded.getVersion());
+    }
+
+    static class MapTransactionRepository extends CachableTransactionRepository {
+
+        Map<Xid, Transaction> store = new ConcurrentHashMap<Xid, Transaction>();
+
+        int findCount = 0;
+
+        boolean copyOnRead = false;
+
+        @Override
+        public int doCreate(Transaction transaction) {
+            return store.put(transaction.getXid(), transaction) == null ? 1 : 0;
+        }
+
+        @Override
+        protected int doUpdate(Transaction transaction) {
+            transaction.updateVersion();
+            store.put(transaction.getXid(), transaction);
+            return 1;
+        }
+
+        @Override
+        protected int doDelete(Transaction transaction) {
+            return store.remove(transaction.getXid()) == null ? 0 : 1;
+        }
+
+        @Override
+        protected Transaction doFindOne(Xid xid) {
+            findCount++;
+            Transaction transaction = store.get(xid);
+            return copyOnRead && transaction != null ? SerializationUtils.clone(transaction) : transaction;
+        }
+
+        @Override
+        protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+            return new ArrayList<Transaction>(store.values());
+        }
+    }
+}
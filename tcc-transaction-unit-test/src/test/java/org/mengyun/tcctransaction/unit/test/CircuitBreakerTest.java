@@ -0,0 +1,129 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.CircuitBreaker;
+import org.mengyun.tcctransaction.CircuitBreakerOpenException;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Terminator;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CircuitBreakerTest {
+
+    private final InvocationContext confirm = new InvocationContext(DownParticipant.class, "confirm", new Class[0]);
+
+    @Before
+    public void setUp() {
+        CircuitBreaker.configure(2, 50);
+    }
+
+    @After
+    public void tearDown() {
+        CircuitBreaker.configure(0, 30000);
+    }
+
+    @Test
+    public void testOpensAfterFailuresAndClosesOnProbe() throws InterruptedException {
+
+        DownParticipant.CALLS.set(0);
+        DownParticipant.DOWN = true;
+
+        invoke(SystemException.class);
+        invoke(SystemException.class);
+
+        CircuitBreaker circuitBreaker = CircuitBreaker.of(confirm);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        invoke(CircuitBreakerOpenException.class);
+        Assert.assertEquals(2, DownParticipant.CALLS.get());
+        Assert.assertEquals(1, circuitBreaker.getRejectedCount());
+        Assert.assertTrue(circuitBreaker.getRemainingOpenMillis() > 0);
+
+        Thread.sleep(60);
+
+        invoke(SystemException.class);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        Thread.sleep(60);
+        DownParticipant.DOWN = false;
+
+        invoke(null);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(4, DownParticipant.CALLS.get());
+    }
+
+    @Test
+    public void testBusinessExceptionsAreNotCounted() {
+
+        InvocationContext rejected = new InvocationContext(RejectingParticipant.class, "confirm", new Class[0]);
+
+        for (int i = 0; i < 3; i++) {
+            invoke(rejected, SystemException.class);
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, CircuitBreaker.of(rejected).getState());
+    }
+
+    @Test
+    public void testCallsWaitWhileProbeIsInFlight() throws InterruptedException {
+
+        CircuitBreaker circuitBreaker = CircuitBreaker.of(new InvocationContext(DownParticipant.class, "probe", new Class[0]));
+
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        Thread.sleep(60);
+
+        Assert.assertEquals(0, circuitBreaker.getRemainingOpenMillis());
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertTrue(circuitBreaker.getRemainingOpenMillis() > 0);
+
+        circuitBreaker.onSuccess();
+        Assert.assertEquals(0, circuitBreaker.getRemainingOpenMillis());
+    }
+
+    private void invoke(Class<? extends Exception> expected) {
+        invoke(confirm, expected);
+    }
+
+    private void invoke(InvocationContext invocationContext, Class<? extends Exception> expected) {
+        try {
+            new Terminator().invoke(new TransactionContext(new TransactionXid(), TransactionStatus.CONFIRMING.getId()), invocationContext,
+                    Compensable.NullableTransactionContextEditor.class);
+            Assert.assertNull(expected);
+        } catch (SystemException e) {
+            Assert.assertEquals(expected, e.getClass());
+        }
+    }
+
+    public static class DownParticipant {
+
+        static final AtomicInteger CALLS = new AtomicInteger();
+
+        static volatile boolean DOWN;
+
+        public void confirm() throws IOException {
+            CALLS.incrementAndGet();
+            if (DOWN) {
+                throw new ConnectException("participant is down");
+            }
+        }
+    }
+
+    public static class RejectingParticipant {
+
+        public void confirm() {
+            throw new IllegalStateException("payment rejected");
+        }
+    }
+}
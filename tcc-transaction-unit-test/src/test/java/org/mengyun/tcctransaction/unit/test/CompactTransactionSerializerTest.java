@@ -0,0 +1,110 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Round trips transactions through CompactTransactionSerializer.
+ */
+public class CompactTransactionSerializerTest {
+
+    private final KryoPoolSerializer legacySerializer = new KryoPoolSerializer(1);
+
+    private final CompactTransactionSerializer serializer = new CompactTransactionSerializer(legacySerializer);
+
+    @Test
+    public void testRoundTrip() {
+
+        Transaction transaction = newTransaction();
+
+        byte[] bytes = serializer.serialize(transaction);
+        Assert.assertTrue(CompactTransactionSerializer.isCompact(bytes));
+
+        Transaction copy = (Transaction) serializer.deserialize(bytes);
+
+        Assert.assertEquals(transaction.getXid(), copy.getXid());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, copy.getStatus());
+        Assert.assertEquals(TransactionType.ROOT, copy.getTransactionType());
+        Assert.assertEquals(2, copy.getRetriedCount());
+        Assert.assertEquals(transaction.getVersion(), copy.getVersion());
+        Assert.assertEquals(transaction.getCreateTime(), copy.getCreateTime());
+        Assert.assertEquals("value", copy.getAttachments().get("key"));
+        Assert.assertEquals(2, copy.getParticipants().size());
+
+        Participant participant = copy.getParticipants().get(1);
+        Assert.assertEquals(transaction.getParticipants().get(1).getXid(), participant.getXid());
+        Assert.assertEquals(Compensable.DefaultTransactionContextEditor.class, participant.getTransactionContextEditorClass());
+        Assert.assertEquals("cancelTransfer", participant.getCancelInvocationContext().getMethodName());
+        Assert.assertArrayEquals(new Class[]{long.class, BigDecimal.class, Map.class}, participant.getConfirmInvocationContext().getParameterTypes());
+        Assert.assertEquals(new BigDecimal("12.50"), participant.getConfirmInvocationContext().getArgs()[1]);
+    }
+
+    @Test
+    public void testSmallerThanKryo() {
+
+        Transaction transaction = newTransaction();
+
+        Assert.assertTrue(serializer.serialize(transaction).length < legacySerializer.serialize(transaction).length);
+    }
+
+    @Test
+    public void testReadsLegacyContent() {
+
+        Transaction transaction = newTransaction();
+
+        Transaction copy = (Transaction) serializer.deserialize(legacySerializer.serialize(transaction));
+
+        Assert.assertEquals(transaction.getXid(), copy.getXid());
+        Assert.assertEquals(2, copy.getParticipants().size());
+    }
+
+    @Test
+    public void testDelegatesOtherObjects() {
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("CONTENT", new byte[]{1, 2, 3});
+
+        Map<String, Object> copy = (Map<String, Object>) serializer.deserialize(serializer.serialize(map));
+
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) copy.get("CONTENT"));
+    }
+
+    private Transaction newTransaction() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        for (int i = 0; i < 2; i++) {
+            Map<String, String> remarks = new HashMap<String, String>();
+            remarks.put("orderNo", "ORDER-" + i);
+
+            Class[] parameterTypes = new Class[]{long.class, BigDecimal.class, Map.class};
+            TransactionXid xid = new TransactionXid(((TransactionXid) transaction.getXid()).getGlobalTransactionId());
+
+            transaction.enlistParticipant(new Participant(xid,
+                    new InvocationContext(CompactTransactionSerializerTest.class, "confirmTransfer", parameterTypes, 1000L + i, new BigDecimal("12.50"), remarks),
+                    new InvocationContext(CompactTransactionSerializerTest.class, "cancelTransfer", parameterTypes, 1000L + i, new BigDecimal("12.50"), remarks),
+                    Compensable.DefaultTransactionContextEditor.class));
+        }
+
+        transaction.getAttachments().put("key", "value");
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.addRetriedCount();
+        transaction.addRetriedCount();
+        transaction.updateVersion();
+
+        return transaction;
+    }
+}
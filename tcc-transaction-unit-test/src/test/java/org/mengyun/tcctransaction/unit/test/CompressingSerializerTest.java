@@ -0,0 +1,71 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.serializer.CompressingSerializer;
+import org.mengyun.tcctransaction.serializer.DeflateCompressionCodec;
+import org.mengyun.tcctransaction.serializer.Lz4CompressionCodec;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.RegisterableKryoSerializer;
+
+/**
+ * Checks CompressingSerializer with both codecs.
+ */
+public class CompressingSerializerTest {
+
+    @Test
+    public void testCompressLargeContent() {
+
+        for (CompressingSerializer<Object> serializer : newSerializers()) {
+
+            String payload = newPayload(8000);
+            byte[] bytes = serializer.serialize(payload);
+
+            Assert.assertTrue(CompressingSerializer.isCompressed(bytes));
+            Assert.assertEquals(payload, serializer.deserialize(bytes));
+            Assert.assertEquals(1, serializer.getStats().getCompressedCount());
+            Assert.assertTrue(serializer.getStats().getCompressionRatio() < 0.5);
+        }
+    }
+
+    @Test
+    public void testSmallContentStoredRaw() {
+
+        for (CompressingSerializer<Object> serializer : newSerializers()) {
+
+            byte[] bytes = serializer.serialize("small");
+
+            Assert.assertFalse(CompressingSerializer.isCompressed(bytes));
+            Assert.assertEquals("small", serializer.deserialize(bytes));
+            Assert.assertEquals(1, serializer.getStats().getUncompressedCount());
+        }
+    }
+
+    @Test
+    public void testReadsContentOfOtherCodec() {
+
+        ObjectSerializer<Object> kryo = new RegisterableKryoSerializer<Object>();
+        String payload = newPayload(4000);
+
+        byte[] bytes = new CompressingSerializer<Object>(kryo, new DeflateCompressionCodec()).serialize(payload);
+
+        Assert.assertEquals(payload, new CompressingSerializer<Object>(kryo, new Lz4CompressionCodec()).deserialize(bytes));
+        Assert.assertEquals(payload, new CompressingSerializer<Object>(kryo).deserialize(kryo.serialize(payload)));
+    }
+
+    private CompressingSerializer<Object>[] newSerializers() {
+        ObjectSerializer<Object> kryo = new RegisterableKryoSerializer<Object>();
+        return new CompressingSerializer[]{
+                new CompressingSerializer<Object>(kryo, new Lz4CompressionCodec()),
+                new CompressingSerializer<Object>(kryo, new DeflateCompressionCodec())
+        };
+    }
+
+    private String newPayload(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append("order-").append(i % 10);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+
+public class InMemoryTransactionRepositoryTest {
+
+    @Test
+    public void testUpdateOfStaleCopyFails() {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        Transaction first = repository.findByXid((TransactionXid) transaction.getXid());
+        Transaction second = repository.findByXid((TransactionXid) transaction.getXid());
+        Assert.assertNotSame(first, second);
+
+        first.changeStatus(TransactionStatus.CONFIRMING);
+        repository.updateStatus(first);
+
+        try {
+            repository.update(second);
+            Assert.fail();
+        } catch (OptimisticLockException e) {
+            // expected, the second copy still has the version before the first update
+        }
+
+        Transaction found = repository.findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(first.getVersion(), found.getVersion());
+    }
+
+    @Test
+    public void testFindAllUnmodifiedSinceFollowsUpdates() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        Transaction updated = new Transaction(TransactionType.ROOT);
+        Transaction stale = new Transaction(TransactionType.ROOT);
+        Transaction deleted = new Transaction(TransactionType.ROOT);
+        repository.create(updated);
+        repository.create(stale);
+        repository.create(deleted);
+
+        Thread.sleep(20);
+        Date date = new Date();
+        Thread.sleep(20);
+
+        repository.update(updated);
+        repository.delete(deleted);
+
+        List<Transaction> transactions = repository.findAllUnmodifiedSince(date);
+
+        Assert.assertEquals(1, transactions.size());
+        Assert.assertEquals(stale.getXid(), transactions.get(0).getXid());
+        Assert.assertEquals(2, repository.size());
+    }
+
+    @Test
+    public void testSnapshotIsReloaded() throws Exception {
+
+        File snapshotFile = File.createTempFile("tcc-snapshot", ".bin");
+        snapshotFile.delete();
+
+        try {
+            InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+            repository.setSnapshotFile(snapshotFile.getAbsolutePath());
+
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            transaction.addRetriedCount();
+            repository.updateRetriedCount(transaction);
+            repository.close();
+
+            InMemoryTransactionRepository reloaded = new InMemoryTransactionRepository();
+            reloaded.setSnapshotFile(snapshotFile.getAbsolutePath());
+
+            Transaction found = reloaded.findByXid((TransactionXid) transaction.getXid());
+
+            Assert.assertNotNull(found);
+            Assert.assertEquals(1, found.getRetriedCount());
+            Assert.assertEquals(transaction.getVersion(), found.getVersion());
+            reloaded.close();
+        } finally {
+            snapshotFile.delete();
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.ConcurrentTransactionException;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionBatchHandler;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.recover.RecoverPartitioner;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.dialect.H2Dialect;
+import org.mengyun.tcctransaction.spring.repository.SpringJdbcTransactionRepository;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import javax.transaction.xa.Xid;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Runs JdbcTransactionRepository against an in-memory H2 database.
+ */
+public class JdbcTransactionRepositoryTest {
+
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+
+        JdbcDataSource h2DataSource = new JdbcDataSource();
+        h2DataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        dataSource = h2DataSource;
+
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE TCC_TRANSACTION_UT (" +
+                "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY," +
+                "DOMAIN VARCHAR(100)," +
+                "GLOBAL_TX_ID VARBINARY(32) NOT NULL," +
+                "BRANCH_QUALIFIER VARBINARY(32) NOT NULL," +
+                "CONTENT VARBINARY(8000)," +
+                "STATUS INT," +
+                "TRANSACTION_TYPE INT," +
+                "RETRIED_COUNT INT," +
+                "CREATE_TIME TIMESTAMP," +
+                "LAST_UPDATE_TIME TIMESTAMP," +
+                "VERSION INT," +
+                "IS_DELETE TINYINT DEFAULT 0 NOT NULL," +
+                "NEXT_RETRY_TIME TIMESTAMP," +
+                "XID_HASH INT," +
+                "CONSTRAINT UX_TX_BQ UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))");
+        statement.execute("CREATE TABLE TCC_DEAD_TRANSACTION_UT AS SELECT * FROM TCC_TRANSACTION_UT WHERE 1 = 0");
+        statement.close();
+        connection.close();
+    }
+
+    @Test
+    public void testCreateAndFind() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+
+        Assert.assertNotNull(found);
+        Assert.assertEquals(transaction.getXid(), found.getXid());
+        Assert.assertEquals(org.mengyun.tcctransaction.api.TransactionStatus.TRYING, found.getStatus());
+        Assert.assertEquals(1L, found.getVersion());
+    }
+
+    @Test(expected = ConcurrentTransactionException.class)
+    public void testCreateDuplicated() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        newRepository().create(transaction);
+        newRepository().create(transaction);
+    }
+
+    @Test
+    public void testUpdateWithStaleVersion() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        Transaction stale = newRepository().findByXid((TransactionXid) transaction.getXid());
+
+        transaction.changeStatus(org.mengyun.tcctransaction.api.TransactionStatus.CONFIRMING);
+        Assert.assertEquals(1, repository.update(transaction));
+
+        try {
+            newRepository().update(stale);
+            Assert.fail("update with a stale version should fail");
+        } catch (RuntimeException e) {
+            //expected
+        }
+
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(org.mengyun.tcctransaction.api.TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(2L, found.getVersion());
+    }
+
+    @Test
+    public void testUpdateStatusLeavesContent() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        transaction.enlistParticipant(new Participant());
+        transaction.changeStatus(org.mengyun.tcctransaction.api.TransactionStatus.CANCELLING);
+        transaction.addRetriedCount();
+        Assert.assertEquals(1, repository.updateStatus(transaction));
+
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(org.mengyun.tcctransaction.api.TransactionStatus.CANCELLING, found.getStatus());
+        Assert.assertEquals(1, found.getRetriedCount());
+        Assert.assertEquals(2L, found.getVersion());
+        Assert.assertEquals(0, found.getParticipants().size());
+
+        try {
+            newRepository().updateRetriedCount(found);
+            newRepository().updateRetriedCount(transaction);
+            Assert.fail("update with a stale version should fail");
+        } catch (RuntimeException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testChunkedFind() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        final List<Xid> xids = new ArrayList<Xid>();
+
+        for (int i = 0; i < 450; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            xids.add(transaction.getXid());
+        }
+
+        List<Transaction> transactions = new JdbcTransactionRepository() {
+            {
+                setDataSource(dataSource);
+                setTbSuffix("_UT");
+            }
+
+            List<Transaction> findAll() {
+                return doFind(xids);
+            }
+        }.findAll();
+
+        Assert.assertEquals(xids.size(), transactions.size());
+    }
+
+    @Test
+    public void testFindAllUnmodifiedSince() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        Assert.assertEquals(0, newRepository().findAllUnmodifiedSince(new Date(System.currentTimeMillis() - 60 * 1000)).size());
+        Assert.assertEquals(1, newRepository().findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000)).size());
+    }
+
+    @Test
+    public void testFindAllDueForRetry() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        long now = System.currentTimeMillis();
+
+        Assert.assertEquals(0, newRepository().findAllDueForRetry(new Date(now + 60 * 1000)).size());
+        Assert.assertEquals(1, newRepository().findAllDueForRetry(new Date(now + 121 * 1000)).size());
+
+        transaction.setNextRetryTime(new Date(now + 600 * 1000));
+        repository.updateRetriedCount(transaction);
+
+        Assert.assertEquals(0, newRepository().findAllDueForRetry(new Date(now + 121 * 1000)).size());
+
+        Transaction found = newRepository().findAllDueForRetry(new Date(now + 601 * 1000)).get(0);
+        Assert.assertEquals(now + 600 * 1000, found.getNextRetryTime().getTime(), 1000);
+    }
+
+    @Test
+    public void testUpdateNextRetryTimeKeepsVersionAndLastUpdateTime() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        long now = System.currentTimeMillis();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.setLastUpdateTime(new Date(now - 200 * 1000));
+        repository.create(transaction);
+
+        transaction.setNextRetryTime(new Date(now + 1000));
+        Assert.assertEquals(1, repository.updateNextRetryTime(transaction));
+
+        // due a second from now, not recoverDuration after the write
+        Assert.assertEquals(0, newRepository().findAllDueForRetry(new Date(now)).size());
+
+        Transaction found = newRepository().findAllDueForRetry(new Date(now + 2000)).get(0);
+        Assert.assertEquals(transaction.getVersion(), found.getVersion());
+        Assert.assertEquals(now - 200 * 1000, found.getLastUpdateTime().getTime(), 1000);
+        Assert.assertEquals(now + 1000, found.getNextRetryTime().getTime(), 1000);
+
+        // a stale version is left alone
+        transaction.setVersion(transaction.getVersion() + 1);
+        Assert.assertEquals(0, repository.updateNextRetryTime(transaction));
+    }
+
+    @Test
+    public void testRowsWithoutNextRetryTimeAreDueOnLastUpdateTime() throws Exception {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        for (int i = 0; i < 5; i++) {
+            repository.create(new Transaction(TransactionType.ROOT));
+        }
+
+        long now = System.currentTimeMillis();
+
+        // two rows written without a next retry time, the others due at the same time across the page boundaries
+        Connection connection = dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement("UPDATE TCC_TRANSACTION_UT SET NEXT_RETRY_TIME = " +
+                "CASE WHEN TRANSACTION_ID <= (SELECT MIN(TRANSACTION_ID) + 1 FROM TCC_TRANSACTION_UT) THEN NULL ELSE ? END");
+        statement.setTimestamp(1, new Timestamp(now));
+        statement.executeUpdate();
+        statement.close();
+        connection.close();
+
+        Assert.assertEquals(3, newRepository().findAllDueForRetry(new Date(now + 60 * 1000)).size());
+        Assert.assertEquals(5, newRepository().findAllDueForRetry(new Date(now + 121 * 1000)).size());
+
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final Set<Xid> xids = new HashSet<Xid>();
+
+        newRepository().findAllDueForRetry(new Date(now + 121 * 1000), 2, new TransactionBatchHandler() {
+            @Override
+            public boolean handle(List<Transaction> transactions) {
+                batchSizes.add(transactions.size());
+                for (Transaction transaction : transactions) {
+                    xids.add(transaction.getXid());
+                }
+                return true;
+            }
+        });
+
+        Assert.assertEquals(Arrays.asList(2, 2, 1), batchSizes);
+        Assert.assertEquals(5, xids.size());
+    }
+
+    @Test
+    public void testTableWithoutNextRetryTimeColumn() throws Exception {
+
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("ALTER TABLE TCC_TRANSACTION_UT DROP COLUMN NEXT_RETRY_TIME");
+        statement.close();
+        connection.close();
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+        transaction.addRetriedCount();
+        repository.updateRetriedCount(transaction);
+
+        long now = System.currentTimeMillis();
+
+        Assert.assertEquals(0, newRepository().findAllDueForRetry(new Date(now + 60 * 1000)).size());
+        Assert.assertEquals(1, newRepository().findAllDueForRetry(new Date(now + 121 * 1000)).size());
+        Assert.assertEquals(1, newRepository().findByXid((TransactionXid) transaction.getXid()).getRetriedCount());
+    }
+
+    @Test
+    public void testFindAllDueForRetryInBuckets() throws Exception {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Set<Xid> bucketXids = new HashSet<Xid>();
+
+        for (int i = 0; i < 20; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            if (RecoverPartitioner.bucketOf(transaction.getXid(), 4) < 2) {
+                bucketXids.add(transaction.getXid());
+            }
+        }
+
+        // a row written before the column was added is read whatever its bucket
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("UPDATE TCC_TRANSACTION_UT SET XID_HASH = NULL WHERE TRANSACTION_ID = (SELECT MAX(TRANSACTION_ID) FROM TCC_TRANSACTION_UT)");
+        statement.close();
+        connection.close();
+
+        final List<Xid> xids = new ArrayList<Xid>();
+
+        newRepository().findAllDueForRetry(new Date(System.currentTimeMillis() + 121 * 1000), 3, 4, new HashSet<Integer>(Arrays.asList(0, 1)), new TransactionBatchHandler() {
+            @Override
+            public boolean handle(List<Transaction> transactions) {
+                for (Transaction transaction : transactions) {
+                    xids.add(transaction.getXid());
+                }
+                return true;
+            }
+        });
+
+        Assert.assertTrue(xids.containsAll(bucketXids));
+
+        xids.removeAll(bucketXids);
+        Assert.assertTrue(xids.size() <= 1);
+    }
+
+    @Test
+    public void testFindAllDueForRetryInBatches() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        for (int i = 0; i < 25; i++) {
+            repository.create(new Transaction(TransactionType.ROOT));
+        }
+
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final Set<Xid> xids = new HashSet<Xid>();
+
+        Date date = new Date(System.currentTimeMillis() + 121 * 1000);
+
+        newRepository().findAllDueForRetry(date, 10, new TransactionBatchHandler() {
+            @Override
+            public boolean handle(List<Transaction> transactions) {
+                batchSizes.add(transactions.size());
+                for (Transaction transaction : transactions) {
+                    xids.add(transaction.getXid());
+                }
+                return true;
+            }
+        });
+
+        Assert.assertEquals(Arrays.asList(10, 10, 5), batchSizes);
+        Assert.assertEquals(25, xids.size());
+
+        batchSizes.clear();
+
+        newRepository().findAllDueForRetry(date, 10, new TransactionBatchHandler() {
+            @Override
+            public boolean handle(List<Transaction> transactions) {
+                batchSizes.add(transactions.size());
+                return false;
+            }
+        });
+
+        Assert.assertEquals(1, batchSizes.size());
+    }
+
+    @Test
+    public void testMoveToDeadLetterAndRequeue() {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        Transaction stale = newRepository().findByXid((TransactionXid) transaction.getXid());
+        transaction.addRetriedCount();
+        repository.updateRetriedCount(transaction);
+
+        Assert.assertEquals(0, repository.moveToDeadLetter(stale));
+        Assert.assertEquals(1, repository.moveToDeadLetter(transaction));
+
+        Assert.assertNull(newRepository().findByXid((TransactionXid) transaction.getXid()));
+        Assert.assertEquals(1, newRepository().findAllDeadLetters().size());
+
+        Assert.assertEquals(1, repository.requeue((TransactionXid) transaction.getXid()));
+        Assert.assertEquals(0, repository.requeue((TransactionXid) transaction.getXid()));
+
+        Assert.assertTrue(newRepository().findAllDeadLetters().isEmpty());
+
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(0, found.getRetriedCount());
+        Assert.assertEquals(transaction.getVersion(), found.getVersion());
+        Assert.assertEquals(1, newRepository().findAllDueForRetry(new Date(System.currentTimeMillis() + 1000)).size());
+    }
+
+    @Test
+    public void testColocatedWritesCommitWithLocalTransaction() {
+
+        final SpringJdbcTransactionRepository repository = newColocatedRepository();
+        final Transaction transaction = new Transaction(TransactionType.BRANCH);
+
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                repository.create(transaction);
+                transaction.changeStatus(org.mengyun.tcctransaction.api.TransactionStatus.CONFIRMING);
+                repository.update(transaction);
+
+                Assert.assertNull(newRepository().findByXid((TransactionXid) transaction.getXid()));
+            }
+        });
+
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+        Assert.assertNotNull(found);
+        Assert.assertEquals(org.mengyun.tcctransaction.api.TransactionStatus.CONFIRMING, found.getStatus());
+    }
+
+    @Test
+    public void testColocatedWritesRollbackWithLocalTransaction() {
+
+        final SpringJdbcTransactionRepository repository = newColocatedRepository();
+        final Transaction transaction = new Transaction(TransactionType.BRANCH);
+
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                repository.create(transaction);
+                status.setRollbackOnly();
+            }
+        });
+
+        Assert.assertNull(newRepository().findByXid((TransactionXid) transaction.getXid()));
+        Assert.assertNull(repository.findByXid((TransactionXid) transaction.getXid()));
+    }
+
+    private SpringJdbcTransactionRepository newColocatedRepository() {
+        SpringJdbcTransactionRepository repository = new SpringJdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setTbSuffix("_UT");
+        repository.setDialect(new H2Dialect());
+        repository.setColocated(true);
+        return repository;
+    }
+
+    private JdbcTransactionRepository newRepository() {
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setTbSuffix("_UT");
+        repository.setDialect(new H2Dialect());
+        return repository;
+    }
+}
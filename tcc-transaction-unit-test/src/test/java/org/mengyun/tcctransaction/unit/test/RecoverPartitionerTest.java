@@ -0,0 +1,84 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.recover.RecoverPartitioner;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Runs the recover partitioning of several nodes against the lease table of an in-memory H2 database.
+ */
+public class RecoverPartitionerTest {
+
+    private static final int BUCKET_COUNT = 16;
+
+    private JdbcTransactionRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE TCC_RECOVER_LEASE (" +
+                "DOMAIN VARCHAR(100) DEFAULT '' NOT NULL," +
+                "LEASE_KEY VARCHAR(200) NOT NULL," +
+                "OWNER VARCHAR(200) NOT NULL," +
+                "EXPIRE_TIME BIGINT NOT NULL," +
+                "PRIMARY KEY (DOMAIN, LEASE_KEY))");
+        statement.close();
+        connection.close();
+
+        repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setDomain("UT");
+    }
+
+    @Test
+    public void testBucketsRebalanceWhenNodesJoinAndLeave() {
+
+        RecoverPartitioner first = new RecoverPartitioner(repository, BUCKET_COUNT, 60000, "node-1");
+        RecoverPartitioner second = new RecoverPartitioner(repository, BUCKET_COUNT, 60000, "node-2");
+
+        Assert.assertEquals(BUCKET_COUNT, first.rebalance().size());
+
+        Assert.assertTrue(second.rebalance().isEmpty());
+        first.rebalance();
+        Set<Integer> secondBuckets = second.rebalance();
+        Set<Integer> firstBuckets = first.rebalance();
+
+        Assert.assertEquals(BUCKET_COUNT / 2, firstBuckets.size());
+        Assert.assertEquals(BUCKET_COUNT / 2, secondBuckets.size());
+
+        Set<Integer> all = new HashSet<Integer>(firstBuckets);
+        all.addAll(secondBuckets);
+        Assert.assertEquals(BUCKET_COUNT, all.size());
+
+        second.releaseAll();
+
+        Assert.assertEquals(BUCKET_COUNT, first.rebalance().size());
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() throws InterruptedException {
+
+        RecoverPartitioner stopped = new RecoverPartitioner(repository, BUCKET_COUNT, 50, "node-1");
+        RecoverPartitioner running = new RecoverPartitioner(repository, BUCKET_COUNT, 60000, "node-2");
+
+        stopped.rebalance();
+        Thread.sleep(100);
+
+        Assert.assertEquals(BUCKET_COUNT, running.rebalance().size());
+        Assert.assertFalse(repository.acquireLease(0, "node-1", 60000));
+    }
+}
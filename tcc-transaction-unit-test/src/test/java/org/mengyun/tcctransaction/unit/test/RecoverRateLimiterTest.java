@@ -0,0 +1,50 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.recover.RecoverRateLimiter;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RecoverRateLimiterTest {
+
+    @Test
+    public void testTokensAreGivenBackWhenATargetIsOutOfTokens() {
+
+        RecoverRateLimiter rateLimiter = new RecoverRateLimiter(2, 1000);
+
+        Assert.assertEquals(0, rateLimiter.tryAcquire(Collections.singleton("down")));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(Collections.singleton("down")));
+
+        Assert.assertTrue(rateLimiter.tryAcquire(Arrays.asList("up", "down")) > 0);
+
+        Assert.assertEquals(0, rateLimiter.tryAcquire(Collections.singleton("up")));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(Collections.singleton("up")));
+        Assert.assertTrue(rateLimiter.tryAcquire(Collections.singleton("up")) > 0);
+    }
+
+    @Test
+    public void testRateFollowsTargetHealth() {
+
+        RecoverRateLimiter rateLimiter = new RecoverRateLimiter(100, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.onFailure("target", 10);
+        }
+
+        Assert.assertEquals(1, rateLimiter.getRates().get("target"), 0.001);
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.onSuccess("target", 5000);
+        }
+
+        Assert.assertEquals(1, rateLimiter.getRates().get("target"), 0.001);
+
+        for (int i = 0; i < 30; i++) {
+            rateLimiter.onSuccess("target", 10);
+        }
+
+        Assert.assertEquals(100, rateLimiter.getRates().get("target"), 0.001);
+    }
+}
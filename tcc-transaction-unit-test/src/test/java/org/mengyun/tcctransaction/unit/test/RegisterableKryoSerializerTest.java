@@ -0,0 +1,75 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.RegisterableKryoSerializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Round trips transactions through RegisterableKryoSerializer.
+ */
+public class RegisterableKryoSerializerTest {
+
+    private final RegisterableKryoSerializer<Transaction> serializer = new RegisterableKryoSerializer<Transaction>();
+
+    @Test
+    public void testRoundTripAndBufferReuse() {
+
+        Transaction transaction = newTransaction();
+
+        byte[] first = serializer.serialize(transaction);
+        byte[] second = serializer.serialize(transaction);
+
+        Assert.assertArrayEquals(first, second);
+        Assert.assertEquals(transaction.getXid(), serializer.deserialize(first).getXid());
+        Assert.assertEquals(1, serializer.deserialize(second).getParticipants().size());
+    }
+
+    @Test
+    public void testDeserializeByteBuffer() {
+
+        Transaction transaction = newTransaction();
+        byte[] bytes = serializer.serialize(transaction);
+
+        ByteBuffer heapBuffer = ByteBuffer.allocate(bytes.length + 4);
+        heapBuffer.putInt(bytes.length).put(bytes).flip();
+        heapBuffer.getInt();
+
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+        directBuffer.put(bytes).flip();
+
+        Assert.assertEquals(transaction.getXid(), serializer.deserialize(heapBuffer).getXid());
+        Assert.assertEquals(transaction.getXid(), serializer.deserialize(directBuffer).getXid());
+        Assert.assertEquals(bytes.length, directBuffer.remaining());
+    }
+
+    @Test
+    public void testReadsKryoPoolContent() {
+
+        Transaction transaction = newTransaction();
+
+        byte[] bytes = new KryoPoolSerializer<Transaction>(1).serialize(transaction);
+
+        Assert.assertEquals(transaction.getXid(), serializer.deserialize(bytes).getXid());
+    }
+
+    private Transaction newTransaction() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        transaction.enlistParticipant(new Participant(new TransactionXid(((TransactionXid) transaction.getXid()).getGlobalTransactionId()),
+                new InvocationContext(RegisterableKryoSerializerTest.class, "confirm", new Class[]{String.class}, "a"),
+                new InvocationContext(RegisterableKryoSerializerTest.class, "cancel", new Class[]{String.class}, "a"),
+                Compensable.DefaultTransactionContextEditor.class));
+
+        return transaction;
+    }
+}
@@ -0,0 +1,97 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.CompressingSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.KryoThreadLocalSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.ProtostuffSerializer;
+import org.mengyun.tcctransaction.serializer.RegisterableKryoSerializer;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every ObjectSerializer must round trip the same transaction, including arguments declared as interfaces.
+ */
+public class SerializerCompatibilityTest {
+
+    @Test
+    public void testRoundTripWithAllSerializers() {
+
+        List<ObjectSerializer> serializers = Arrays.<ObjectSerializer>asList(
+                new KryoPoolSerializer(1),
+                new KryoThreadLocalSerializer(),
+                new RegisterableKryoSerializer(),
+                new JdkSerializationSerializer(),
+                new ProtostuffSerializer(),
+                new CompactTransactionSerializer(new ProtostuffSerializer()),
+                new CompressingSerializer(new RegisterableKryoSerializer()));
+
+        for (ObjectSerializer serializer : serializers) {
+
+            Transaction transaction = newTransaction();
+
+            Transaction copy = (Transaction) serializer.deserialize(serializer.serialize(transaction));
+
+            String name = serializer.getClass().getSimpleName();
+            Assert.assertEquals(name, transaction.getXid(), copy.getXid());
+            Assert.assertEquals(name, TransactionStatus.CONFIRMING, copy.getStatus());
+            Assert.assertEquals(name, "value", copy.getAttachments().get("key"));
+
+            InvocationContext context = copy.getParticipants().get(0).getConfirmInvocationContext();
+            Assert.assertEquals(name, SerializerCompatibilityTest.class, context.getTargetClass());
+            Assert.assertArrayEquals(name, new Class[]{long.class, Payment.class, List.class}, context.getParameterTypes());
+            Assert.assertEquals(name, 7L, context.getArgs()[0]);
+            Assert.assertEquals(name, new BigDecimal("10.01"), ((Payment) context.getArgs()[1]).amount);
+            Assert.assertEquals(name, Arrays.asList("a", "b"), context.getArgs()[2]);
+        }
+    }
+
+    private Transaction newTransaction() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        Payment payment = new Payment();
+        payment.amount = new BigDecimal("10.01");
+        payment.extra = new HashMap<String, Object>();
+        payment.extra.put("channel", "card");
+
+        List<String> tags = new ArrayList<String>(Arrays.asList("a", "b"));
+        Class[] parameterTypes = new Class[]{long.class, Payment.class, List.class};
+
+        transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                new InvocationContext(SerializerCompatibilityTest.class, "confirm", parameterTypes, 7L, payment, tags),
+                new InvocationContext(SerializerCompatibilityTest.class, "cancel", parameterTypes, 7L, payment, tags),
+                Compensable.DefaultTransactionContextEditor.class));
+
+        transaction.getAttachments().put("key", "value");
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+
+        return transaction;
+    }
+
+    public static class Payment implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        BigDecimal amount;
+
+        Map<String, Object> extra;
+    }
+}
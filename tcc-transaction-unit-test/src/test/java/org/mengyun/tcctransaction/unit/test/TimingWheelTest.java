@@ -0,0 +1,46 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.recover.TimingWheel;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testTasksExpireInOrderAcrossLevels() throws InterruptedException {
+
+        // 4 slots of 10 ms, so the delays below go through the second and the third level
+        TimingWheel timingWheel = new TimingWheel(10, 4, "timing-wheel-test");
+
+        final List<Long> expired = new CopyOnWriteArrayList<Long>();
+        final CountDownLatch latch = new CountDownLatch(4);
+
+        long start = System.currentTimeMillis();
+
+        for (final long delay : new long[]{450, 15, 120, 0}) {
+            timingWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expired.add(delay);
+                    latch.countDown();
+                }
+            }, delay);
+        }
+
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - start;
+
+        timingWheel.stop();
+
+        Assert.assertEquals(Long.valueOf(0), expired.get(0));
+        Assert.assertEquals(Long.valueOf(15), expired.get(1));
+        Assert.assertEquals(Long.valueOf(120), expired.get(2));
+        Assert.assertEquals(Long.valueOf(450), expired.get(3));
+        Assert.assertTrue("expired after " + elapsed + " ms", elapsed >= 450);
+    }
+}
@@ -0,0 +1,522 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.CircuitBreaker;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.BatchCompensable;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.recover.RecoverMetricsRegistry;
+import org.mengyun.tcctransaction.recover.RecoverSummary;
+import org.mengyun.tcctransaction.recover.TransactionRecovery;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TransactionRecoveryTest {
+
+    @Test
+    public void testRecoverInParallel() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setRecoverDuration(0);
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(0);
+        recoverConfig.setRecoverThreadPoolSize(8);
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(repository, recoverConfig));
+
+        Transaction failing = createConfirming(repository, false);
+        for (int i = 0; i < 15; i++) {
+            createConfirming(repository, true);
+        }
+
+        // the transactions are due once their next retry time is strictly before the recover time
+        Thread.sleep(10);
+
+        long start = System.currentTimeMillis();
+        transactionRecovery.startRecover();
+        long elapsed = System.currentTimeMillis() - start;
+
+        transactionRecovery.shutdown();
+
+        Assert.assertTrue("recover took " + elapsed + " ms", elapsed < 16 * SlowParticipant.LATENCY_IN_MILLIS / 2);
+
+        List<Transaction> remaining = repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000));
+
+        Assert.assertEquals(1, remaining.size());
+        Assert.assertEquals(failing.getXid(), remaining.get(0).getXid());
+        Assert.assertEquals(1, remaining.get(0).getRetriedCount());
+    }
+
+    @Test
+    public void testRecoverWithRepositoryWithoutPartialUpdates() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setRecoverDuration(0);
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(0);
+
+        // an implementation of the plain SPI, found on its last update time and written with update
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(new PlainTransactionRepository(repository), recoverConfig));
+
+        Transaction failing = createConfirming(repository, false);
+        createConfirming(repository, true);
+
+        Thread.sleep(10);
+
+        transactionRecovery.startRecover();
+        transactionRecovery.shutdown();
+
+        List<Transaction> remaining = repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000));
+
+        Assert.assertEquals(1, remaining.size());
+        Assert.assertEquals(failing.getXid(), remaining.get(0).getXid());
+        Assert.assertEquals(1, remaining.get(0).getRetriedCount());
+    }
+
+    @Test
+    public void testFailedTransactionIsRetriedAfterBackoff() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setRecoverDuration(0);
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(0);
+        recoverConfig.setRecoverBackoffInSeconds(60);
+        recoverConfig.setRecoverBackoffJitter(0.5);
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(repository, recoverConfig));
+
+        Transaction failing = createConfirming(repository, false);
+        Thread.sleep(10);
+
+        transactionRecovery.startRecover();
+        transactionRecovery.startRecover();
+
+        Transaction found = repository.findByXid((TransactionXid) failing.getXid());
+        Assert.assertEquals(1, found.getRetriedCount());
+
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(found.getNextRetryTime().getTime() >= now + 29 * 1000L);
+        Assert.assertTrue(found.getNextRetryTime().getTime() <= now + 90 * 1000L);
+
+        Assert.assertTrue(repository.findAllDueForRetry(new Date(now + 29 * 1000L)).isEmpty());
+        Assert.assertEquals(1, repository.findAllDueForRetry(new Date(now + 91 * 1000L)).size());
+    }
+
+    @Test
+    public void testExhaustedTransactionIsMovedToDeadLetters() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setRecoverDuration(0);
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(0);
+        recoverConfig.setRecoverBackoffInSeconds(0);
+        recoverConfig.setMaxRetryCount(1);
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(repository, recoverConfig));
+
+        Transaction failing = createConfirming(repository, false);
+        Thread.sleep(10);
+
+        for (int i = 0; i < 3; i++) {
+            transactionRecovery.startRecover();
+        }
+
+        Assert.assertNull(repository.findByXid((TransactionXid) failing.getXid()));
+        Assert.assertEquals(1, repository.findAllDeadLetters().size());
+        Assert.assertEquals(2, repository.findAllDeadLetters().get(0).getRetriedCount());
+
+        Assert.assertEquals(1, repository.requeue((TransactionXid) failing.getXid()));
+
+        Transaction requeued = repository.findByXid((TransactionXid) failing.getXid());
+        Assert.assertEquals(0, requeued.getRetriedCount());
+        Assert.assertTrue(repository.findAllDeadLetters().isEmpty());
+    }
+
+    @Test
+    public void testRecoveryIsPacedPerTarget() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverRatePerTarget(1);
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(repository, recoverConfig));
+
+        // left by a node stopped long ago, due with the default recoverDuration
+        for (int i = 0; i < 3; i++) {
+            createConfirming(repository, true, new Date(System.currentTimeMillis() - 200 * 1000L));
+        }
+
+        transactionRecovery.startRecover();
+
+        long now = System.currentTimeMillis();
+
+        List<Transaction> remaining = repository.findAllUnmodifiedSince(new Date(now + 1000));
+
+        Assert.assertEquals(2, remaining.size());
+
+        // the wait of about a second per transaction is saved as it is, not put off to recoverDuration after now
+        for (Transaction transaction : remaining) {
+            Assert.assertEquals(0, transaction.getRetriedCount());
+            Assert.assertEquals(1L, transaction.getVersion());
+            Assert.assertTrue(transaction.getNextRetryTime().getTime() > now);
+            Assert.assertTrue(transaction.getNextRetryTime().getTime() < now + 3000);
+        }
+
+        Assert.assertEquals(0, repository.findAllDueForRetry(new Date(now)).size());
+        Assert.assertEquals(2, repository.findAllDueForRetry(new Date(now + 3000)).size());
+    }
+
+    @Test
+    public void testPendingConfirmsAreBatchedPerTarget() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setRecoverDuration(0);
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(0);
+        recoverConfig.setRecoverTerminateBatchSize(2);
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(repository, recoverConfig));
+
+        BatchParticipant.BATCH_SIZES.clear();
+
+        for (int i = 0; i < 5; i++) {
+            createBatchConfirming(repository, "confirm");
+        }
+        Transaction unbatched = createConfirming(repository, true);
+        Thread.sleep(10);
+
+        transactionRecovery.startRecover();
+
+        Assert.assertEquals(Arrays.asList(2, 2, 1), BatchParticipant.BATCH_SIZES);
+        Assert.assertEquals(0, repository.size());
+        Assert.assertNull(repository.findByXid((TransactionXid) unbatched.getXid()));
+    }
+
+    @Test
+    public void testBatchesAreSplitPerMethodAndSkippedWhileOpen() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setRecoverDuration(0);
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(0);
+        recoverConfig.setRecoverTerminateBatchSize(10);
+        recoverConfig.setRecoverThreadPoolSize(2);
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(repository, recoverConfig));
+
+        BatchParticipant.BATCH_SIZES.clear();
+
+        for (int i = 0; i < 3; i++) {
+            createBatchConfirming(repository, "confirm");
+        }
+        createBatchConfirming(repository, "confirmRefund");
+        Thread.sleep(10);
+
+        CircuitBreaker.configure(1, 50);
+
+        try {
+            CircuitBreaker circuitBreaker = CircuitBreaker.of(new InvocationContext(BatchParticipant.class, "confirmBatch", new Class[]{List.class}));
+            circuitBreaker.onFailure();
+
+            transactionRecovery.startRecover();
+
+            Assert.assertTrue(BatchParticipant.BATCH_SIZES.isEmpty());
+            for (Transaction transaction : repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000))) {
+                Assert.assertEquals(0, transaction.getRetriedCount());
+            }
+
+            circuitBreaker.onSuccess();
+        } finally {
+            CircuitBreaker.configure(0, 30000);
+        }
+
+        // due again once the breaker would have let a probe through
+        Thread.sleep(60);
+
+        transactionRecovery.startRecover();
+        transactionRecovery.shutdown();
+
+        Collections.sort(BatchParticipant.BATCH_SIZES);
+        Assert.assertEquals(Arrays.asList(1, 3), BatchParticipant.BATCH_SIZES);
+        Assert.assertEquals(0, repository.size());
+    }
+
+    @Test
+    public void testFailedConfirmIsRetriedFromTimingWheel() throws InterruptedException {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverBackoffInSeconds(0);
+        recoverConfig.setRecoverTickInMillis(10);
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(repository, recoverConfig));
+
+        FlakyParticipant.FAILURES.set(2);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                new InvocationContext(FlakyParticipant.class, "confirm", new Class[]{boolean.class}, true),
+                new InvocationContext(FlakyParticipant.class, "cancel", new Class[]{boolean.class}, true),
+                Compensable.NullableTransactionContextEditor.class));
+        repository.create(transaction);
+
+        transactionRecovery.scheduleRecover(transaction);
+
+        for (int i = 0; i < 200 && repository.size() > 0; i++) {
+            Thread.sleep(10);
+        }
+
+        transactionRecovery.shutdown();
+
+        Assert.assertEquals(0, repository.size());
+        Assert.assertEquals(-1, FlakyParticipant.FAILURES.get());
+    }
+
+    @Test
+    public void testRecoverSummaryIsPublished() throws Exception {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setRecoverDuration(0);
+
+        DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(0);
+
+        final Map<String, Long> counters = new HashMap<String, Long>();
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new StubTransactionConfigurator(repository, recoverConfig));
+        transactionRecovery.setMetricsRegistry(new RecoverMetricsRegistry() {
+            @Override
+            public synchronized void increment(String name, String tag, long count) {
+                String key = tag == null ? name : name + "." + tag;
+                counters.put(key, (counters.containsKey(key) ? counters.get(key) : 0) + count);
+            }
+
+            @Override
+            public void record(String name, long value) {
+            }
+        });
+
+        createConfirming(repository, false);
+        createConfirming(repository, true);
+        createConfirming(repository, true);
+        Thread.sleep(10);
+
+        transactionRecovery.startRecover();
+
+        RecoverSummary summary = transactionRecovery.getLastRecoverSummary();
+
+        Assert.assertEquals(3, summary.getLoadedCount());
+        Assert.assertEquals(3, summary.getDueCount());
+        Assert.assertEquals(0, summary.getSkippedCount());
+        Assert.assertEquals(2, summary.getSucceededCount());
+        Assert.assertEquals(1, summary.getFailedCount());
+        Assert.assertEquals(Long.valueOf(3), summary.getBacklogAgeHistogram().get("1m"));
+        Assert.assertEquals(Long.valueOf(1), summary.getTargetFailureCounts().get(SlowParticipant.class.getName()));
+        Assert.assertTrue(summary.getDurationInMillis() >= 3 * SlowParticipant.LATENCY_IN_MILLIS);
+
+        Assert.assertEquals(Long.valueOf(2), counters.get(RecoverMetricsRegistry.SUCCEEDED));
+        Assert.assertEquals(Long.valueOf(1), counters.get(RecoverMetricsRegistry.TARGET_FAILED + "." + SlowParticipant.class.getName()));
+
+        transactionRecovery.registerMBean();
+
+        CompositeData published = (CompositeData) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName("org.mengyun.tcctransaction:type=TransactionRecovery"), "LastRecoverSummary");
+        Assert.assertEquals(1L, published.get("failedCount"));
+
+        transactionRecovery.shutdown();
+
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("org.mengyun.tcctransaction:type=TransactionRecovery")));
+    }
+
+    private static Transaction createBatchConfirming(TransactionRepository repository, String confirmMethod) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                new InvocationContext(BatchParticipant.class, confirmMethod, new Class[0]),
+                new InvocationContext(BatchParticipant.class, "cancel", new Class[0]),
+                Compensable.NullableTransactionContextEditor.class));
+
+        repository.create(transaction);
+        return transaction;
+    }
+
+    private static Transaction createConfirming(TransactionRepository repository, boolean succeed) {
+        return createConfirming(repository, succeed, null);
+    }
+
+    private static Transaction createConfirming(TransactionRepository repository, boolean succeed, Date lastUpdateTime) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+
+        InvocationContext confirm = new InvocationContext(SlowParticipant.class, "confirm", new Class[]{boolean.class}, succeed);
+        InvocationContext cancel = new InvocationContext(SlowParticipant.class, "cancel", new Class[]{boolean.class}, succeed);
+
+        transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                confirm, cancel, Compensable.NullableTransactionContextEditor.class));
+
+        if (lastUpdateTime != null) {
+            transaction.setLastUpdateTime(lastUpdateTime);
+        }
+
+        repository.create(transaction);
+        return transaction;
+    }
+
+    public static class SlowParticipant {
+
+        static final long LATENCY_IN_MILLIS = 100;
+
+        public void confirm(boolean succeed) throws InterruptedException {
+            Thread.sleep(LATENCY_IN_MILLIS);
+            if (!succeed) {
+                throw new IllegalStateException("confirm failed");
+            }
+        }
+
+        public void cancel(boolean succeed) {
+        }
+    }
+
+    public static class FlakyParticipant {
+
+        static final AtomicInteger FAILURES = new AtomicInteger();
+
+        public void confirm(boolean ignored) {
+            if (FAILURES.getAndDecrement() > 0) {
+                throw new IllegalStateException("confirm failed");
+            }
+        }
+
+        public void cancel(boolean ignored) {
+        }
+    }
+
+    public static class BatchParticipant implements BatchCompensable {
+
+        static final List<Integer> BATCH_SIZES = Collections.synchronizedList(new ArrayList<Integer>());
+
+        public void confirm() {
+            throw new IllegalStateException("confirmed one by one");
+        }
+
+        public void confirmRefund() {
+            throw new IllegalStateException("confirmed one by one");
+        }
+
+        public void cancel() {
+        }
+
+        @Override
+        public void confirmBatch(List<TransactionContext> transactionContexts) {
+            BATCH_SIZES.add(transactionContexts.size());
+        }
+
+        @Override
+        public void cancelBatch(List<TransactionContext> transactionContexts) {
+        }
+    }
+
+    private static class PlainTransactionRepository implements TransactionRepository {
+
+        private final TransactionRepository delegate;
+
+        PlainTransactionRepository(TransactionRepository delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int create(Transaction transaction) {
+            return delegate.create(transaction);
+        }
+
+        @Override
+        public int update(Transaction transaction) {
+            return delegate.update(transaction);
+        }
+
+        @Override
+        public int delete(Transaction transaction) {
+            return delegate.delete(transaction);
+        }
+
+        @Override
+        public Transaction findByXid(TransactionXid xid) {
+            return delegate.findByXid(xid);
+        }
+
+        @Override
+        public List<Transaction> findAllUnmodifiedSince(Date date) {
+            return delegate.findAllUnmodifiedSince(date);
+        }
+    }
+
+    private static class StubTransactionConfigurator implements TransactionConfigurator {
+
+        private final TransactionRepository transactionRepository;
+
+        private final RecoverConfig recoverConfig;
+
+        StubTransactionConfigurator(TransactionRepository transactionRepository, RecoverConfig recoverConfig) {
+            this.transactionRepository = transactionRepository;
+            this.recoverConfig = recoverConfig;
+        }
+
+        @Override
+        public TransactionManager getTransactionManager() {
+            return null;
+        }
+
+        @Override
+        public TransactionRepository getTransactionRepository() {
+            return transactionRepository;
+        }
+
+        @Override
+        public RecoverConfig getRecoverConfig() {
+            return recoverConfig;
+        }
+    }
+}
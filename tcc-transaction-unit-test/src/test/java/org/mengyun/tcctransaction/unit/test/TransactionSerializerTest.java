@@ -0,0 +1,153 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.FileSystemTransactionRepository;
+import org.mengyun.tcctransaction.repository.helper.LazyTransaction;
+import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Checks the envelope written by TransactionSerializer and the map format of earlier versions.
+ */
+public class TransactionSerializerTest {
+
+    private final ObjectSerializer serializer = new KryoPoolSerializer(1);
+
+    @Test
+    public void testEnvelopeRoundTrip() {
+
+        Transaction transaction = new Transaction(TransactionType.BRANCH);
+        transaction.changeStatus(TransactionStatus.CANCELLING);
+        transaction.addRetriedCount();
+        transaction.updateVersion();
+
+        byte[] value = TransactionSerializer.serialize(serializer, transaction);
+        Assert.assertTrue(TransactionSerializer.isEnvelope(value));
+
+        Transaction copy = TransactionSerializer.deserialize(serializer, value);
+
+        Assert.assertEquals(transaction.getXid(), copy.getXid());
+        Assert.assertEquals(TransactionStatus.CANCELLING, copy.getStatus());
+        Assert.assertEquals(TransactionType.BRANCH, copy.getTransactionType());
+        Assert.assertEquals(1, copy.getRetriedCount());
+        Assert.assertEquals(2L, copy.getVersion());
+        Assert.assertEquals(transaction.getLastUpdateTime(), copy.getLastUpdateTime());
+        Assert.assertNull(copy.getNextRetryTime());
+    }
+
+    @Test
+    public void testEnvelopeKeepsNextRetryTime() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.setNextRetryTime(new Date(5000L));
+
+        byte[] value = TransactionSerializer.serialize(serializer, transaction);
+
+        Assert.assertEquals(new Date(5000L), TransactionSerializer.deserialize(serializer, value).getNextRetryTime());
+        Assert.assertEquals(new Date(5000L), TransactionSerializer.deserializeLazily(serializer, value).getNextRetryTime());
+    }
+
+    @Test
+    public void testReadsFormat1Envelope() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.addRetriedCount();
+        transaction.setNextRetryTime(new Date(5000L));
+
+        // a format 1 envelope is the format 2 one without the next retry time at 37
+        byte[] value = TransactionSerializer.serialize(serializer, transaction);
+        byte[] format1 = new byte[value.length - 8];
+        System.arraycopy(value, 0, format1, 0, 37);
+        System.arraycopy(value, 45, format1, 37, value.length - 45);
+        format1[2] = 1;
+
+        Transaction copy = TransactionSerializer.deserialize(serializer, format1);
+        Assert.assertEquals(transaction.getXid(), copy.getXid());
+        Assert.assertEquals(1, copy.getRetriedCount());
+        Assert.assertNull(copy.getNextRetryTime());
+
+        Transaction lazyCopy = TransactionSerializer.deserializeLazily(serializer, format1);
+        Assert.assertEquals(transaction.getXid(), lazyCopy.getXid());
+        Assert.assertEquals(1, lazyCopy.getRetriedCount());
+        Assert.assertNull(lazyCopy.getNextRetryTime());
+    }
+
+    @Test
+    public void testReadsMapFormat() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.addRetriedCount();
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("GLOBAL_TX_ID", transaction.getXid().getGlobalTransactionId());
+        map.put("BRANCH_QUALIFIER", transaction.getXid().getBranchQualifier());
+        map.put("STATUS", transaction.getStatus().getId());
+        map.put("TRANSACTION_TYPE", transaction.getTransactionType().getId());
+        map.put("RETRIED_COUNT", transaction.getRetriedCount());
+        map.put("CREATE_TIME", transaction.getCreateTime());
+        map.put("LAST_UPDATE_TIME", new Date(1000L));
+        map.put("VERSION", 5L);
+        map.put("CONTENT", serializer.serialize(transaction));
+
+        Transaction copy = TransactionSerializer.deserialize(serializer, serializer.serialize(map));
+
+        Assert.assertEquals(transaction.getXid(), copy.getXid());
+        Assert.assertEquals(1, copy.getRetriedCount());
+        Assert.assertEquals(5L, copy.getVersion());
+        Assert.assertEquals(new Date(1000L), copy.getLastUpdateTime());
+    }
+
+    @Test
+    public void testLazyRecoveryScan() {
+
+        File rootPath = new File(System.getProperty("java.io.tmpdir"), "tcc-" + UUID.randomUUID());
+
+        FileSystemTransactionRepository repository = new FileSystemTransactionRepository();
+        repository.setRootPath(rootPath.getAbsolutePath());
+        repository.setSerializer(serializer);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                new InvocationContext(TransactionSerializerTest.class, "confirm", new Class[]{String.class}, "a"),
+                new InvocationContext(TransactionSerializerTest.class, "cancel", new Class[]{String.class}, "a"),
+                Compensable.DefaultTransactionContextEditor.class));
+        repository.create(transaction);
+
+        try {
+            List<Transaction> transactions = repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000));
+            Assert.assertEquals(1, transactions.size());
+
+            LazyTransaction lazyTransaction = (LazyTransaction) transactions.get(0);
+            Assert.assertEquals(transaction.getXid(), lazyTransaction.getXid());
+
+            lazyTransaction.addRetriedCount();
+            repository.update(lazyTransaction);
+            Assert.assertFalse(lazyTransaction.isMaterialized());
+
+            LazyTransaction reloaded = (LazyTransaction) repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000)).get(0);
+            Assert.assertEquals(1, reloaded.getRetriedCount());
+            Assert.assertEquals(2L, reloaded.getVersion());
+            Assert.assertEquals(1, reloaded.getParticipants().size());
+            Assert.assertTrue(reloaded.isMaterialized());
+        } finally {
+            repository.delete(transaction);
+            rootPath.delete();
+        }
+    }
+}